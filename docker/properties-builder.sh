@@ -64,6 +64,57 @@ git.product=${BITBUCKET_PRODUCT:-cloud}
 #API encryption key. Optional. See http://capitalone.github.io/Hygieia/setup.html#encryption-for-private-repos	
 git.key=${BITBUCKET_KEY:-}
 
+#Minutes between recomputing which collector items are referenced by dashboards. Default is 60.
+git.cleanIntervalMinutes=${BITBUCKET_CLEAN_INTERVAL_MINUTES:-60}
+
+#Minutes between listings of pull requests in all states; open ones are listed every cycle. Default is 60.
+git.pullRequestSweepIntervalMinutes=${BITBUCKET_PULL_REQUEST_SWEEP_INTERVAL_MINUTES:-60}
+
+#Idle repos are polled less often, doubling from the initial to the max minutes.
+git.pollBackoffInitialMinutes=${BITBUCKET_POLL_BACKOFF_INITIAL_MINUTES:-5}
+git.pollBackoffMaxMinutes=${BITBUCKET_POLL_BACKOFF_MAX_MINUTES:-1440}
+
+#Continuous mode: workers collect each repo when it is due instead of once per cron cycle.
+git.continuous=${BITBUCKET_CONTINUOUS:-false}
+git.continuousIntervalSeconds=${BITBUCKET_CONTINUOUS_INTERVAL_SECONDS:-300}
+git.workers=${BITBUCKET_WORKERS:-4}
+
+#Wall-clock budgets per cycle and per repo; 0 means unlimited.
+git.cycleBudgetMinutes=${BITBUCKET_CYCLE_BUDGET_MINUTES:-0}
+git.repoBudgetSeconds=${BITBUCKET_REPO_BUDGET_SECONDS:-0}
+
+#Repos failing with 401/403/404 this many cycles in a row are quarantined for up to the max hours.
+git.quarantineAfterFailures=${BITBUCKET_QUARANTINE_AFTER_FAILURES:-3}
+git.quarantineMaxHours=${BITBUCKET_QUARANTINE_MAX_HOURS:-168}
+
+#Cluster mode: instances share the repos through leases in Mongo.
+git.cluster=${BITBUCKET_CLUSTER:-false}
+git.leaseSeconds=${BITBUCKET_LEASE_SECONDS:-600}
+
+#Static sharding: replica shardIndex collects its share of shardCount shards; 0 or 1 disables it.
+git.shardIndex=${BITBUCKET_SHARD_INDEX:-0}
+git.shardCount=${BITBUCKET_SHARD_COUNT:-0}
+
+#Port serving /metrics and /progress; 0 disables it.
+git.metricsPort=${BITBUCKET_METRICS_PORT:-0}
+
+#Per-repo cost ledger; the costTopN most expensive repos are logged after each cycle.
+git.costLedger=${BITBUCKET_COST_LEDGER:-false}
+git.costTopN=${BITBUCKET_COST_TOP_N:-10}
+
+#HTTP archive: "record" or "replay" Bitbucket responses in the httpArchive file.
+git.httpArchiveMode=${BITBUCKET_HTTP_ARCHIVE_MODE:-}
+git.httpArchive=${BITBUCKET_HTTP_ARCHIVE:-}
+git.httpArchiveReplayLatency=${BITBUCKET_HTTP_ARCHIVE_REPLAY_LATENCY:-false}
+
+#On-disk cache of responses that never change; empty responseCacheDir disables it.
+git.responseCacheDir=${BITBUCKET_RESPONSE_CACHE_DIR:-}
+git.responseCacheMaxMegabytes=${BITBUCKET_RESPONSE_CACHE_MAX_MEGABYTES:-256}
+
+#Revalidate pages with If-None-Match/If-Modified-Since. Off by default.
+git.conditionalRequests=${BITBUCKET_CONDITIONAL_REQUESTS:-false}
+git.validatorCacheMaxMegabytes=${BITBUCKET_VALIDATOR_CACHE_MAX_MEGABYTES:-32}
+
 EOF
 
 echo "
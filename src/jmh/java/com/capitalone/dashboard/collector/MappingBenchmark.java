@@ -0,0 +1,98 @@
+package com.capitalone.dashboard.collector;
+
+import com.capitalone.dashboard.bitbucketapi.BitbucketApiUrlBuilder;
+import com.capitalone.dashboard.model.Commit;
+import com.capitalone.dashboard.model.GitRepo;
+import com.capitalone.dashboard.model.GitRequest;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+import java.net.URI;
+import java.text.ParseException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Mapping of a page of commits and of pull requests to Hygieia models. The commits go through
+ * {@link DefaultBitbucketServerClient#getCommits} with a client answering the page without a
+ * network call, so parsing, mapping and paging are measured together; the pull requests are
+ * mapped item by item from an already parsed page.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MappingBenchmark {
+    private static final String REPO_URL = "https://username@company.com/scm/project/repository.git";
+
+    @Param({"25", "100", "1000"})
+    private int pageSize;
+
+    private DefaultBitbucketServerClient serverClient;
+    private PullRequestCollector pullRequestCollector;
+    private GitRepo repo;
+    private JSONArray serverPulls;
+    private JSONArray cloudPulls;
+
+    @Setup
+    public void setUp() {
+        GitSettings settings = new GitSettings();
+        settings.setProduct("server");
+        settings.setApi("/rest/api/1.0/");
+        settings.setPageSize(pageSize);
+        final ResponseEntity<String> commits =
+                new ResponseEntity<>(SyntheticPages.serverCommits(pageSize).toJSONString(), HttpStatus.OK);
+        SCMHttpRestClient restClient = new SCMHttpRestClient() {
+            @Override
+            public ResponseEntity<String> makeRestCall(URI uri, String userId, String password) {
+                return commits;
+            }
+        };
+        serverClient = new DefaultBitbucketServerClient(settings, new BitbucketApiUrlBuilder(settings), restClient);
+        pullRequestCollector = new PullRequestCollector();
+
+        repo = new GitRepo();
+        repo.setRepoUrl(REPO_URL);
+        repo.getOptions().put("url", REPO_URL);
+        repo.setBranch("develop");
+        serverPulls = (JSONArray) SyntheticPages.serverPullRequests(pageSize).get("values");
+        cloudPulls = (JSONArray) SyntheticPages.cloudPullRequests(pageSize).get("values");
+    }
+
+    @Benchmark
+    public List<Commit> serverCommits() {
+        return serverClient.getCommits(repo, false, null, null);
+    }
+
+    @Benchmark
+    public void serverPullRequests(Blackhole blackhole) {
+        for (Object pull : serverPulls) {
+            GitRequest request = pullRequestCollector.getPullRequestServer(repo, (JSONObject) pull);
+            blackhole.consume(request);
+        }
+    }
+
+    @Benchmark
+    public void cloudPullRequests(Blackhole blackhole) throws ParseException {
+        for (Object pull : cloudPulls) {
+            GitRequest request = pullRequestCollector.getPullRequestCloud(repo, (JSONObject) pull);
+            blackhole.consume(request);
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.capitalone.dashboard.collector;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+import java.net.URI;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing of a page of commits and its paging metadata, done once per page fetched.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParsingBenchmark {
+    @Param({"25", "100", "1000"})
+    private int pageSize;
+
+    private ResponseEntity<String> response;
+    private JSONObject page;
+    private JSONArray values;
+    private JSONObject nextPage;
+    private URI pageUrl;
+
+    @Setup
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        page = SyntheticPages.serverCommits(pageSize);
+        values = (JSONArray) page.get("values");
+        response = new ResponseEntity<>(page.toJSONString(), HttpStatus.OK);
+        nextPage = new JSONObject(page);
+        nextPage.put("isLastPage", false);
+        nextPage.put("nextPageStart", pageSize);
+        pageUrl = URI.create("https://company.com/rest/api/1.0/projects/PRJ/repos/repo1/commits"
+                + "?until=refs%2Fheads%2Fmaster&limit=" + pageSize);
+    }
+
+    @Benchmark
+    public JSONObject parseAsObject() {
+        return JSONParserUtils.parseAsObject(response);
+    }
+
+    @Benchmark
+    public PageMetadata lastPageMetadata() {
+        return new PageMetadata(pageUrl, page, values);
+    }
+
+    @Benchmark
+    public PageMetadata nextPageMetadata() {
+        return new PageMetadata(pageUrl, nextPage, values);
+    }
+}
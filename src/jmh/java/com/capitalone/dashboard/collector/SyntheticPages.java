@@ -0,0 +1,153 @@
+package com.capitalone.dashboard.collector;
+
+import org.apache.commons.io.IOUtils;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TimeZone;
+
+/**
+ * Pages of Bitbucket responses of any size for the benchmarks. Every item is a copy of an item of
+ * the fixtures in {@code src/test/resources/bitbucket-server} with its own id, message and
+ * timestamps, so the parser and the mappers see as many distinct strings as in a real page.
+ * There is no Cloud fixture; Cloud pull requests carry the values of the Server fixture under the
+ * Cloud field names.
+ */
+final class SyntheticPages {
+    private static final long NOW = 1538072099541L;
+
+    private SyntheticPages() {
+    }
+
+    /**
+     * @return last page of a Bitbucket Server commits listing
+     */
+    @SuppressWarnings("unchecked")
+    static JSONObject serverCommits(int size) {
+        JSONObject template = firstValue("/bitbucket-server/response1a.json");
+        JSONArray values = new JSONArray();
+        for (int i = 0; i < size; i++) {
+            JSONObject commit = copy(template);
+            commit.put("id", sha(i));
+            commit.put("displayId", sha(i).substring(0, 11));
+            commit.put("message", "JIRA-" + i + " Synthetic commit message number " + i);
+            commit.put("authorTimestamp", NOW - i * 60000L);
+            values.add(commit);
+        }
+        return serverPage(values);
+    }
+
+    /**
+     * @return last page of a Bitbucket Server pull requests listing
+     */
+    @SuppressWarnings("unchecked")
+    static JSONObject serverPullRequests(int size) {
+        JSONObject template = firstValue("/bitbucket-server/pr-response-test-data-1.json");
+        JSONArray values = new JSONArray();
+        for (int i = 0; i < size; i++) {
+            JSONObject pull = copy(template);
+            pull.put("id", 7000L + i);
+            pull.put("title", "Synthetic pull request number " + i);
+            pull.put("createdDate", NOW - i * 3600000L);
+            pull.put("updatedDate", NOW - i * 60000L);
+            ((JSONObject) pull.get("fromRef")).put("latestCommit", sha(i));
+            values.add(pull);
+        }
+        return serverPage(values);
+    }
+
+    /**
+     * @return last page of a Bitbucket Cloud pull requests listing
+     */
+    @SuppressWarnings("unchecked")
+    static JSONObject cloudPullRequests(int size) {
+        JSONObject template = firstValue("/bitbucket-server/pr-response-test-data-1.json");
+        JSONObject user = (JSONObject) ((JSONObject) template.get("author")).get("user");
+        JSONObject toRef = (JSONObject) template.get("toRef");
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'000+00:00'");
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        JSONArray values = new JSONArray();
+        for (int i = 0; i < size; i++) {
+            JSONObject pull = new JSONObject();
+            pull.put("id", 7000L + i);
+            pull.put("title", "Synthetic pull request number " + i);
+            pull.put("description", template.get("description"));
+            pull.put("state", template.get("state"));
+            pull.put("created_on", format.format(new Date(NOW - i * 3600000L)));
+            pull.put("updated_on", format.format(new Date(NOW - i * 60000L)));
+            pull.put("comment_count", 0L);
+            pull.put("source", ref(str(template.get("fromRef"), "displayId"), sha(i)));
+            pull.put("destination", ref(str(toRef, "displayId"), sha(i + size)));
+            JSONObject author = new JSONObject();
+            author.put("display_name", user.get("displayName"));
+            author.put("nickname", user.get("name"));
+            pull.put("author", author);
+            values.add(pull);
+        }
+        JSONObject page = new JSONObject();
+        page.put("pagelen", size);
+        page.put("page", 1);
+        page.put("size", size);
+        page.put("values", values);
+        return page;
+    }
+
+    static String sha(int i) {
+        return String.format("%040x", 0x215e5a6cbbdaL * 31 + i);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static JSONObject serverPage(JSONArray values) {
+        JSONObject page = new JSONObject();
+        page.put("size", values.size());
+        page.put("limit", values.size());
+        page.put("start", 0);
+        page.put("isLastPage", true);
+        page.put("values", values);
+        return page;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static JSONObject ref(String branch, String hash) {
+        JSONObject branchJson = new JSONObject();
+        branchJson.put("name", branch);
+        JSONObject commit = new JSONObject();
+        commit.put("hash", hash);
+        JSONObject ref = new JSONObject();
+        ref.put("branch", branchJson);
+        ref.put("commit", commit);
+        return ref;
+    }
+
+    private static String str(Object json, String key) {
+        return JSONParserUtils.str((JSONObject) json, key);
+    }
+
+    private static JSONObject copy(JSONObject json) {
+        return parse(json.toJSONString());
+    }
+
+    private static JSONObject firstValue(String resource) {
+        try (InputStream in = SyntheticPages.class.getResourceAsStream(resource)) {
+            JSONObject page = parse(IOUtils.toString(in, StandardCharsets.UTF_8));
+            return (JSONObject) ((JSONArray) page.get("values")).get(0);
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to read " + resource, e);
+        }
+    }
+
+    private static JSONObject parse(String json) {
+        try {
+            return (JSONObject) new JSONParser().parse(json);
+        } catch (ParseException e) {
+            throw new IllegalStateException("Invalid JSON", e);
+        }
+    }
+}
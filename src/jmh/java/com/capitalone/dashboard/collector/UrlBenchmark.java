@@ -0,0 +1,59 @@
+package com.capitalone.dashboard.collector;
+
+import com.capitalone.dashboard.bitbucketapi.BitbucketApiUrlBuilder;
+import com.capitalone.dashboard.bitbucketapi.BitbucketUrlParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing of repository urls and building of the pull requests API url, done for every
+ * repository and every pull request page.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UrlBenchmark {
+    @Param({"server", "cloud"})
+    private String product;
+
+    @Param({
+            "https://username@company.com/scm/project/repository.git",
+            "ssh://git@company.com:7999/~username/repository.git"})
+    private String repoUrl;
+
+    private BitbucketApiUrlBuilder urlBuilder;
+
+    @Setup
+    public void setUp() {
+        GitSettings settings = new GitSettings();
+        settings.setProduct(product);
+        settings.setApi("cloud".equals(product) ? "/2.0/repositories/" : "/rest/api/1.0/");
+        urlBuilder = new BitbucketApiUrlBuilder(settings);
+    }
+
+    @Benchmark
+    public BitbucketUrlParser.BitbucketUrlParts parseBitbucketUrl() {
+        return BitbucketUrlParser.parseBitbucketUrl(repoUrl);
+    }
+
+    @Benchmark
+    public URI buildPullRequestApiUrl() throws URISyntaxException {
+        return urlBuilder.buildPullRequestApiUrl(repoUrl);
+    }
+}
@@ -92,9 +92,10 @@ public class BitbucketApiUrlBuilder {
         URI uri = buildReposApiUrl(rawUrl);
         URIBuilder builder = new URIBuilder(uri);
         String bitbucketproduct = settings.getProduct() != null ? settings.getProduct() : StringUtils.EMPTY;
-        //Only configured for Bitbucket Cloud - May change for Bitbucket Server
         if(bitbucketproduct.equalsIgnoreCase("cloud")) {
             builder.setPath(builder.getPath() + "/pullrequests/" + pullRequestId + "/commits");
+        }else {
+            builder.setPath(builder.getPath() + "/pull-requests/" + pullRequestId + "/commits");
         }
         return builder.build();
     }
@@ -104,7 +105,7 @@ public class BitbucketApiUrlBuilder {
         URI uri = buildReposApiUrl(rawUrl);
         URIBuilder builder = new URIBuilder(uri);
         String bitbucketproduct = settings.getProduct() != null ? settings.getProduct() : StringUtils.EMPTY;
-        //Only configured for Bitbucket Cloud - May change for Bitbucket Server
+        //Only configured for Bitbucket Cloud - Bitbucket Server reports comments as pull request activities
         if(bitbucketproduct.equalsIgnoreCase("cloud")) {
             builder.setPath(builder.getPath() + "/pullrequests/" + pullRequestId + "/comments");
         }
@@ -3,6 +3,7 @@ package com.capitalone.dashboard.bitbucketapi;
 import org.apache.commons.lang3.StringUtils;
 
 import java.net.URI;
+import java.util.Locale;
 
 public class BitbucketUrlParser {
 
@@ -33,7 +34,8 @@ public class BitbucketUrlParser {
         String host = uri.getHost();
         int port = uri.getPort();
 
-        String scheme = SSH.equalsIgnoreCase(uri.getScheme()) ? HTTPS : uri.getScheme();
+        boolean ssh = SSH.equalsIgnoreCase(uri.getScheme());
+        String scheme = ssh ? HTTPS : uri.getScheme();
 
         String path = parseURLPath(uri);
 
@@ -50,7 +52,7 @@ public class BitbucketUrlParser {
             repositorySlug = path;
         }
 
-        return new BitbucketUrlParts(scheme, host, port, projectKey, repositorySlug);
+        return new BitbucketUrlParts(scheme, host, port, projectKey, repositorySlug, ssh);
     }
 
     private static String parseURLPath(URI uri) {
@@ -70,19 +72,31 @@ public class BitbucketUrlParser {
      * Represents a Bitbucket URL constituents.
      */
     public static class BitbucketUrlParts {
+        private static final int DEFAULT_HTTPS_PORT = 443;
+        private static final int DEFAULT_HTTP_PORT = 80;
         private final String scheme;
         private final String host;
         private final Integer port;
         private final String projectKey;
         private final String repoKey;
+        private final boolean ssh;
 
         public BitbucketUrlParts(
                 String scheme, String host, int port, String projectKey, String repositorySlug) {
+            this(scheme, host, port, projectKey, repositorySlug, false);
+        }
+
+        /**
+         * @param ssh true if the URL was an ssh one, whose port is the ssh port
+         */
+        public BitbucketUrlParts(String scheme, String host, int port, String projectKey,
+                                 String repositorySlug, boolean ssh) {
             this.scheme = scheme;
             this.host = host;
             this.port = port;
             this.projectKey = projectKey;
             this.repoKey = repositorySlug;
+            this.ssh = ssh;
         }
 
         public String getScheme() {
@@ -104,6 +118,22 @@ public class BitbucketUrlParser {
         public String getRepoKey() {
             return repoKey;
         }
+
+        /**
+         * Identifies the repository independently of how its URL was spelled: user info, ssh or
+         * https scheme, default ports, the ssh port, ".git" suffix, "/scm" prefix and letter case
+         * are ignored.
+         *
+         * @return host[:port]/projectKey/repoKey in lower case
+         */
+        public String getCanonicalKey() {
+            StringBuilder key = new StringBuilder(StringUtils.defaultString(host));
+            if (!ssh && port != null && port != -1 && port != DEFAULT_HTTPS_PORT && port != DEFAULT_HTTP_PORT) {
+                key.append(':').append(port);
+            }
+            key.append('/').append(projectKey).append('/').append(repoKey);
+            return key.toString().toLowerCase(Locale.ENGLISH);
+        }
     }
 }
 
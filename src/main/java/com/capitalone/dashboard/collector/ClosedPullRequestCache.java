@@ -0,0 +1,110 @@
+package com.capitalone.dashboard.collector;
+
+import com.capitalone.dashboard.model.ClosedPullRequests;
+import com.capitalone.dashboard.model.GitRepo;
+import com.capitalone.dashboard.model.GitRequest;
+import com.capitalone.dashboard.repository.ClosedPullRequestsRepository;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-memory view of {@link ClosedPullRequests}, loaded lazily per collector item for the duration
+ * of a listing and written back only when it changed.
+ */
+@Component
+public class ClosedPullRequestCache {
+    private static final String CLOSED = "closed";
+    private static final String MERGED = "merged";
+
+    private final ClosedPullRequestsRepository closedPullRequestsRepository;
+    private final Map<ObjectId, ClosedPullRequests> cache = new ConcurrentHashMap<>();
+    private final Set<ObjectId> dirty = Collections.newSetFromMap(new ConcurrentHashMap<ObjectId, Boolean>());
+
+    @Autowired
+    public ClosedPullRequestCache(ClosedPullRequestsRepository closedPullRequestsRepository) {
+        this.closedPullRequestsRepository = closedPullRequestsRepository;
+    }
+
+    /**
+     * @return true if the pull request is known to be merged or declined
+     */
+    public boolean contains(GitRepo repo, String number) {
+        return repo.getId() != null && load(repo.getId()).getUpdatedAt().containsKey(number);
+    }
+
+    /**
+     * @return updatedAt the merged or declined pull request was stored with
+     */
+    public long getUpdatedAt(GitRepo repo, String number) {
+        Long updatedAt = load(repo.getId()).getUpdatedAt().get(number);
+        return updatedAt == null ? 0 : updatedAt;
+    }
+
+    /**
+     * Records the pull request if it is merged or declined.
+     */
+    public void add(GitRepo repo, GitRequest pull) {
+        if (repo.getId() == null || !isTerminal(pull)) {
+            return;
+        }
+        Long previous = load(repo.getId()).getUpdatedAt().put(pull.getNumber(), pull.getUpdatedAt());
+        if (previous == null || previous != pull.getUpdatedAt()) {
+            dirty.add(repo.getId());
+        }
+    }
+
+    /**
+     * Forgets a pull request that was reopened since it was recorded.
+     */
+    public void remove(GitRepo repo, String number) {
+        if (repo.getId() != null && load(repo.getId()).getUpdatedAt().remove(number) != null) {
+            dirty.add(repo.getId());
+        }
+    }
+
+    /**
+     * Persists the index of the collector item if it changed since it was loaded; an index left
+     * empty is deleted. The index is released either way, so that only the items being listed are
+     * held in memory; the next listing reads it again.
+     */
+    public void save(GitRepo repo) {
+        if (repo.getId() == null) {
+            return;
+        }
+        ClosedPullRequests closed = cache.remove(repo.getId());
+        if (dirty.remove(repo.getId()) && closed != null) {
+            if (closed.getUpdatedAt().isEmpty()) {
+                closedPullRequestsRepository.delete(repo.getId());
+            } else {
+                closedPullRequestsRepository.save(closed);
+            }
+        }
+    }
+
+    // package for junit
+    int loadedItems() {
+        return cache.size();
+    }
+
+    public static boolean isTerminal(GitRequest pull) {
+        return MERGED.equals(pull.getState()) || CLOSED.equals(pull.getState());
+    }
+
+    private ClosedPullRequests load(ObjectId collectorItemId) {
+        ClosedPullRequests closed = cache.get(collectorItemId);
+        if (closed == null) {
+            closed = closedPullRequestsRepository.findOne(collectorItemId);
+            if (closed == null) {
+                closed = new ClosedPullRequests(collectorItemId);
+            }
+            cache.put(collectorItemId, closed);
+        }
+        return closed;
+    }
+}
@@ -0,0 +1,180 @@
+package com.capitalone.dashboard.collector;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Progress of the running collection: the cycle, the repositories in flight with the pages they
+ * fetched so far, the queue depth, and how fresh the data of each repository is. It is shared by
+ * the whole process like {@link CollectorMetrics}; the collection loop and the page loops update it
+ * with a few map and counter operations, the report is only built when it is requested.
+ */
+public final class CollectionProgress {
+    private static final CollectionProgress GLOBAL = new CollectionProgress();
+
+    /** Upper bounds of the freshness histogram buckets, in minutes */
+    private static final long[] FRESHNESS_BUCKETS = {5, 15, 60, 360, 1440};
+
+    private final ConcurrentMap<String, InFlight> inFlight = new ConcurrentHashMap<>();
+    private final ThreadLocal<InFlight> current = new ThreadLocal<>();
+    private volatile Map<String, Long> lastUpdates = new ConcurrentHashMap<>();
+    private volatile String mode;
+    private volatile long cycleStartedAt;
+    private volatile long cycleFinishedAt;
+    private volatile int repositories;
+    private volatile int queueDepth;
+
+    public static CollectionProgress global() {
+        return GLOBAL;
+    }
+
+    /**
+     * @param mode cron or continuous
+     * @param lastUpdates time in millis each repository to collect was last collected, null if never
+     */
+    public void startCycle(String mode, Map<String, Long> lastUpdates) {
+        this.mode = mode;
+        this.cycleStartedAt = System.currentTimeMillis();
+        this.cycleFinishedAt = 0;
+        this.repositories = lastUpdates.size();
+        this.queueDepth = lastUpdates.size();
+        Map<String, Long> freshness = new ConcurrentHashMap<>();
+        for (Map.Entry<String, Long> entry : lastUpdates.entrySet()) {
+            // the map does not take null values, 0 stands for never collected
+            freshness.put(entry.getKey(), entry.getValue() == null ? 0L : entry.getValue());
+        }
+        this.lastUpdates = freshness;
+    }
+
+    public void finishCycle() {
+        this.cycleFinishedAt = System.currentTimeMillis();
+        this.queueDepth = 0;
+    }
+
+    /**
+     * @param queueDepth number of repositories waiting to be collected
+     */
+    public void setQueueDepth(int queueDepth) {
+        this.queueDepth = queueDepth;
+    }
+
+    /**
+     * Marks the repository as collected by the current thread.
+     */
+    public void begin(String repositoryKey) {
+        InFlight repository = new InFlight(repositoryKey);
+        inFlight.put(repositoryKey, repository);
+        current.set(repository);
+    }
+
+    /**
+     * @param collected true if the repository data is now up to date
+     */
+    public void end(String repositoryKey, boolean collected) {
+        inFlight.remove(repositoryKey);
+        current.remove();
+        if (collected) {
+            lastUpdates.put(repositoryKey, System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * Counts a page fetched for the repository the current thread collects.
+     */
+    public void recordPage() {
+        InFlight repository = current.get();
+        if (repository != null) {
+            repository.pages.incrementAndGet();
+        }
+    }
+
+    /**
+     * @return the progress report as JSON
+     */
+    @SuppressWarnings("unchecked")
+    public JSONObject toJson() {
+        long now = System.currentTimeMillis();
+        JSONObject cycle = new JSONObject();
+        cycle.put("mode", mode);
+        cycle.put("startedAt", cycleStartedAt == 0 ? null : cycleStartedAt);
+        cycle.put("finishedAt", cycleFinishedAt == 0 ? null : cycleFinishedAt);
+        cycle.put("elapsedMillis", cycleStartedAt == 0 ? 0 : (cycleFinishedAt == 0 ? now : cycleFinishedAt) - cycleStartedAt);
+        cycle.put("repositories", repositories);
+        cycle.put("queueDepth", queueDepth);
+
+        List<InFlight> repositoriesInFlight = new ArrayList<>(inFlight.values());
+        Collections.sort(repositoriesInFlight);
+        JSONArray inFlightJson = new JSONArray();
+        for (InFlight repository : repositoriesInFlight) {
+            JSONObject json = new JSONObject();
+            json.put("repository", repository.key);
+            json.put("thread", repository.thread);
+            json.put("elapsedMillis", now - repository.startedAt);
+            json.put("pages", repository.pages.get());
+            inFlightJson.add(json);
+        }
+
+        JSONObject report = new JSONObject();
+        report.put("cycle", cycle);
+        report.put("inFlight", inFlightJson);
+        report.put("freshness", freshness(now));
+        return report;
+    }
+
+    /**
+     * @return number of repositories per freshness lag bucket, from up to 5 minutes to never collected
+     */
+    private Map<String, Integer> freshness(long now) {
+        Map<String, Integer> histogram = new LinkedHashMap<>();
+        for (long bucket : FRESHNESS_BUCKETS) {
+            histogram.put(label(bucket), 0);
+        }
+        histogram.put("older", 0);
+        histogram.put("never", 0);
+        for (Long lastUpdate : lastUpdates.values()) {
+            String bucket = "never";
+            if (lastUpdate != 0) {
+                bucket = "older";
+                long lag = now - lastUpdate;
+                for (long limit : FRESHNESS_BUCKETS) {
+                    if (lag <= TimeUnit.MINUTES.toMillis(limit)) {
+                        bucket = label(limit);
+                        break;
+                    }
+                }
+            }
+            histogram.put(bucket, histogram.get(bucket) + 1);
+        }
+        return histogram;
+    }
+
+    private static String label(long minutes) {
+        return minutes < 60 ? "le" + minutes + "m" : "le" + (minutes / 60) + "h";
+    }
+
+    private static final class InFlight implements Comparable<InFlight> {
+        private final String key;
+        private final String thread = Thread.currentThread().getName();
+        private final long startedAt = System.currentTimeMillis();
+        private final AtomicInteger pages = new AtomicInteger();
+
+        private InFlight(String key) {
+            this.key = key;
+        }
+
+        @Override
+        public int compareTo(InFlight other) {
+            return Long.compare(startedAt, other.startedAt);
+        }
+    }
+}
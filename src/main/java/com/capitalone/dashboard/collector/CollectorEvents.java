@@ -0,0 +1,81 @@
+package com.capitalone.dashboard.collector;
+
+import org.springframework.http.ResponseEntity;
+
+/**
+ * Java Flight Recorder events of the collector: HTTP calls, parsed pages and persistence batches,
+ * tagged with the repository the current thread collects. An event costs a disabled check when the
+ * recording does not include it; on a JVM without {@code jdk.jfr}, such as Java 8 before update
+ * 262, nothing is recorded and the event classes are never loaded.
+ * <p>
+ * Each {@code begin} method returns a handle for the matching {@code end} method, null when nothing
+ * is recorded.
+ */
+public final class CollectorEvents {
+    private static final boolean AVAILABLE = isAvailable();
+    private static final ThreadLocal<String> REPOSITORY = new ThreadLocal<>();
+
+    private CollectorEvents() {
+    }
+
+    /**
+     * @param repositoryKey repository collected by the current thread, null once it is done
+     */
+    public static void setRepository(String repositoryKey) {
+        if (repositoryKey == null) {
+            REPOSITORY.remove();
+        } else {
+            REPOSITORY.set(repositoryKey);
+        }
+    }
+
+    public static Object beginHttpCall() {
+        return AVAILABLE ? HttpCallEvent.begin(REPOSITORY.get()) : null;
+    }
+
+    /**
+     * @param response response of the call, null if it failed
+     */
+    public static void endHttpCall(Object handle, String url, ResponseEntity<String> response) {
+        if (handle != null) {
+            HttpCallEvent.end(handle, CollectorMetrics.endpointKind(url), response);
+        }
+    }
+
+    public static Object beginPage() {
+        return AVAILABLE ? PageEvent.begin(REPOSITORY.get()) : null;
+    }
+
+    /**
+     * @param page number of the page in its loop, starting at 1
+     * @param items number of values on the page
+     */
+    public static void endPage(Object handle, String kind, int page, int items) {
+        if (handle != null) {
+            PageEvent.end(handle, kind, page, items);
+        }
+    }
+
+    public static Object beginPersistence() {
+        return AVAILABLE ? PersistenceEvent.begin(REPOSITORY.get()) : null;
+    }
+
+    /**
+     * @param operation what was saved, for example {@code commits}
+     * @param items number of documents saved
+     */
+    public static void endPersistence(Object handle, String operation, int items) {
+        if (handle != null) {
+            PersistenceEvent.end(handle, operation, items);
+        }
+    }
+
+    private static boolean isAvailable() {
+        try {
+            Class.forName("jdk.jfr.Event");
+            return true;
+        } catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+}
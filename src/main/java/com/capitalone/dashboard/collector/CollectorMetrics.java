@@ -0,0 +1,138 @@
+package com.capitalone.dashboard.collector;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Tag;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.prometheus.PrometheusConfig;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.client.HttpStatusCodeException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Counters and timers of the collector, kept in a Micrometer {@link PrometheusMeterRegistry}. The
+ * registry is shared by the whole process, so that static helpers and objects created outside of
+ * Spring record into the same meters; common tags, such as host and product, are added to every
+ * meter registered after they were set.
+ * <p>
+ * Meters:
+ * <ul>
+ * <li>{@code bitbucket_http_requests_seconds} per endpoint kind and status</li>
+ * <li>{@code bitbucket_http_received_bytes_total} per endpoint kind</li>
+ * <li>{@code bitbucket_http_coalesced_total} per endpoint kind, calls saved by sharing a call in flight</li>
+ * <li>{@code bitbucket_pages_total} and {@code bitbucket_page_items_total} per endpoint kind</li>
+ * <li>{@code bitbucket_json_parse_seconds}</li>
+ * <li>{@code bitbucket_mongo_operations_seconds} per repository and method</li>
+ * <li>{@code bitbucket_commits_inserted_total} and {@code bitbucket_pull_requests_inserted_total}</li>
+ * <li>{@code bitbucket_collection_cycle_seconds} per mode</li>
+ * <li>{@code bitbucket_conditional_requests_total} per endpoint kind and result (not_modified or modified)</li>
+ * <li>{@code bitbucket_response_cache_requests_total} per result (hit or miss) and {@code bitbucket_response_cache_evictions_total}</li>
+ * </ul>
+ * Each timer also has a {@code _seconds_max} gauge.
+ */
+public final class CollectorMetrics {
+    private static final CollectorMetrics GLOBAL = new CollectorMetrics();
+
+    private final PrometheusMeterRegistry registry = new PrometheusMeterRegistry(PrometheusConfig.DEFAULT);
+
+    public static CollectorMetrics global() {
+        return GLOBAL;
+    }
+
+    /**
+     * @param tags tags added to every meter, such as host and product
+     */
+    public void setCommonTags(Map<String, String> tags) {
+        List<Tag> common = new ArrayList<>();
+        for (Map.Entry<String, String> tag : tags.entrySet()) {
+            common.add(Tag.of(tag.getKey(), tag.getValue()));
+        }
+        registry.config().commonTags(common);
+    }
+
+    /**
+     * @param tags alternating tag names and values
+     */
+    public void count(String name, long amount, String... tags) {
+        registry.counter(name, tags).increment(amount);
+    }
+
+    /**
+     * @param tags alternating tag names and values
+     */
+    public void record(String name, long nanos, String... tags) {
+        registry.timer(name, tags).record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public long getCount(String name, String... tags) {
+        Counter counter = registry.find(name).tags(tags).counter();
+        return counter == null ? 0 : (long) counter.count();
+    }
+
+    public long getTimerCount(String name, String... tags) {
+        Timer timer = registry.find(name).tags(tags).timer();
+        return timer == null ? 0 : timer.count();
+    }
+
+    /**
+     * @return the registry, whose scrape renders all meters in the Prometheus text format
+     */
+    public PrometheusMeterRegistry getRegistry() {
+        return registry;
+    }
+
+    /**
+     * Records one HTTP call to Bitbucket.
+     *
+     * @param response response of the call, null if it failed
+     * @param failure exception thrown by the call, null if it succeeded
+     */
+    public void recordHttpCall(String url, long nanos, ResponseEntity<String> response, RuntimeException failure) {
+        String kind = endpointKind(url);
+        String status;
+        if (failure instanceof HttpStatusCodeException) {
+            status = String.valueOf(((HttpStatusCodeException) failure).getStatusCode().value());
+        } else if (failure != null) {
+            status = failure.getClass().getSimpleName();
+        } else {
+            status = response == null || response.getStatusCode() == null
+                    ? "unknown" : String.valueOf(response.getStatusCode().value());
+        }
+        record("bitbucket_http_requests", nanos, "kind", kind, "status", status);
+        long bytes = 0;
+        if (response != null && response.getBody() != null) {
+            long length = response.getHeaders() == null ? -1 : response.getHeaders().getContentLength();
+            bytes = length >= 0 ? length : response.getBody().length();
+            count("bitbucket_http_received_bytes", bytes, "kind", kind);
+        }
+        // every call to Bitbucket passes through here, so it is also charged to the repository
+        CostLedger.recordHttpCall(bytes);
+    }
+
+    /**
+     * @return kind of Bitbucket endpoint the url calls, used to tag the HTTP meters
+     */
+    public static String endpointKind(String url) {
+        if (url == null) {
+            return "other";
+        }
+        String path = url.contains("?") ? url.substring(0, url.indexOf('?')) : url;
+        if (path.contains("/activities")) {
+            return "activities";
+        }
+        if (path.contains("/comments")) {
+            return "comments";
+        }
+        if (path.contains("/pull-requests") || path.contains("/pullrequests")) {
+            return path.endsWith("/commits") ? "pull-request-commits" : "pull-requests";
+        }
+        if (path.contains("/commits")) {
+            return "commits";
+        }
+        return "other";
+    }
+}
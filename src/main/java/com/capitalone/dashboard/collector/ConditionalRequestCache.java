@@ -0,0 +1,142 @@
+package com.capitalone.dashboard.collector;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+
+import java.net.URI;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Remembers the validators Bitbucket sent with a page, its ETag or Last-Modified header, together
+ * with the page itself, so that the next request for the page can be made conditional. When
+ * Bitbucket answers 304 the remembered page is handed out with status {@code NOT_MODIFIED}:
+ * callers that know what an unchanged page means for them stop without parsing it, the others read
+ * it as if it had been sent again.
+ * <p>
+ * Requests are only made conditional if {@code git.conditionalRequests} is set, which is off by
+ * default. Pages are kept per URI and user, least recently used first out once their size exceeds
+ * {@code git.validatorCacheMaxMegabytes}. Revalidations are counted per endpoint kind in
+ * {@code bitbucket_conditional_requests}, tagged with result {@code not_modified} or {@code modified}.
+ */
+@Component
+public class ConditionalRequestCache {
+    private static final String METER = "bitbucket_conditional_requests";
+    private static final String NOT_MODIFIED = "not_modified";
+    private static final String MODIFIED = "modified";
+
+    private final boolean enabled;
+    private final long maxChars;
+    private final LinkedHashMap<String, Validated> pages = new LinkedHashMap<>(16, 0.75f, true);
+    private long chars;
+
+    @Autowired
+    public ConditionalRequestCache(GitSettings settings) {
+        this.enabled = settings.isConditionalRequests();
+        // a char takes two bytes
+        this.maxChars = settings.getValidatorCacheMaxMegabytes() * 1024L * 1024L / 2;
+    }
+
+    /**
+     * Adds If-None-Match or If-Modified-Since to the request headers if the page is known.
+     *
+     * @return true if the request was made conditional
+     */
+    public synchronized boolean addValidators(URI uri, String userId, HttpHeaders headers) {
+        Validated page = enabled ? pages.get(SCMHttpRestClient.cacheKey(uri, userId)) : null;
+        if (page == null) {
+            return false;
+        }
+        if (page.etag != null) {
+            headers.setIfNoneMatch(page.etag);
+        } else {
+            headers.set(HttpHeaders.IF_MODIFIED_SINCE, page.lastModified);
+        }
+        return true;
+    }
+
+    /**
+     * Remembers a page that carries validators, or resolves a 304 to the remembered page.
+     *
+     * @param conditional true if the request was sent with validators
+     * @return the response to hand to the caller; null if Bitbucket answered 304 to a page that
+     * was dropped in the meantime, which then has to be asked for again
+     */
+    public ResponseEntity<String> update(URI uri, String userId, boolean conditional, ResponseEntity<String> response) {
+        String key = SCMHttpRestClient.cacheKey(uri, userId);
+        String kind = CollectorMetrics.endpointKind(String.valueOf(uri));
+        if (response.getStatusCode() == HttpStatus.NOT_MODIFIED) {
+            Validated page;
+            synchronized (this) {
+                page = pages.get(key);
+            }
+            if (page == null) {
+                return null;
+            }
+            CollectorMetrics.global().count(METER, 1, "kind", kind, "result", NOT_MODIFIED);
+            return new ResponseEntity<>(page.body, page.headers, HttpStatus.NOT_MODIFIED);
+        }
+        if (conditional) {
+            CollectorMetrics.global().count(METER, 1, "kind", kind, "result", MODIFIED);
+        }
+        String etag = response.getHeaders().getETag();
+        String lastModified = response.getHeaders().getFirst(HttpHeaders.LAST_MODIFIED);
+        synchronized (this) {
+            remove(key);
+            if (enabled && response.getStatusCode() == HttpStatus.OK && response.getBody() != null
+                    && (etag != null || lastModified != null) && response.getBody().length() <= maxChars) {
+                pages.put(key, new Validated(etag, lastModified, response));
+                chars += response.getBody().length();
+                evict();
+            }
+        }
+        return response;
+    }
+
+    /**
+     * @return share of the conditional requests of an endpoint kind answered with 304
+     */
+    public double getNotModifiedRate(String kind) {
+        long notModified = CollectorMetrics.global().getCount(METER, "kind", kind, "result", NOT_MODIFIED);
+        long modified = CollectorMetrics.global().getCount(METER, "kind", kind, "result", MODIFIED);
+        return notModified + modified == 0 ? 0 : (double) notModified / (notModified + modified);
+    }
+
+    public synchronized int size() {
+        return pages.size();
+    }
+
+    private void remove(String key) {
+        Validated page = pages.remove(key);
+        if (page != null) {
+            chars -= page.body.length();
+        }
+    }
+
+    private void evict() {
+        Iterator<Validated> eldest = pages.values().iterator();
+        while (chars > maxChars && eldest.hasNext()) {
+            chars -= eldest.next().body.length();
+            eldest.remove();
+        }
+    }
+
+    private static final class Validated {
+        private final String etag;
+        private final String lastModified;
+        private final String body;
+        private final HttpHeaders headers = new HttpHeaders();
+
+        private Validated(String etag, String lastModified, ResponseEntity<String> response) {
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.body = response.getBody();
+            if (response.getHeaders().getContentType() != null) {
+                headers.setContentType(response.getHeaders().getContentType());
+            }
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.capitalone.dashboard.collector;
+
+import com.capitalone.dashboard.model.GitRepo;
+import com.capitalone.dashboard.model.RepositoryCost;
+import com.capitalone.dashboard.repository.RepositoryCostRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Ledger of what each repository costs to collect: HTTP calls, bytes downloaded, wall time, Mongo
+ * operations, and commits and pull requests written. The costs of the repository collected by the
+ * current thread are counted in a thread local, the finished entries of a cycle are saved together
+ * once the cycle is done.
+ */
+@Component
+public class CostLedger {
+    private static final ThreadLocal<RepositoryCost> CURRENT = new ThreadLocal<>();
+
+    private final RepositoryCostRepository repositoryCostRepository;
+    private final List<RepositoryCost> pending = new ArrayList<>();
+
+    @Autowired
+    public CostLedger(RepositoryCostRepository repositoryCostRepository) {
+        this.repositoryCostRepository = repositoryCostRepository;
+    }
+
+    /**
+     * Starts counting the costs of a repository collected by the current thread.
+     */
+    public static void start(String repositoryKey, List<GitRepo> items) {
+        RepositoryCost cost = new RepositoryCost();
+        cost.setRepositoryKey(repositoryKey);
+        for (GitRepo item : items) {
+            cost.getCollectorItemIds().add(item.getId());
+        }
+        CURRENT.set(cost);
+    }
+
+    public static void recordHttpCall(long bytes) {
+        RepositoryCost cost = CURRENT.get();
+        if (cost != null) {
+            cost.setHttpCalls(cost.getHttpCalls() + 1);
+            cost.setBytes(cost.getBytes() + bytes);
+        }
+    }
+
+    public static void recordMongoOperation() {
+        RepositoryCost cost = CURRENT.get();
+        if (cost != null) {
+            cost.setMongoOperations(cost.getMongoOperations() + 1);
+        }
+    }
+
+    /**
+     * Stops counting for the current thread and adds the entry to the ledger.
+     */
+    public void finish(long wallMillis, int commits, int pulls) {
+        RepositoryCost cost = CURRENT.get();
+        CURRENT.remove();
+        if (cost == null) {
+            return;
+        }
+        cost.setTimestamp(new Date());
+        cost.setWallMillis(wallMillis);
+        cost.setCommits(commits);
+        cost.setPulls(pulls);
+        synchronized (pending) {
+            pending.add(cost);
+        }
+    }
+
+    /**
+     * Saves the entries finished since the last call.
+     *
+     * @return number of entries saved
+     */
+    public int save() {
+        List<RepositoryCost> costs;
+        synchronized (pending) {
+            costs = new ArrayList<>(pending);
+            pending.clear();
+        }
+        if (!costs.isEmpty()) {
+            repositoryCostRepository.save(costs);
+        }
+        return costs.size();
+    }
+
+    /**
+     * @return repositories with the most wall time spent since the given time, most expensive first
+     */
+    public List<RepositoryCost> findMostExpensive(long since, int limit) {
+        return repositoryCostRepository.findMostExpensive(since, limit);
+    }
+}
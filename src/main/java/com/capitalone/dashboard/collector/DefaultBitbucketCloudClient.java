@@ -21,6 +21,7 @@ import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Component;
+import org.springframework.web.client.HttpClientErrorException;
 import org.springframework.web.client.RestClientException;
 import org.springframework.web.client.RestOperations;
 
@@ -149,10 +150,12 @@ public class DefaultBitbucketCloudClient implements GitClient {
     }
     boolean lastPage = false;
     String queryUrlPage = queryUrl;
+    int page = 0;
     while (!lastPage) {
       try {
 	  	LOG.info("sExecuting [" + queryUrlPage);
         ResponseEntity<String> response = makeRestCall(queryUrlPage, repoUser, decryptedPassword);
+        Object pageEvent = CollectorEvents.beginPage();
         JSONObject jsonParentObject = paresAsObject(response);
         JSONArray jsonArray = (JSONArray) jsonParentObject.get("values");
 
@@ -184,12 +187,19 @@ public class DefaultBitbucketCloudClient implements GitClient {
           commit.setType(parentShas.size() > 1 ? CommitType.Merge : CommitType.New);
           commits.add(commit);
         }
+        CollectorEvents.endPage(pageEvent, "commits", ++page, jsonArray.size());
+        CollectorMetrics.global().count("bitbucket_pages", 1, "kind", "commits");
+        CollectorMetrics.global().count("bitbucket_page_items", jsonArray.size(), "kind", "commits");
+        CollectionProgress.global().recordPage();
         if (jsonParentObject.get("next") == null) {
           lastPage = true;
         } else {
           queryUrlPage = (String) jsonParentObject.get("next");
         }
 
+      } catch (HttpClientErrorException e) {
+        // Rejected requests repeat every cycle; the collector task tracks and quarantines them
+        throw e;
       } catch (RestClientException re) {
         LOG.error(re.getMessage() + ":" + queryUrl);
         lastPage = true;
@@ -207,13 +217,25 @@ public class DefaultBitbucketCloudClient implements GitClient {
   }
 
   private ResponseEntity<String> makeRestCall(String url, String userId, String password) {
-    // Basic Auth only.
-    if (!"".equals(userId) && !"".equals(password)) {
-      return restOperations.exchange(
-          url, HttpMethod.GET, new HttpEntity<>(createHeaders(userId, password)), String.class);
-
-    } else {
-      return restOperations.exchange(url, HttpMethod.GET, null, String.class);
+    long start = System.nanoTime();
+    Object event = CollectorEvents.beginHttpCall();
+    ResponseEntity<String> response = null;
+    RuntimeException failure = null;
+    try {
+      // Basic Auth only.
+      if (!"".equals(userId) && !"".equals(password)) {
+        response = restOperations.exchange(
+            url, HttpMethod.GET, new HttpEntity<>(createHeaders(userId, password)), String.class);
+      } else {
+        response = restOperations.exchange(url, HttpMethod.GET, null, String.class);
+      }
+      return response;
+    } catch (RuntimeException e) {
+      failure = e;
+      throw e;
+    } finally {
+      CollectorMetrics.global().recordHttpCall(url, System.nanoTime() - start, response, failure);
+      CollectorEvents.endHttpCall(event, url, response);
     }
   }
 
@@ -228,10 +250,13 @@ public class DefaultBitbucketCloudClient implements GitClient {
   }
 
   private JSONObject paresAsObject(ResponseEntity<String> response) {
+    long start = System.nanoTime();
     try {
       return (JSONObject) new JSONParser().parse(response.getBody());
     } catch (ParseException pe) {
       LOG.error(pe.getMessage());
+    } finally {
+      CollectorMetrics.global().record("bitbucket_json_parse", System.nanoTime() - start);
     }
     return new JSONObject();
   }
@@ -15,6 +15,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Component;
+import org.springframework.web.client.HttpClientErrorException;
 import org.springframework.web.client.RestClientException;
 
 import java.net.URI;
@@ -90,8 +91,14 @@ public class DefaultBitbucketServerClient implements GitClient {
 
             boolean lastPage = false;
             queryUriPage = queryUri;
+            int page = 0;
             while (!lastPage) {
                 ResponseEntity<String> response = scmHttpRestClient.makeRestCall(queryUriPage, repoUser, repoPassword);
+                if (page == 0 && !firstRun && SCMHttpRestClient.isNotModified(response)) {
+                    // nothing was pushed since the last known commit was read
+                    break;
+                }
+                Object pageEvent = CollectorEvents.beginPage();
                 JSONObject jsonParentObject = JSONParserUtils.parseAsObject(response);
                 JSONArray jsonArray = (JSONArray) jsonParentObject.get("values");
 
@@ -124,6 +131,7 @@ public class DefaultBitbucketServerClient implements GitClient {
                     commits.add(commit);
                 }
 
+                CollectorEvents.endPage(pageEvent, "commits", ++page, jsonArray.size());
                 PageMetadata pageMetadata = new PageMetadata(queryUri, jsonParentObject, jsonArray);
                 lastPage = pageMetadata.isLastPage();
                 queryUriPage = pageMetadata.getNextPageUrl();
@@ -132,6 +140,9 @@ public class DefaultBitbucketServerClient implements GitClient {
             repo.setLastUpdated(System.currentTimeMillis());
         } catch (URISyntaxException e) {
             LOG.error("Invalid uri: " + e.getMessage());
+        } catch (HttpClientErrorException e) {
+            // Rejected requests repeat every cycle; the collector task tracks and quarantines them
+            throw e;
         } catch (RestClientException re) {
             LOG.debug("Failed to obtain commits from " + queryUriPage, re);
         }
@@ -0,0 +1,50 @@
+package com.capitalone.dashboard.collector;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.client.HttpStatusCodeException;
+
+/**
+ * Classification of a failed repository collection. Permanent failures repeat on every cycle until
+ * the collector item configuration or the repository changes, so they lead to quarantine;
+ * transient ones are simply retried.
+ */
+public enum FailureType {
+    UNAUTHORIZED(true),
+    NOT_FOUND(true),
+    INVALID_CONFIG(true),
+    RATE_LIMITED(false),
+    TRANSIENT(false);
+
+    private final boolean permanent;
+
+    FailureType(boolean permanent) {
+        this.permanent = permanent;
+    }
+
+    public boolean isPermanent() {
+        return permanent;
+    }
+
+    public static FailureType classify(Exception e) {
+        if (e instanceof HttpStatusCodeException) {
+            HttpStatus status = ((HttpStatusCodeException) e).getStatusCode();
+            switch (status) {
+                case UNAUTHORIZED:
+                case FORBIDDEN:
+                    return UNAUTHORIZED;
+                case NOT_FOUND:
+                case GONE:
+                    return NOT_FOUND;
+                case TOO_MANY_REQUESTS:
+                    return RATE_LIMITED;
+                default:
+                    return status.is4xxClientError() ? INVALID_CONFIG : TRANSIENT;
+            }
+        }
+        if (e instanceof IllegalArgumentException) {
+            // unparsable repository url
+            return INVALID_CONFIG;
+        }
+        return TRANSIENT;
+    }
+}
@@ -1,30 +1,41 @@
 package com.capitalone.dashboard.collector;
 
 
+import com.capitalone.dashboard.bitbucketapi.BitbucketUrlParser;
 import com.capitalone.dashboard.model.Collector;
-import com.capitalone.dashboard.model.CollectorItem;
 import com.capitalone.dashboard.model.CollectorType;
 import com.capitalone.dashboard.model.Commit;
 import com.capitalone.dashboard.model.GitRepo;
+import com.capitalone.dashboard.model.RepositoryCost;
 import com.capitalone.dashboard.repository.BaseCollectorRepository;
 import com.capitalone.dashboard.repository.CommitRepository;
-import com.capitalone.dashboard.repository.ComponentRepository;
 import com.capitalone.dashboard.repository.GitRepoRepository;
 import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.bson.types.ObjectId;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.util.CloseableIterator;
 import org.springframework.scheduling.TaskScheduler;
+import org.springframework.scheduling.support.CronSequenceGenerator;
 import org.springframework.stereotype.Component;
+import org.springframework.web.client.RestClientException;
 
 import javax.inject.Inject;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 /**
  * CollectorTask that fetches Commit information from Git
@@ -32,17 +43,32 @@ import java.util.Set;
 @Component
 public class GitCollectorTask extends CollectorTask<Collector> {
     private static final Log LOG = LogFactory.getLog(GitCollectorTask.class);
+    private static final int MAX_DEFERRED_LISTED = 50;
+    private static final String LEASE_LOST = "lease taken over by another instance";
 
     private final BaseCollectorRepository<Collector> collectorRepository;
     private final GitRepoRepository gitRepoRepository;
     private final CommitRepository commitRepository;
     private final GitClient gitClient;
     private final GitSettings gitSettings;
-    private final ComponentRepository dbComponentRepository;
+
+    private volatile Map<ObjectId, Integer> referenceCounts;
+    private long referenceCountsRefreshTime;
+    private final Map<String, Double> changeRates = new ConcurrentHashMap<>();
+    private final Map<String, Long> pullRequestSweepTimes = new ConcurrentHashMap<>();
+    private RepositoryScheduler scheduler;
+    private Set<String> deferredRepos = Collections.emptySet();
+    private ShardRing shardRing;
 
     @Inject
     private PullRequestCollector pullRequestCollector;
 
+    @Inject
+    private RepositoryLeases repositoryLeases;
+
+    @Inject
+    private CostLedger costLedger;
+
 
     @Autowired
     public GitCollectorTask(TaskScheduler taskScheduler,
@@ -50,15 +76,13 @@ public class GitCollectorTask extends CollectorTask<Collector> {
                             GitRepoRepository gitRepoRepository,
                             CommitRepository commitRepository,
                             GitClient gitClient,
-                            GitSettings gitSettings,
-                            ComponentRepository dbComponentRepository) {
+                            GitSettings gitSettings) {
         super(taskScheduler, "Bitbucket");
         this.collectorRepository = collectorRepository;
         this.gitRepoRepository = gitRepoRepository;
         this.commitRepository = commitRepository;
         this.gitClient = gitClient;
         this.gitSettings = gitSettings;
-        this.dbComponentRepository = dbComponentRepository;
     }
 
     @Override
@@ -96,121 +120,641 @@ public class GitCollectorTask extends CollectorTask<Collector> {
     }
 
     /**
-     * Clean up unused deployment collector items
+     * Clean up unused deployment collector items. The number of dashboard components referencing
+     * each SCM item is computed in Mongo and cached; it is only recomputed every
+     * {@code git.cleanIntervalMinutes}. The counts also weigh the collection priority. With static
+     * sharding only shard 0 enables and disables items, the other shards just read the counts.
      *
      * @param collector the {@link Collector}
      */
-
     private void clean(Collector collector) {
-        Set<ObjectId> uniqueIDs = new HashSet<>();
-        /**
-         * Logic: For each component, retrieve the collector item list of the type SCM.
-         * Store their IDs in a unique set ONLY if their collector IDs match with Bitbucket collectors ID.
-         */
-        for (com.capitalone.dashboard.model.Component comp : dbComponentRepository
-                .findAll()) {
-            if (comp.getCollectorItems() == null || comp.getCollectorItems()
-                                                        .isEmpty()) continue;
-            List<CollectorItem> itemList = comp.getCollectorItems()
-                                               .get(CollectorType.SCM);
-            if (itemList == null) continue;
-            for (CollectorItem ci : itemList) {
-                if (ci != null && ci.getCollectorId()
-                                    .equals(collector.getId())) {
-                    uniqueIDs.add(ci.getId());
-                }
-            }
+        long now = System.currentTimeMillis();
+        if (referenceCounts != null && now < referenceCountsRefreshTime + cleanIntervalMillis()) {
+            return;
         }
-
-        /**
-         * Logic: Get all the collector items from the collector_item collection for this collector.
-         * If their id is in the unique set (above), keep them enabled; else, disable them.
-         */
-        List<GitRepo> repoList = new ArrayList<GitRepo>();
-        Set<ObjectId> gitID = new HashSet<ObjectId>();
-        gitID.add(collector.getId());
-        for (GitRepo repo : gitRepoRepository.findByCollectorIdIn(gitID)) {
-            if (repo != null) {
-                repo.setEnabled(uniqueIDs.contains(repo.getId()));
-                repoList.add(repo);
-            }
+        Map<ObjectId, Integer> counts = gitRepoRepository.countGitRepoReferences(collector.getId());
+        if (gitSettings.getShardIndex() == 0) {
+            gitRepoRepository.updateEnabledGitRepos(collector.getId(), counts.keySet());
         }
-        gitRepoRepository.save(repoList);
+        referenceCounts = counts;
+        referenceCountsRefreshTime = now;
+        log("Referenced Repos", now, counts.size());
+    }
+
+    private long cleanIntervalMillis() {
+        return TimeUnit.MINUTES.toMillis(gitSettings.getCleanIntervalMinutes());
     }
 
 
     @Override
     public void collect(Collector collector) {
+        if (gitSettings.isContinuous()) {
+            scheduleContinuously(collector);
+            return;
+        }
 
         logBanner("Starting...");
         long start = System.currentTimeMillis();
         int repoCount = 0;
         int commitCount = 0;
         int pullCount = 0;
+        int backedOffCount = 0;
+        int quarantinedCount = 0;
+        int failedCount = 0;
+        int leasedCount = 0;
 
         clean(collector);
-        for (int i = 0; i < gitSettings.getHost().size(); i++) {
+        long deadline = cycleBudgetMillis() > 0 ? start + cycleBudgetMillis() : Long.MAX_VALUE;
+        Map<String, String> deferred = new LinkedHashMap<>();
+        Map<String, RepositoryGroup> repositories = groupByRepository(collector);
+        CollectionProgress.global().startCycle("cron", lastUpdates(repositories));
+        PriorityQueue<RepositoryWork> queue = prioritize(repositories);
+        while (!queue.isEmpty()) {
+            RepositoryWork work = queue.poll();
+            CollectionProgress.global().setQueueDepth(queue.size());
+            if (work.getGroup().isQuarantined(start)) {
+                quarantinedCount++;
+                continue;
+            }
+            if (!work.getGroup().isPollDue(start)) {
+                backedOffCount++;
+                continue;
+            }
+            if (System.currentTimeMillis() >= deadline) {
+                deferred.put(work.getKey(), "cycle budget of " + gitSettings.getCycleBudgetMinutes() + " minutes used up");
+                continue;
+            }
+            // in cluster mode another instance may hold the repository or have collected it this cycle
+            if (gitSettings.isCluster() && !repositoryLeases.claim(work.getKey(), start - cronPeriodMillis() / 2)) {
+                leasedCount++;
+                continue;
+            }
+            RepositoryResult result = collectRepository(work, start, deadline);
+            repoCount += work.getGroup().size();
+            commitCount += result.commits;
+            pullCount += result.pulls;
+            if (result.deferredReason != null) {
+                deferred.put(work.getKey(), result.deferredReason);
+            }
+            if (result.failure != null) {
+                failedCount++;
+            }
+        }
+        deferredRepos = deferred.keySet();
+        log("Repo Count", start, repoCount);
+        log("Repos Backed Off", start, backedOffCount);
+        log("Repos Failed", start, failedCount);
+        log("Repos Quarantined", start, quarantinedCount);
+        if (gitSettings.isCluster()) {
+            log("Repos Leased Elsewhere", start, leasedCount);
+        }
+        log("New Commits", start, commitCount);
+        log("New Pulls", start, pullCount);
+        logDeferred(start, deferred);
+        saveCosts();
+        CollectionProgress.global().finishCycle();
+
+        CollectorMetrics.global().record("bitbucket_collection_cycle",
+                TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis() - start), "mode", "cron");
+        log("Finished", start);
+    }
 
-            String host = gitSettings.getHost().get(i);
-            LOG.debug("Settings URL :" + host);
-            String userName = gitSettings.getUsername().get(i);
-            String password = new String(Base64.decodeBase64(gitSettings.getPassword().get(i)));
-
-            for (GitRepo repo : enabledRepos(collector)) {
-                boolean firstRun = false;
-                LOG.debug("CollectorItem ID : " +repo.getId());
-                if (repo.getLastUpdateTime() == null) firstRun = true;
-                String url = repo.getRepoUrl();
-                String repoURL = getUrlDomainName(url);
-                // repoUrl not always matches with settings Host
-                //if (repoURL.equalsIgnoreCase(host)) {
-                    LOG.debug("REPO URL : "+repoURL);
-                    LOG.debug("HOST URL : "+host);
-                    LOG.debug(repo.getOptions().toString() + "::" + repo.getBranch());
-                    List<Commit> commits = gitClient.getCommits(repo, firstRun, userName, password);
-                    List<Commit> newCommits = new ArrayList<>();
-                    for (Commit commit : commits) {
-                        if (LOG.isDebugEnabled()) {
-                            LOG.debug(commit.getTimestamp() + ":::" + commit
-                                    .getScmCommitLog());
-
-                        }
-                        if (isNewCommit(repo, commit)) {
-                            commit.setCollectorItemId(repo.getId());
-                            newCommits.add(commit);
-                        }
-                    }
-                    commitRepository.save(newCommits);
-                    commitCount += newCommits.size();
+    /**
+     * Saves the costs of the repositories collected since the last call and logs the repositories
+     * that were most expensive over the last day.
+     */
+    private void saveCosts() {
+        if (!gitSettings.isCostLedger()) {
+            return;
+        }
+        long start = System.currentTimeMillis();
+        log("Repo Costs Saved", start, costLedger.save());
+        long since = start - TimeUnit.DAYS.toMillis(1);
+        for (RepositoryCost cost : costLedger.findMostExpensive(since, gitSettings.getCostTopN())) {
+            LOG.info("Expensive repo " + cost);
+        }
+    }
 
+    /**
+     * Lists the repositories deferred to the next cycle with the reason each was deferred.
+     */
+    private void logDeferred(long start, Map<String, String> deferred) {
+        log("Repos Deferred", start, deferred.size());
+        int listed = 0;
+        for (Map.Entry<String, String> entry : deferred.entrySet()) {
+            if (listed++ == MAX_DEFERRED_LISTED) {
+                LOG.info("... and " + (deferred.size() - MAX_DEFERRED_LISTED) + " more deferred repos");
+                break;
+            }
+            LOG.info("Deferred " + entry.getKey() + ": " + entry.getValue());
+        }
+    }
 
-                    if (!commits.isEmpty()) {
-                        // It appears that the first commit in the list is the HEAD of the branch
-                        repo.setLastUpdateCommit(commits.get(0).getScmRevisionNumber());
+    /**
+     * In continuous mode the cron trigger only refreshes which repositories are scheduled and
+     * restarts the workers if they are not running; the workers collect each repository as soon
+     * as it is due.
+     */
+    private void scheduleContinuously(Collector collector) {
+        logBanner("Scheduling...");
+        long start = System.currentTimeMillis();
+        clean(collector);
+        if (scheduler == null) {
+            scheduler = new RepositoryScheduler(new RepositoryScheduler.RepositoryCollector() {
+                @Override
+                public long collect(RepositoryWork work) {
+                    long now = System.currentTimeMillis();
+                    if (gitSettings.isCluster()
+                            && !repositoryLeases.claim(work.getKey(), now - continuousIntervalMillis() / 2)) {
+                        return now + continuousIntervalMillis();
                     }
-
-                    // Step 2: Get all the Pull Requests
-                    LOG.info(repo.getOptions().toString() + "::" + repo
-                            .getBranch() + "::get pulls");
-
-                    pullCount += pullRequestCollector.getPullRequests(repo, "all", userName, password);
-                    long time = System.currentTimeMillis();
-                    repo.setLastUpdateTime(time);
-                    try {
-                        gitRepoRepository.save(repo);
-                    } catch (ClassCastException e) {
-                        LOG.info("Class Cast Exception:", e);
+                    RepositoryResult result = collectRepository(work, System.currentTimeMillis(), Long.MAX_VALUE);
+                    if (result.deferredReason != null) {
+                        LOG.info("Deferred " + work.getKey() + ": " + result.deferredReason);
+                        // stays due, but other repositories get the workers for a while
+                        return System.currentTimeMillis() + continuousIntervalMillis() / 10;
                     }
-                    repoCount++;
-                //}
+                    if (result.failure != null) {
+                        return result.quarantinedUntil != null
+                                ? result.quarantinedUntil : System.currentTimeMillis() + continuousIntervalMillis();
+                    }
+                    return System.currentTimeMillis()
+                            + (result.pollInterval != null ? result.pollInterval : continuousIntervalMillis());
+                }
+            }, gitSettings.getWorkers(), continuousIntervalMillis());
+        }
+        Map<String, RepositoryGroup> repositories = groupByRepository(collector);
+        CollectionProgress.global().startCycle("continuous", lastUpdates(repositories));
+        long sequence = 0;
+        long now = System.currentTimeMillis();
+        for (Map.Entry<String, RepositoryGroup> entry : repositories.entrySet()) {
+            scheduler.schedule(new RepositoryWork(entry.getKey(), entry.getValue(),
+                    priority(entry.getKey(), entry.getValue()), sequence++),
+                    entry.getValue().dueTime(continuousIntervalMillis(), now));
+        }
+        scheduler.retainOnly(repositories.keySet());
+        scheduler.start();
+
+        long maxLag = 0;
+        int behindCount = 0;
+        for (Long lag : scheduler.getLags().values()) {
+            if (lag > 0) {
+                behindCount++;
+                maxLag = Math.max(maxLag, lag);
             }
-            log("Repo Count", start, repoCount);
-            log("New Commits", start, commitCount);
         }
-
+        CollectionProgress.global().setQueueDepth(behindCount);
+        log("Scheduled Repos", start, scheduler.size());
+        log("Repos Behind Due", start, behindCount);
+        LOG.info("Max lag behind due time: " + maxLag + " ms");
+        saveCosts();
+        CollectorMetrics.global().record("bitbucket_collection_cycle",
+                TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis() - start), "mode", "continuous");
         log("Finished", start);
     }
 
+    /**
+     * Tags the flight recorder events of the current thread with the repository while it is
+     * collected, and charges its costs to the repository in the cost ledger. In cluster mode the
+     * repository has been claimed by this instance; the lease is given up once the repository is
+     * done. A collected or failed repository is recorded as collected, so that no other instance
+     * collects it again in the same cycle, while a deferred one stays claimable. The items are only
+     * loaded now and dropped afterwards, so that a cycle never holds more than the repositories being
+     * collected.
+     */
+    private RepositoryResult collectRepository(RepositoryWork work, long start, long deadline) {
+        RepositoryResult result = null;
+        long repoStart = System.currentTimeMillis();
+        CollectorEvents.setRepository(work.getKey());
+        CollectionProgress.global().begin(work.getKey());
+        try {
+            List<GitRepo> items = gitRepoRepository.findEnabledGitReposById(work.getGroup().getItemIds());
+            if (gitSettings.isCostLedger()) {
+                CostLedger.start(work.getKey(), items);
+            }
+            result = collectItems(work, items, start, deadline);
+        } finally {
+            CollectorEvents.setRepository(null);
+            CollectionProgress.global().end(work.getKey(),
+                    result != null && result.failure == null && result.deferredReason == null);
+            if (gitSettings.isCostLedger()) {
+                costLedger.finish(System.currentTimeMillis() - repoStart,
+                        result == null ? 0 : result.commits, result == null ? 0 : result.pulls);
+            }
+            if (gitSettings.isCluster() && result != null && result.deferredReason == null) {
+                repositoryLeases.complete(work.getKey());
+            } else if (gitSettings.isCluster()) {
+                repositoryLeases.release(work.getKey());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Fetches commits and pull requests of one repository and records the progress of its items,
+     * least recently collected branches first. Once the repository budget or the cycle deadline is
+     * reached, the remaining branches and the pull requests are left for later: the items of
+     * finished branches keep their progress and the repository is reported as deferred. The pull
+     * request walk is never cut in the middle, since it stops at the first unchanged pull request
+     * on the next run.
+     *
+     * @param repository items of the repository that are still enabled
+     * @param deadline time in millis at which the cycle has to stop starting new work
+     */
+    private RepositoryResult collectItems(RepositoryWork work, List<GitRepo> repository, long start, long deadline) {
+        RepositoryResult result = new RepositoryResult();
+        if (repository.isEmpty()) {
+            return result;
+        }
+        GitRepo repo = repository.get(0);
+        String repoURL = getUrlDomainName(repo.getRepoUrl());
+        // repoUrl not always matches with settings Host, fall back to the first host credentials
+        int i = hostIndex(repoURL);
+        String userName = gitSettings.getUsername().get(i);
+        String password = hostPassword(i);
+        LOG.debug("REPO URL : "+repoURL);
+        LOG.debug("HOST URL : "+gitSettings.getHost().get(i));
+
+        long repoDeadline = repoBudgetMillis() > 0
+                ? Math.min(deadline, System.currentTimeMillis() + repoBudgetMillis()) : deadline;
+        List<GitRepo> collected = new ArrayList<>();
+        try {
+            // Step 1: Get the commits, once per tracked branch
+            for (List<GitRepo> branch : branchesByLastUpdate(repository)) {
+                if (System.currentTimeMillis() >= repoDeadline) {
+                    result.deferredReason = budgetReason(repoDeadline < deadline)
+                            + " after commits of " + collected.size() + " of " + repository.size() + " items";
+                    break;
+                }
+                if (!holdsLease(work)) {
+                    result.deferredReason = LEASE_LOST
+                            + " after commits of " + collected.size() + " of " + repository.size() + " items";
+                    break;
+                }
+                result.commits += collectCommits(branch, userName, password);
+                collected.addAll(branch);
+            }
+
+            // Step 2: Get the Pull Requests, once per repository
+            if (result.deferredReason == null && System.currentTimeMillis() >= repoDeadline) {
+                result.deferredReason = budgetReason(repoDeadline < deadline) + " before pull requests";
+            }
+            if (result.deferredReason == null && !holdsLease(work)) {
+                result.deferredReason = LEASE_LOST + " before pull requests";
+            }
+            if (result.deferredReason == null) {
+                String pullState = pullRequestState(work.getKey(), start);
+                LOG.info(repo.getOptions().toString() + "::" + repository.size() + " items::get " + pullState + " pulls");
+                result.pulls = pullRequestCollector.getPullRequests(repository, pullState, userName, password);
+                if ("ALL".equals(pullState)) {
+                    pullRequestSweepTimes.put(work.getKey(), start);
+                }
+                CollectorMetrics.global().count("bitbucket_pull_requests_inserted", result.pulls);
+            }
+        } catch (RestClientException | IllegalArgumentException e) {
+            result.failure = FailureType.classify(e);
+            result.quarantinedUntil = recordFailure(work.getKey(), repository, result.failure, e);
+            return result;
+        }
+
+        boolean changed = result.commits + result.pulls > 0;
+        long time = System.currentTimeMillis();
+        // A deferred repository stays due until its pull requests were collected
+        result.pollInterval = result.deferredReason == null ? nextPollInterval(repository, changed) : null;
+        updateChangeRate(work.getKey(), changed);
+        Object event = CollectorEvents.beginPersistence();
+        for (GitRepo item : collected) {
+            item.setLastUpdateTime(time);
+            item.setPollInterval(result.pollInterval);
+            item.setFailureCount(0);
+            item.setLastFailure(null);
+            item.setQuarantinedUntil(null);
+            gitRepoRepository.saveLastUpdate(item);
+        }
+        CollectorEvents.endPersistence(event, "lastUpdate", collected.size());
+        return result;
+    }
+
+    /**
+     * @return false if, in cluster mode, a renewal of the lease failed while the repository was
+     * collected, so that another instance may have taken it over
+     */
+    private boolean holdsLease(RepositoryWork work) {
+        return !gitSettings.isCluster() || repositoryLeases.isHeld(work.getKey());
+    }
+
+    /**
+     * Records the failure on every item of the repository. Permanent failures are counted; from
+     * {@code git.quarantineAfterFailures} consecutive ones on the repository is quarantined, and
+     * each further failed re-check doubles the quarantine up to {@code git.quarantineMaxHours}.
+     * The failure is kept in the item options so that dashboard owners can see why their
+     * repository is not collected.
+     *
+     * @return time in millis until which the repository is quarantined, null if it is not
+     */
+    private Long recordFailure(String repositoryKey, List<GitRepo> repository, FailureType type, Exception e) {
+        LOG.warn("Failed to collect " + repositoryKey + " (" + type + "): " + e.getMessage());
+        long now = System.currentTimeMillis();
+        int threshold = gitSettings.getQuarantineAfterFailures();
+        long max = TimeUnit.HOURS.toMillis(gitSettings.getQuarantineMaxHours());
+        Long quarantinedUntil = null;
+        boolean quarantined = true;
+        Object event = CollectorEvents.beginPersistence();
+        for (GitRepo item : repository) {
+            item.setLastFailure(type + ": " + e.getMessage());
+            if (type.isPermanent()) {
+                int failures = item.getFailureCount() + 1;
+                item.setFailureCount(failures);
+                if (failures >= threshold) {
+                    int doublings = Math.min(failures - threshold, 30);
+                    long quarantine = Math.min(TimeUnit.HOURS.toMillis(1) << doublings, max);
+                    item.setQuarantinedUntil(now + quarantine);
+                }
+            }
+            gitRepoRepository.saveLastUpdate(item);
+            if (item.getQuarantinedUntil() == null) {
+                quarantined = false;
+            } else {
+                quarantinedUntil = quarantinedUntil == null
+                        ? item.getQuarantinedUntil() : Math.min(quarantinedUntil, item.getQuarantinedUntil());
+            }
+        }
+        CollectorEvents.endPersistence(event, "failure", repository.size());
+        return quarantined ? quarantinedUntil : null;
+    }
+
+    private String budgetReason(boolean repoBudget) {
+        return repoBudget
+                ? "repo budget of " + gitSettings.getRepoBudgetSeconds() + " seconds used up"
+                : "cycle budget of " + gitSettings.getCycleBudgetMinutes() + " minutes used up";
+    }
+
+    private long cycleBudgetMillis() {
+        return TimeUnit.MINUTES.toMillis(Math.max(0, gitSettings.getCycleBudgetMinutes()));
+    }
+
+    private long repoBudgetMillis() {
+        return TimeUnit.SECONDS.toMillis(Math.max(0, gitSettings.getRepoBudgetSeconds()));
+    }
+
+    /**
+     * @return time in millis each repository was last fully collected, null if one of its items never was
+     */
+    private static Map<String, Long> lastUpdates(Map<String, RepositoryGroup> repositories) {
+        Map<String, Long> lastUpdates = new HashMap<>();
+        for (Map.Entry<String, RepositoryGroup> entry : repositories.entrySet()) {
+            lastUpdates.put(entry.getKey(), entry.getValue().getLastUpdate());
+        }
+        return lastUpdates;
+    }
+
+    /**
+     * Instances share the cron, so their cycles start together; a repository collected within half
+     * a cron period before the cycle started was collected by another instance in the same cycle.
+     */
+    private long cronPeriodMillis() {
+        Date next = new CronSequenceGenerator(getCron()).next(new Date());
+        return new CronSequenceGenerator(getCron()).next(next).getTime() - next.getTime();
+    }
+
+    private long continuousIntervalMillis() {
+        return TimeUnit.SECONDS.toMillis(gitSettings.getContinuousIntervalSeconds());
+    }
+
+    /**
+     * Orders the repositories by the number of dashboard components referencing their items,
+     * weighted by how often recent polls found changes, so that the repositories that matter most
+     * are collected first. Repositories deferred by the previous cycle go ahead of all others.
+     */
+    private PriorityQueue<RepositoryWork> prioritize(Map<String, RepositoryGroup> repositories) {
+        PriorityQueue<RepositoryWork> queue = new PriorityQueue<>(Math.max(1, repositories.size()));
+        long sequence = 0;
+        for (Map.Entry<String, RepositoryGroup> entry : repositories.entrySet()) {
+            queue.add(new RepositoryWork(entry.getKey(), entry.getValue(),
+                    priority(entry.getKey(), entry.getValue()), sequence++, deferredRepos.contains(entry.getKey())));
+        }
+        return queue;
+    }
+
+    private double priority(String repositoryKey, RepositoryGroup repository) {
+        int references = 0;
+        for (ObjectId itemId : repository.getItemIds()) {
+            Integer count = referenceCounts == null ? null : referenceCounts.get(itemId);
+            references += count == null ? 0 : count;
+        }
+        Double changeRate = changeRates.get(repositoryKey);
+        return references * (1 + (changeRate == null ? 0 : changeRate));
+    }
+
+    /**
+     * Keeps a decaying count of the polls that found changes: each poll halves the previous rate
+     * and adds one if something changed, so the rate stays below 2.
+     */
+    private void updateChangeRate(String repositoryKey, boolean changed) {
+        Double changeRate = changeRates.get(repositoryKey);
+        changeRates.put(repositoryKey, (changeRate == null ? 0 : changeRate / 2) + (changed ? 1 : 0));
+    }
+
+    /**
+     * Snaps back to polling every cycle when the repository changed, otherwise doubles the interval
+     * of an idle repository up to the configured maximum.
+     *
+     * @return poll interval in millis, null to poll every cycle
+     */
+    private Long nextPollInterval(List<GitRepo> repository, boolean changed) {
+        if (changed) {
+            return null;
+        }
+        long initial = TimeUnit.MINUTES.toMillis(gitSettings.getPollBackoffInitialMinutes());
+        long max = TimeUnit.MINUTES.toMillis(gitSettings.getPollBackoffMaxMinutes());
+        long interval = 0;
+        for (GitRepo item : repository) {
+            if (item.getPollInterval() != null) {
+                interval = Math.max(interval, item.getPollInterval());
+            }
+        }
+        return Math.min(interval == 0 ? initial : interval * 2, max);
+    }
+
+    /**
+     * Open pull requests are listed every cycle; merged and declined ones only show up in the full
+     * sweep, which runs once per sweep interval for each repository. The sweep time is recorded by
+     * the caller once the listing went through, so a failed sweep is tried again next cycle.
+     */
+    private String pullRequestState(String repositoryKey, long now) {
+        Long lastSweep = pullRequestSweepTimes.get(repositoryKey);
+        if (lastSweep != null
+                && now - lastSweep < TimeUnit.MINUTES.toMillis(gitSettings.getPullRequestSweepIntervalMinutes())) {
+            return "OPEN";
+        }
+        return "ALL";
+    }
+
+    /**
+     * Fetches the commits of one branch once and stores the new ones for every collector item
+     * tracking it. The item with the oldest progress drives the fetch so that no item misses
+     * commits; items that are further ahead skip the commits they already have.
+     *
+     * @param items collector items sharing the same repository and branch
+     * @return number of new commits stored
+     */
+    private int collectCommits(List<GitRepo> items, String userName, String password) {
+        GitRepo leader = items.get(0);
+        for (GitRepo item : items) {
+            if (leader.getLastUpdateTime() == null) {
+                break;
+            }
+            if (item.getLastUpdateTime() == null || item.getLastUpdateTime() < leader.getLastUpdateTime()) {
+                leader = item;
+            }
+        }
+        boolean firstRun = leader.getLastUpdateTime() == null;
+        LOG.debug("CollectorItem ID : " + leader.getId() + " serves " + items.size() + " items");
+        LOG.debug(leader.getOptions().toString() + "::" + leader.getBranch());
+        List<Commit> commits = gitClient.getCommits(leader, firstRun, userName, password);
+
+        int commitCount = 0;
+        for (GitRepo repo : items) {
+            List<Commit> newCommits = new ArrayList<>();
+            for (Commit commit : commits) {
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug(commit.getTimestamp() + ":::" + commit
+                            .getScmCommitLog());
+
+                }
+                if (isNewCommit(repo, commit)) {
+                    Commit newCommit = repo == leader ? commit : copyOf(commit, repo);
+                    newCommit.setCollectorItemId(repo.getId());
+                    newCommits.add(newCommit);
+                }
+            }
+            Object event = CollectorEvents.beginPersistence();
+            commitRepository.save(newCommits);
+            CollectorEvents.endPersistence(event, "commits", newCommits.size());
+            commitCount += newCommits.size();
+            CollectorMetrics.global().count("bitbucket_commits_inserted", newCommits.size());
+
+            if (!commits.isEmpty()) {
+                // It appears that the first commit in the list is the HEAD of the branch
+                repo.setLastUpdateCommit(commits.get(0).getScmRevisionNumber());
+            }
+            repo.setLastUpdated(leader.getLastUpdated());
+        }
+        return commitCount;
+    }
+
+    private static Commit copyOf(Commit commit, GitRepo repo) {
+        Commit copy = new Commit();
+        copy.setTimestamp(commit.getTimestamp());
+        copy.setScmUrl(repo.getRepoUrl());
+        copy.setScmBranch(repo.getBranch());
+        copy.setScmRevisionNumber(commit.getScmRevisionNumber());
+        copy.setScmParentRevisionNumbers(commit.getScmParentRevisionNumbers());
+        copy.setScmAuthor(commit.getScmAuthor());
+        copy.setScmCommitLog(commit.getScmCommitLog());
+        copy.setScmCommitTimestamp(commit.getScmCommitTimestamp());
+        copy.setNumberOfChanges(commit.getNumberOfChanges());
+        copy.setType(commit.getType());
+        return copy;
+    }
+
+    /**
+     * Groups the enabled items by repository, so that items registered with different spellings of
+     * the same repository URL are collected together. Items with credentials of their own are only
+     * grouped with items using the same ones, so that neither data nor failures are shared across
+     * credentials. With static sharding only the repositories of this shard are returned. Only the
+     * item ids are kept; the items are read again when their repository is collected.
+     */
+    private Map<String, RepositoryGroup> groupByRepository(Collector collector) {
+        Map<String, RepositoryGroup> repositories = new LinkedHashMap<>();
+        try (CloseableIterator<GitRepo> repos = enabledRepos(collector)) {
+            while (repos.hasNext()) {
+                GitRepo repo = repos.next();
+                String key = repositoryKey(repo);
+                if (!isInShard(key)) {
+                    continue;
+                }
+                RepositoryGroup repository = repositories.get(key);
+                if (repository == null) {
+                    repository = new RepositoryGroup();
+                    repositories.put(key, repository);
+                }
+                repository.add(repo);
+            }
+        }
+        return repositories;
+    }
+
+    private boolean isInShard(String repositoryKey) {
+        int shardCount = gitSettings.getShardCount();
+        if (shardCount <= 1) {
+            return true;
+        }
+        if (gitSettings.getShardIndex() < 0 || gitSettings.getShardIndex() >= shardCount) {
+            throw new IllegalArgumentException("shardIndex " + gitSettings.getShardIndex()
+                    + " is not between 0 and shardCount " + shardCount);
+        }
+        if (shardRing == null || shardRing.getShardCount() != shardCount) {
+            shardRing = new ShardRing(shardCount);
+        }
+        return shardRing.shardOf(repositoryKey) == gitSettings.getShardIndex();
+    }
+
+    private static Map<String, List<GitRepo>> groupByBranch(List<GitRepo> repository) {
+        Map<String, List<GitRepo>> branches = new LinkedHashMap<>();
+        for (GitRepo repo : repository) {
+            String branch = StringUtils.defaultString(repo.getBranch());
+            List<GitRepo> items = branches.get(branch);
+            if (items == null) {
+                items = new ArrayList<>();
+                branches.put(branch, items);
+            }
+            items.add(repo);
+        }
+        return branches;
+    }
+
+    /**
+     * @return the tracked branches, least recently collected first, so that a repository whose
+     * budget only covers some of its branches collects the others on the next run
+     */
+    private static List<List<GitRepo>> branchesByLastUpdate(List<GitRepo> repository) {
+        List<List<GitRepo>> branches = new ArrayList<>(groupByBranch(repository).values());
+        Collections.sort(branches, new Comparator<List<GitRepo>>() {
+            @Override
+            public int compare(List<GitRepo> a, List<GitRepo> b) {
+                return Long.compare(oldestUpdate(a), oldestUpdate(b));
+            }
+        });
+        return branches;
+    }
+
+    private static long oldestUpdate(List<GitRepo> branch) {
+        long oldest = Long.MAX_VALUE;
+        for (GitRepo item : branch) {
+            oldest = Math.min(oldest, item.getLastUpdateTime() != null ? item.getLastUpdateTime() : 0);
+        }
+        return oldest;
+    }
+
+    /**
+     * @return canonical key of the repository, followed by the user and a hash of the encrypted
+     * password for an item with credentials of its own
+     */
+    private static String repositoryKey(GitRepo repo) {
+        String key;
+        try {
+            key = BitbucketUrlParser.parseBitbucketUrl(repo.getRepoUrl()).getCanonicalKey();
+        } catch (IllegalArgumentException e) {
+            LOG.debug("Unable to parse repo url " + repo.getRepoUrl(), e);
+            key = repo.getRepoUrl();
+        }
+        if (StringUtils.isEmpty(repo.getPassword())) {
+            return key;
+        }
+        return key + " as " + repo.getUserId() + ":" + DigestUtils.sha256Hex(repo.getPassword()).substring(0, 12);
+    }
+
     @SuppressWarnings("unused")
     private Long lastUpdated(GitRepo repo) {
         return repo.getLastUpdateTime();
@@ -219,8 +763,22 @@ public class GitCollectorTask extends CollectorTask<Collector> {
     private Date lastUpdated(GitRepo repo) {
         return repo.getLastUpdateTime();
     }*/
-    private List<GitRepo> enabledRepos(Collector collector) {
-        return gitRepoRepository.findEnabledGitRepos(collector.getId());
+    private CloseableIterator<GitRepo> enabledRepos(Collector collector) {
+        return gitRepoRepository.streamEnabledGitRepos(collector.getId());
+    }
+
+    private String hostPassword(int i) {
+        return new String(Base64.decodeBase64(gitSettings.getPassword().get(i)));
+    }
+
+    private int hostIndex(String repoDomain) {
+        for (int i = 0; i < gitSettings.getHost().size(); i++) {
+            String host = StringUtils.removeEnd(gitSettings.getHost().get(i), "/");
+            if (StringUtils.isNotEmpty(host) && StringUtils.containsIgnoreCase(repoDomain, host)) {
+                return i;
+            }
+        }
+        return 0;
     }
 
     private boolean isNewCommit(GitRepo repo, Commit commit) {
@@ -245,6 +803,15 @@ public class GitCollectorTask extends CollectorTask<Collector> {
         domainName = domainName.replaceFirst("^www.*?\\.", "");
         return domainName;
     }
+
+    private static class RepositoryResult {
+        private int commits;
+        private int pulls;
+        private Long pollInterval;
+        private String deferredReason;
+        private FailureType failure;
+        private Long quarantinedUntil;
+    }
 }
 
 /*
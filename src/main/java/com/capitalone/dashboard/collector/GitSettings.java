@@ -3,6 +3,7 @@ package com.capitalone.dashboard.collector;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PostConstruct;
 import java.util.List;
 
 /**
@@ -20,6 +21,31 @@ public class GitSettings {
     private String product;
     private List<String> username;
     private List<String> password;
+    private int cleanIntervalMinutes = 60;
+    private int pullRequestSweepIntervalMinutes = 60;
+    private int pollBackoffInitialMinutes = 5;
+    private int pollBackoffMaxMinutes = 1440;
+    private boolean continuous;
+    private int continuousIntervalSeconds = 300;
+    private int workers = 4;
+    private int cycleBudgetMinutes;
+    private int repoBudgetSeconds;
+    private int quarantineAfterFailures = 3;
+    private int quarantineMaxHours = 168;
+    private boolean cluster;
+    private int leaseSeconds = 600;
+    private int shardIndex;
+    private int shardCount;
+    private int metricsPort;
+    private boolean costLedger;
+    private int costTopN = 10;
+    private String httpArchive;
+    private String httpArchiveMode;
+    private boolean httpArchiveReplayLatency;
+    private String responseCacheDir;
+    private int responseCacheMaxMegabytes = 256;
+    private boolean conditionalRequests;
+    private int validatorCacheMaxMegabytes = 32;
 
     public List<String> getHost() {
         return host;
@@ -93,4 +119,229 @@ public class GitSettings {
         return password;
     }
 
+    public int getCleanIntervalMinutes() {
+        return cleanIntervalMinutes;
+    }
+
+    public void setCleanIntervalMinutes(int cleanIntervalMinutes) {
+        this.cleanIntervalMinutes = cleanIntervalMinutes;
+    }
+
+    public int getPullRequestSweepIntervalMinutes() {
+        return pullRequestSweepIntervalMinutes;
+    }
+
+    public void setPullRequestSweepIntervalMinutes(int pullRequestSweepIntervalMinutes) {
+        this.pullRequestSweepIntervalMinutes = pullRequestSweepIntervalMinutes;
+    }
+
+    public int getPollBackoffInitialMinutes() {
+        return pollBackoffInitialMinutes;
+    }
+
+    public void setPollBackoffInitialMinutes(int pollBackoffInitialMinutes) {
+        this.pollBackoffInitialMinutes = pollBackoffInitialMinutes;
+    }
+
+    public int getPollBackoffMaxMinutes() {
+        return pollBackoffMaxMinutes;
+    }
+
+    public void setPollBackoffMaxMinutes(int pollBackoffMaxMinutes) {
+        this.pollBackoffMaxMinutes = pollBackoffMaxMinutes;
+    }
+
+    public boolean isContinuous() {
+        return continuous;
+    }
+
+    public void setContinuous(boolean continuous) {
+        this.continuous = continuous;
+    }
+
+    public int getContinuousIntervalSeconds() {
+        return continuousIntervalSeconds;
+    }
+
+    public void setContinuousIntervalSeconds(int continuousIntervalSeconds) {
+        this.continuousIntervalSeconds = continuousIntervalSeconds;
+    }
+
+    public int getWorkers() {
+        return workers;
+    }
+
+    public void setWorkers(int workers) {
+        this.workers = workers;
+    }
+
+    public int getCycleBudgetMinutes() {
+        return cycleBudgetMinutes;
+    }
+
+    public void setCycleBudgetMinutes(int cycleBudgetMinutes) {
+        this.cycleBudgetMinutes = cycleBudgetMinutes;
+    }
+
+    public int getRepoBudgetSeconds() {
+        return repoBudgetSeconds;
+    }
+
+    public void setRepoBudgetSeconds(int repoBudgetSeconds) {
+        this.repoBudgetSeconds = repoBudgetSeconds;
+    }
+
+    public int getQuarantineAfterFailures() {
+        return quarantineAfterFailures;
+    }
+
+    public void setQuarantineAfterFailures(int quarantineAfterFailures) {
+        this.quarantineAfterFailures = quarantineAfterFailures;
+    }
+
+    public int getQuarantineMaxHours() {
+        return quarantineMaxHours;
+    }
+
+    public void setQuarantineMaxHours(int quarantineMaxHours) {
+        this.quarantineMaxHours = quarantineMaxHours;
+    }
+
+    public boolean isCluster() {
+        return cluster;
+    }
+
+    public void setCluster(boolean cluster) {
+        this.cluster = cluster;
+    }
+
+    public int getLeaseSeconds() {
+        return leaseSeconds;
+    }
+
+    public void setLeaseSeconds(int leaseSeconds) {
+        this.leaseSeconds = leaseSeconds;
+    }
+
+    public int getShardIndex() {
+        return shardIndex;
+    }
+
+    public void setShardIndex(int shardIndex) {
+        this.shardIndex = shardIndex;
+    }
+
+    public int getShardCount() {
+        return shardCount;
+    }
+
+    public void setShardCount(int shardCount) {
+        this.shardCount = shardCount;
+    }
+
+    public int getMetricsPort() {
+        return metricsPort;
+    }
+
+    public void setMetricsPort(int metricsPort) {
+        this.metricsPort = metricsPort;
+    }
+
+    public boolean isCostLedger() {
+        return costLedger;
+    }
+
+    public void setCostLedger(boolean costLedger) {
+        this.costLedger = costLedger;
+    }
+
+    public int getCostTopN() {
+        return costTopN;
+    }
+
+    public void setCostTopN(int costTopN) {
+        this.costTopN = costTopN;
+    }
+
+    public String getHttpArchive() {
+        return httpArchive;
+    }
+
+    public void setHttpArchive(String httpArchive) {
+        this.httpArchive = httpArchive;
+    }
+
+    public String getHttpArchiveMode() {
+        return httpArchiveMode;
+    }
+
+    public void setHttpArchiveMode(String httpArchiveMode) {
+        this.httpArchiveMode = httpArchiveMode;
+    }
+
+    public boolean isHttpArchiveReplayLatency() {
+        return httpArchiveReplayLatency;
+    }
+
+    public void setHttpArchiveReplayLatency(boolean httpArchiveReplayLatency) {
+        this.httpArchiveReplayLatency = httpArchiveReplayLatency;
+    }
+
+    public String getResponseCacheDir() {
+        return responseCacheDir;
+    }
+
+    public void setResponseCacheDir(String responseCacheDir) {
+        this.responseCacheDir = responseCacheDir;
+    }
+
+    public int getResponseCacheMaxMegabytes() {
+        return responseCacheMaxMegabytes;
+    }
+
+    public void setResponseCacheMaxMegabytes(int responseCacheMaxMegabytes) {
+        this.responseCacheMaxMegabytes = responseCacheMaxMegabytes;
+    }
+
+    public boolean isConditionalRequests() {
+        return conditionalRequests;
+    }
+
+    public void setConditionalRequests(boolean conditionalRequests) {
+        this.conditionalRequests = conditionalRequests;
+    }
+
+    public int getValidatorCacheMaxMegabytes() {
+        return validatorCacheMaxMegabytes;
+    }
+
+    public void setValidatorCacheMaxMegabytes(int validatorCacheMaxMegabytes) {
+        this.validatorCacheMaxMegabytes = validatorCacheMaxMegabytes;
+    }
+
+    /**
+     * Fails startup on intervals, counts and sizes that only work when positive.
+     */
+    @PostConstruct
+    public void validate() {
+        requirePositive("git.cleanIntervalMinutes", cleanIntervalMinutes);
+        requirePositive("git.pullRequestSweepIntervalMinutes", pullRequestSweepIntervalMinutes);
+        requirePositive("git.pollBackoffInitialMinutes", pollBackoffInitialMinutes);
+        requirePositive("git.pollBackoffMaxMinutes", pollBackoffMaxMinutes);
+        requirePositive("git.continuousIntervalSeconds", continuousIntervalSeconds);
+        requirePositive("git.workers", workers);
+        requirePositive("git.quarantineAfterFailures", quarantineAfterFailures);
+        requirePositive("git.quarantineMaxHours", quarantineMaxHours);
+        requirePositive("git.leaseSeconds", leaseSeconds);
+        requirePositive("git.costTopN", costTopN);
+        requirePositive("git.responseCacheMaxMegabytes", responseCacheMaxMegabytes);
+        requirePositive("git.validatorCacheMaxMegabytes", validatorCacheMaxMegabytes);
+    }
+
+    private static void requirePositive(String name, int value) {
+        if (value <= 0) {
+            throw new IllegalArgumentException(name + " has to be positive, was " + value);
+        }
+    }
+
 }
@@ -0,0 +1,345 @@
+package com.capitalone.dashboard.collector;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpRequest;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.client.AbstractClientHttpResponse;
+import org.springframework.http.client.ClientHttpRequest;
+import org.springframework.http.client.ClientHttpRequestExecution;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.client.ClientHttpRequestInterceptor;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StreamUtils;
+import org.springframework.web.client.RestTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Records the responses Bitbucket sends to the collector into an archive file, or replays them from
+ * it instead of calling Bitbucket, so that a real collection cycle can be captured once and
+ * collector changes can be measured against it offline. Both rest clients, the one behind
+ * {@link SCMHttpRestClient} and the one of the Cloud client, are configured through
+ * {@link #configure(RestTemplate)}.
+ * <p>
+ * The archive is a gzip stream of records holding the request URI, the response status, a few
+ * response headers, the latency and the body. No request header is stored, and user info and
+ * token parameters are removed from the URI, so the archive carries no credentials. Responses to
+ * the same URI are replayed in the order they were recorded, the last one is repeated once they
+ * are used up; a URI that was not recorded is answered with 404.
+ */
+@Component
+public class HttpArchive {
+    private static final Log LOG = LogFactory.getLog(HttpArchive.class);
+
+    public static final String RECORD = "record";
+    public static final String REPLAY = "replay";
+
+    private static final int MAGIC = 0x42424841; // BBHA
+    private static final int VERSION = 1;
+    private static final Set<String> CREDENTIAL_PARAMETERS = new HashSet<>(Arrays.asList(
+            "access_token", "token", "password", "secret", "client_secret", "api_key"));
+    private static final List<String> KEPT_HEADERS = Arrays.asList(
+            HttpHeaders.CONTENT_TYPE, HttpHeaders.ETAG, HttpHeaders.LAST_MODIFIED, "Retry-After");
+
+    private final GitSettings settings;
+    private DataOutputStream out;
+    private final Map<String, List<Record>> recorded = new HashMap<>();
+    private final Map<String, Integer> replayed = new HashMap<>();
+
+    @Autowired
+    public HttpArchive(GitSettings settings) {
+        this.settings = settings;
+    }
+
+    @PostConstruct
+    public void open() throws IOException {
+        String mode = settings.getHttpArchiveMode();
+        if (StringUtils.isEmpty(mode)) {
+            return;
+        }
+        if (StringUtils.isEmpty(settings.getHttpArchive())) {
+            throw new IllegalArgumentException("git.httpArchive has to name the archive file to " + mode);
+        }
+        if (RECORD.equalsIgnoreCase(mode)) {
+            out = new DataOutputStream(new GZIPOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(settings.getHttpArchive()))));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            LOG.info("Recording Bitbucket responses to " + settings.getHttpArchive());
+        } else if (REPLAY.equalsIgnoreCase(mode)) {
+            int count = load(new FileInputStream(settings.getHttpArchive()));
+            LOG.info("Replaying " + count + " Bitbucket responses from " + settings.getHttpArchive());
+        } else {
+            throw new IllegalArgumentException("git.httpArchiveMode has to be " + RECORD + " or " + REPLAY
+                    + " but is " + mode);
+        }
+    }
+
+    /**
+     * Flushes the recorded responses; the archive is only complete once it is closed.
+     */
+    @PreDestroy
+    public synchronized void close() throws IOException {
+        if (out != null) {
+            out.close();
+            out = null;
+        }
+    }
+
+    /**
+     * Makes the rest template record its responses or replay them, depending on the mode.
+     */
+    public void configure(RestTemplate restTemplate) {
+        if (out != null) {
+            List<ClientHttpRequestInterceptor> interceptors = new ArrayList<>(restTemplate.getInterceptors());
+            interceptors.add(new RecordingInterceptor());
+            restTemplate.setInterceptors(interceptors);
+        } else if (REPLAY.equalsIgnoreCase(settings.getHttpArchiveMode())) {
+            restTemplate.setRequestFactory(new ReplayRequestFactory());
+        }
+    }
+
+    /**
+     * @return the URI without user info and without parameters carrying tokens or passwords
+     */
+    static String strip(URI uri) {
+        if (uri.getHost() == null) {
+            return uri.toString();
+        }
+        StringBuilder result = new StringBuilder();
+        result.append(uri.getScheme()).append("://").append(uri.getHost());
+        if (uri.getPort() != -1) {
+            result.append(':').append(uri.getPort());
+        }
+        result.append(StringUtils.defaultString(uri.getRawPath()));
+        if (uri.getRawQuery() != null) {
+            String separator = "?";
+            for (String parameter : uri.getRawQuery().split("&")) {
+                String name = StringUtils.substringBefore(parameter, "=");
+                if (!parameter.isEmpty() && !CREDENTIAL_PARAMETERS.contains(name.toLowerCase())) {
+                    result.append(separator).append(parameter);
+                    separator = "&";
+                }
+            }
+        }
+        return result.toString();
+    }
+
+    private synchronized void write(Record record) throws IOException {
+        if (out == null) {
+            return;
+        }
+        out.writeUTF(record.uri);
+        out.writeInt(record.status);
+        out.writeLong(record.latencyNanos);
+        List<String> names = new ArrayList<>();
+        for (String name : KEPT_HEADERS) {
+            if (record.headers.getFirst(name) != null) {
+                names.add(name);
+            }
+        }
+        out.writeByte(names.size());
+        for (String name : names) {
+            out.writeUTF(name);
+            out.writeUTF(record.headers.getFirst(name));
+        }
+        out.writeInt(record.body.length);
+        out.write(record.body);
+    }
+
+    /**
+     * Reads the records of an archive; a truncated archive, left by a process that was killed while
+     * recording, is read up to its last complete record.
+     *
+     * @return number of records read
+     */
+    int load(InputStream archive) throws IOException {
+        int count = 0;
+        try (DataInputStream in = new DataInputStream(new GZIPInputStream(new BufferedInputStream(archive)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not an HTTP archive of this collector version");
+            }
+            while (true) {
+                Record record = new Record();
+                record.uri = in.readUTF();
+                record.status = in.readInt();
+                record.latencyNanos = in.readLong();
+                int headers = in.readUnsignedByte();
+                for (int i = 0; i < headers; i++) {
+                    record.headers.set(in.readUTF(), in.readUTF());
+                }
+                record.body = new byte[in.readInt()];
+                in.readFully(record.body);
+                synchronized (this) {
+                    List<Record> responses = recorded.get(record.uri);
+                    if (responses == null) {
+                        responses = new ArrayList<>();
+                        recorded.put(record.uri, responses);
+                    }
+                    responses.add(record);
+                }
+                count++;
+            }
+        } catch (EOFException e) {
+            LOG.debug("End of HTTP archive after " + count + " records");
+        }
+        return count;
+    }
+
+    private synchronized Record next(String uri) {
+        List<Record> responses = recorded.get(uri);
+        if (responses == null) {
+            return null;
+        }
+        Integer index = replayed.get(uri);
+        int next = index == null ? 0 : Math.min(index + 1, responses.size() - 1);
+        replayed.put(uri, next);
+        return responses.get(next);
+    }
+
+    private static final class Record {
+        private String uri;
+        private int status;
+        private long latencyNanos;
+        private final HttpHeaders headers = new HttpHeaders();
+        private byte[] body;
+    }
+
+    private final class RecordingInterceptor implements ClientHttpRequestInterceptor {
+        @Override
+        public ClientHttpResponse intercept(HttpRequest request, byte[] body, ClientHttpRequestExecution execution)
+                throws IOException {
+            long start = System.nanoTime();
+            Record record = new Record();
+            try (ClientHttpResponse response = execution.execute(request, body)) {
+                record.status = response.getRawStatusCode();
+                InputStream responseBody = response.getBody();
+                record.body = responseBody == null ? new byte[0] : StreamUtils.copyToByteArray(responseBody);
+                for (String name : KEPT_HEADERS) {
+                    if (response.getHeaders().getFirst(name) != null) {
+                        record.headers.set(name, response.getHeaders().getFirst(name));
+                    }
+                }
+            }
+            record.latencyNanos = System.nanoTime() - start;
+            record.uri = strip(request.getURI());
+            write(record);
+            return new ArchivedResponse(record);
+        }
+    }
+
+    private final class ReplayRequestFactory implements ClientHttpRequestFactory {
+        @Override
+        public ClientHttpRequest createRequest(final URI uri, final HttpMethod httpMethod) {
+            return new ClientHttpRequest() {
+                private final HttpHeaders headers = new HttpHeaders();
+                private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+
+                @Override
+                public ClientHttpResponse execute() throws IOException {
+                    Record record = next(strip(uri));
+                    if (record == null) {
+                        LOG.warn("No recorded response for " + strip(uri));
+                        record = new Record();
+                        record.status = HttpStatus.NOT_FOUND.value();
+                        record.body = new byte[0];
+                    } else if (settings.isHttpArchiveReplayLatency()) {
+                        try {
+                            TimeUnit.NANOSECONDS.sleep(record.latencyNanos);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            throw new IOException("Interrupted while replaying " + uri, e);
+                        }
+                    }
+                    return new ArchivedResponse(record);
+                }
+
+                @Override
+                public OutputStream getBody() {
+                    return body;
+                }
+
+                @Override
+                public HttpMethod getMethod() {
+                    return httpMethod;
+                }
+
+                @Override
+                public URI getURI() {
+                    return uri;
+                }
+
+                @Override
+                public HttpHeaders getHeaders() {
+                    return headers;
+                }
+            };
+        }
+    }
+
+    private static final class ArchivedResponse extends AbstractClientHttpResponse {
+        private final Record record;
+
+        private ArchivedResponse(Record record) {
+            this.record = record;
+        }
+
+        @Override
+        public int getRawStatusCode() {
+            return record.status;
+        }
+
+        @Override
+        public String getStatusText() {
+            try {
+                return HttpStatus.valueOf(record.status).getReasonPhrase();
+            } catch (IllegalArgumentException e) {
+                return "";
+            }
+        }
+
+        @Override
+        public HttpHeaders getHeaders() {
+            return record.headers;
+        }
+
+        @Override
+        public InputStream getBody() {
+            return new ByteArrayInputStream(record.body);
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package com.capitalone.dashboard.collector;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import org.springframework.http.ResponseEntity;
+
+/**
+ * Flight Recorder event of one HTTP call to Bitbucket; only used through {@link CollectorEvents}.
+ */
+@Name("bitbucket.HttpCall")
+@Label("Bitbucket HTTP Call")
+@Category({"Hygieia", "Bitbucket Collector"})
+@Description("GET request to the Bitbucket REST API")
+class HttpCallEvent extends Event {
+    @Label("Repository")
+    String repository;
+
+    @Label("Endpoint Kind")
+    String kind;
+
+    @Label("Status")
+    int status;
+
+    @Label("Bytes Received")
+    @DataAmount
+    long bytes;
+
+    static Object begin(String repository) {
+        HttpCallEvent event = new HttpCallEvent();
+        if (!event.isEnabled()) {
+            return null;
+        }
+        event.repository = repository;
+        event.begin();
+        return event;
+    }
+
+    static void end(Object handle, String kind, ResponseEntity<String> response) {
+        HttpCallEvent event = (HttpCallEvent) handle;
+        event.end();
+        if (event.shouldCommit()) {
+            event.kind = kind;
+            if (response != null) {
+                event.status = response.getStatusCode() == null ? 0 : response.getStatusCode().value();
+                event.bytes = response.getBody() == null ? 0 : response.getBody().length();
+            }
+            event.commit();
+        }
+    }
+}
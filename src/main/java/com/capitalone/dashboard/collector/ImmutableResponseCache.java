@@ -0,0 +1,334 @@
+package com.capitalone.dashboard.collector;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.http.NameValuePair;
+import org.apache.http.client.utils.URLEncodedUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.URI;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+/**
+ * Keeps responses that can never change on disk, so that they are not fetched again after a
+ * restart or when pull requests are reprocessed: the commits of merged pull requests, and commit
+ * pages between two SHAs. Entries are keyed by the URI, without
+ * credentials and with sorted parameters, and by the user the call is made for, since two users may
+ * not see the same repositories.
+ * <p>
+ * Entries are appended to segment files of {@code git.responseCacheDir}; an in-memory index points
+ * to the position of each body, which is read back with a positional read. Once the segments
+ * exceed {@code git.responseCacheMaxMegabytes} the oldest one is deleted. A segment left incomplete
+ * by a process that was killed while writing is cut back to its last complete entry when opened.
+ */
+@Component
+public class ImmutableResponseCache {
+    private static final Log LOG = LogFactory.getLog(ImmutableResponseCache.class);
+
+    private static final int SEGMENTS = 16;
+    private static final int ENTRY = 0x42424345; // BBCE
+    // magic, key length, body length and checksum
+    private static final int OVERHEAD = 4 + 4 + 4 + 8;
+    private static final Pattern SEGMENT_NAME = Pattern.compile("segment-(\\d+)\\.cache");
+    private static final Pattern SHA = Pattern.compile("[0-9a-f]{40}");
+
+    private final GitSettings settings;
+    private final ConcurrentMap<String, Location> index = new ConcurrentHashMap<>();
+    private final ConcurrentSkipListMap<Integer, Segment> segments = new ConcurrentSkipListMap<>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private volatile File directory;
+    private long maxBytes;
+    private long totalBytes;
+
+    @Autowired
+    public ImmutableResponseCache(GitSettings settings) {
+        this.settings = settings;
+    }
+
+    @PostConstruct
+    public synchronized void open() throws IOException {
+        if (StringUtils.isEmpty(settings.getResponseCacheDir())) {
+            return;
+        }
+        directory = new File(settings.getResponseCacheDir());
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create response cache directory " + directory);
+        }
+        maxBytes = settings.getResponseCacheMaxMegabytes() * 1024L * 1024L;
+
+        List<Integer> ids = new ArrayList<>();
+        File[] files = directory.listFiles();
+        for (File file : files == null ? new File[0] : files) {
+            Matcher matcher = SEGMENT_NAME.matcher(file.getName());
+            if (matcher.matches()) {
+                ids.add(Integer.valueOf(matcher.group(1)));
+            }
+        }
+        Collections.sort(ids);
+        for (Integer id : ids) {
+            Segment segment = new Segment(id, segmentFile(id));
+            segments.put(id, segment);
+            scan(segment);
+            totalBytes += segment.size;
+        }
+        evict();
+        LOG.info("Response cache " + directory + " holds " + index.size() + " responses in "
+                + segments.size() + " segments");
+    }
+
+    @PreDestroy
+    public synchronized void close() throws IOException {
+        for (Segment segment : segments.values()) {
+            segment.channel.close();
+        }
+        segments.clear();
+        index.clear();
+        totalBytes = 0;
+        directory = null;
+    }
+
+    public boolean isEnabled() {
+        return directory != null;
+    }
+
+    /**
+     * @return the cached response, null if there is none
+     */
+    public ResponseEntity<String> get(URI uri, String userId) {
+        Location location = index.get(SCMHttpRestClient.cacheKey(uri, userId));
+        Segment segment = location == null ? null : segments.get(location.segment);
+        if (segment != null) {
+            try {
+                ByteBuffer body = ByteBuffer.allocate(location.length);
+                while (body.hasRemaining()) {
+                    if (segment.channel.read(body, location.offset + body.position()) < 0) {
+                        throw new EOFException("Response cache segment " + segment.file + " is truncated");
+                    }
+                }
+                count(hits, "hit");
+                HttpHeaders headers = new HttpHeaders();
+                headers.setContentType(MediaType.APPLICATION_JSON);
+                return new ResponseEntity<>(new String(body.array(), StandardCharsets.UTF_8), headers, HttpStatus.OK);
+            } catch (IOException e) {
+                // the segment may have been evicted since the lookup
+                LOG.debug("Unable to read cached response of " + uri, e);
+            }
+        }
+        count(misses, "miss");
+        return null;
+    }
+
+    /**
+     * Stores a successful response; other responses are ignored.
+     */
+    public synchronized void put(URI uri, String userId, ResponseEntity<String> response) {
+        if (!isEnabled() || response == null || response.getStatusCode() != HttpStatus.OK
+                || response.getBody() == null) {
+            return;
+        }
+        byte[] key = SCMHttpRestClient.cacheKey(uri, userId).getBytes(StandardCharsets.UTF_8);
+        byte[] body = response.getBody().getBytes(StandardCharsets.UTF_8);
+        int length = OVERHEAD + key.length + body.length;
+        if (length > segmentBytes()) {
+            return;
+        }
+        try {
+            Segment segment = segments.isEmpty() ? null : segments.lastEntry().getValue();
+            if (segment == null || segment.size + length > segmentBytes()) {
+                int id = segment == null ? 1 : segment.id + 1;
+                segment = new Segment(id, segmentFile(id));
+                segments.put(id, segment);
+            }
+            CRC32 crc = new CRC32();
+            crc.update(key);
+            crc.update(body);
+            ByteBuffer entry = ByteBuffer.allocate(length);
+            entry.putInt(ENTRY).putInt(key.length).put(key).putInt(body.length).put(body).putLong(crc.getValue());
+            // through Buffer, ByteBuffer.flip() built on JDK 9+ does not link on Java 8
+            ((Buffer) entry).flip();
+            long position = segment.size;
+            while (entry.hasRemaining()) {
+                segment.channel.write(entry, position + entry.position());
+            }
+            segment.size += length;
+            totalBytes += length;
+            index.put(new String(key, StandardCharsets.UTF_8),
+                    new Location(segment.id, position + length - 8 - body.length, body.length));
+            evict();
+        } catch (IOException e) {
+            LOG.warn("Unable to cache the response of " + uri + ": " + e.getMessage());
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return share of lookups served from the cache, 0 before the first lookup
+     */
+    public double getHitRate() {
+        long lookups = hits.get() + misses.get();
+        return lookups == 0 ? 0 : (double) hits.get() / lookups;
+    }
+
+    public synchronized long getSizeBytes() {
+        return totalBytes;
+    }
+
+    /**
+     * @return true for a commit page between two SHAs, whose content is fixed by the SHAs
+     */
+    public static boolean isShaAnchored(URI uri) {
+        if (uri == null || uri.getPath() == null || !uri.getPath().endsWith("/commits")) {
+            return false;
+        }
+        String since = null;
+        String until = null;
+        for (NameValuePair parameter : URLEncodedUtils.parse(uri, StandardCharsets.UTF_8.name())) {
+            if ("since".equals(parameter.getName())) {
+                since = parameter.getValue();
+            } else if ("until".equals(parameter.getName())) {
+                until = parameter.getValue();
+            }
+        }
+        return since != null && until != null && SHA.matcher(since).matches() && SHA.matcher(until).matches();
+    }
+
+    private long segmentBytes() {
+        return maxBytes / SEGMENTS;
+    }
+
+    private File segmentFile(int id) {
+        return new File(directory, String.format("segment-%08d.cache", id));
+    }
+
+    private void count(AtomicLong counter, String result) {
+        counter.incrementAndGet();
+        CollectorMetrics.global().count("bitbucket_response_cache_requests", 1, "result", result);
+    }
+
+    /**
+     * Indexes the entries of a segment and cuts off what follows the last complete one.
+     */
+    private void scan(Segment segment) throws IOException {
+        long position = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(segment.file)))) {
+            while (true) {
+                if (in.readInt() != ENTRY) {
+                    break;
+                }
+                byte[] key = readBytes(in, segment.channel.size() - position);
+                byte[] body = readBytes(in, segment.channel.size() - position - key.length);
+                CRC32 crc = new CRC32();
+                crc.update(key);
+                crc.update(body);
+                if (in.readLong() != crc.getValue()) {
+                    break;
+                }
+                long length = OVERHEAD + key.length + body.length;
+                index.put(new String(key, StandardCharsets.UTF_8),
+                        new Location(segment.id, position + length - 8 - body.length, body.length));
+                position += length;
+            }
+        } catch (EOFException e) {
+            LOG.debug("End of response cache segment " + segment.file);
+        }
+        if (position < segment.channel.size()) {
+            LOG.warn("Cutting response cache segment " + segment.file + " back to its last complete entry at "
+                    + position);
+            segment.channel.truncate(position);
+        }
+        segment.size = position;
+    }
+
+    /**
+     * @param available bytes left in the segment, a longer length can only come from a torn write
+     */
+    private static byte[] readBytes(DataInputStream in, long available) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > available) {
+            throw new EOFException("Entry length " + length + " exceeds the segment");
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    private void evict() throws IOException {
+        while (totalBytes > maxBytes && segments.size() > 1) {
+            Segment oldest = segments.pollFirstEntry().getValue();
+            for (Iterator<Map.Entry<String, Location>> it = index.entrySet().iterator(); it.hasNext(); ) {
+                if (it.next().getValue().segment == oldest.id) {
+                    it.remove();
+                }
+            }
+            oldest.channel.close();
+            if (!oldest.file.delete()) {
+                LOG.warn("Unable to delete response cache segment " + oldest.file);
+            }
+            totalBytes -= oldest.size;
+            CollectorMetrics.global().count("bitbucket_response_cache_evictions", 1);
+        }
+    }
+
+    private static final class Segment {
+        private final int id;
+        private final File file;
+        private final FileChannel channel;
+        private long size;
+
+        private Segment(int id, File file) throws IOException {
+            this.id = id;
+            this.file = file;
+            this.channel = new RandomAccessFile(file, "rw").getChannel();
+        }
+    }
+
+    private static final class Location {
+        private final int segment;
+        private final long offset;
+        private final int length;
+
+        private Location(int segment, long offset, int length) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.capitalone.dashboard.collector;
+
+import org.springframework.web.client.RestClientException;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lets concurrent workers asking for the same page share one call: the first one makes it, those
+ * arriving while it is in flight wait for it and get the same response, or the same exception.
+ * Nothing is kept once the call completed, a later request makes a new call.
+ * <p>
+ * Shared calls are counted per endpoint kind in {@code bitbucket_http_coalesced}.
+ */
+public final class InFlightRequests {
+    private final ConcurrentMap<String, FutureTask<?>> inFlight = new ConcurrentHashMap<>();
+    private final AtomicLong coalesced = new AtomicLong();
+
+    /**
+     * @param key identifies the call, including the credentials it is made with
+     * @param kind endpoint kind the call is counted for when it is shared
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T call(String key, String kind, Callable<T> call) {
+        FutureTask<T> task = new FutureTask<>(call);
+        FutureTask<T> running = (FutureTask<T>) inFlight.putIfAbsent(key, task);
+        if (running != null) {
+            coalesced.incrementAndGet();
+            CollectorMetrics.global().count("bitbucket_http_coalesced", 1, "kind", kind);
+            return await(running, key);
+        }
+        try {
+            task.run();
+        } finally {
+            inFlight.remove(key, task);
+        }
+        return await(task, key);
+    }
+
+    /**
+     * @return number of calls saved since the start
+     */
+    public long getCoalesced() {
+        return coalesced.get();
+    }
+
+    private static <T> T await(FutureTask<T> task, String key) {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RestClientException("Interrupted while waiting for " + key, e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw new RestClientException("Call for " + key + " failed", e.getCause());
+        }
+    }
+}
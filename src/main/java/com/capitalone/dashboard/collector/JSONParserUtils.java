@@ -11,10 +11,13 @@ public class JSONParserUtils {
     private static final Log LOG = LogFactory.getLog(JSONParserUtils.class);
 
     public static JSONObject parseAsObject(ResponseEntity<String> response) {
+        long start = System.nanoTime();
         try {
             return (JSONObject) new JSONParser().parse(response.getBody());
         } catch (ParseException pe) {
             LOG.error(pe.getMessage());
+        } finally {
+            CollectorMetrics.global().record("bitbucket_json_parse", System.nanoTime() - start);
         }
         return new JSONObject();
     }
@@ -0,0 +1,99 @@
+package com.capitalone.dashboard.collector;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import io.prometheus.client.exporter.common.TextFormat;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Small HTTP server exposing the collector metrics for Prometheus to scrape on
+ * {@code http://host:git.metricsPort/metrics}, and the progress of the running collection as JSON
+ * on {@code /progress}. The collector has no web container, so the JDK server is used; it is not
+ * started when {@code git.metricsPort} is 0.
+ */
+@Component
+public class MonitoringServer {
+    private static final Log LOG = LogFactory.getLog(MonitoringServer.class);
+
+    private final GitSettings settings;
+    private HttpServer server;
+
+    @Autowired
+    public MonitoringServer(GitSettings settings) {
+        this.settings = settings;
+    }
+
+    @PostConstruct
+    public void start() throws IOException {
+        Map<String, String> tags = new LinkedHashMap<>();
+        tags.put("host", hostName());
+        tags.put("product", String.valueOf(settings.getProduct()));
+        CollectorMetrics.global().setCommonTags(tags);
+
+        if (settings.getMetricsPort() <= 0) {
+            return;
+        }
+        server = HttpServer.create(new InetSocketAddress(settings.getMetricsPort()), 0);
+        server.createContext("/metrics", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                respond(exchange, TextFormat.CONTENT_TYPE_004, CollectorMetrics.global().getRegistry().scrape());
+            }
+        });
+        server.createContext("/progress", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                respond(exchange, "application/json", CollectionProgress.global().toJson().toJSONString());
+            }
+        });
+        server.start();
+        LOG.info("Serving metrics and progress on port " + server.getAddress().getPort());
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (server != null) {
+            server.stop(0);
+            server = null;
+        }
+    }
+
+    /**
+     * @return port the server listens on, 0 if it is not running
+     */
+    public int getPort() {
+        return server == null ? 0 : server.getAddress().getPort();
+    }
+
+    static void respond(HttpExchange exchange, String contentType, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(200, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static String hostName() {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException e) {
+            return "unknown";
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package com.capitalone.dashboard.collector;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight Recorder event of parsing and mapping one page of a paged endpoint; only used through
+ * {@link CollectorEvents}.
+ */
+@Name("bitbucket.Page")
+@Label("Bitbucket Page")
+@Category({"Hygieia", "Bitbucket Collector"})
+@Description("Parsing and mapping of one page returned by the Bitbucket REST API")
+class PageEvent extends Event {
+    @Label("Repository")
+    String repository;
+
+    @Label("Endpoint Kind")
+    String kind;
+
+    @Label("Page")
+    int page;
+
+    @Label("Items")
+    int items;
+
+    static Object begin(String repository) {
+        PageEvent event = new PageEvent();
+        if (!event.isEnabled()) {
+            return null;
+        }
+        event.repository = repository;
+        event.begin();
+        return event;
+    }
+
+    static void end(Object handle, String kind, int page, int items) {
+        PageEvent event = (PageEvent) handle;
+        event.end();
+        if (event.shouldCommit()) {
+            event.kind = kind;
+            event.page = page;
+            event.items = items;
+            event.commit();
+        }
+    }
+}
@@ -37,8 +37,26 @@ public class PageMetadata {
     }
 
     private void init() {
+        // every page of a paged endpoint passes through here
+        String kind = CollectorMetrics.endpointKind(String.valueOf(this.currentPageUrl));
+        CollectorMetrics.global().count("bitbucket_pages", 1, "kind", kind);
+        CollectorMetrics.global().count("bitbucket_page_items", this.values == null ? 0 : this.values.size(), "kind", kind);
+        CollectionProgress.global().recordPage();
         if (CollectionUtils.isEmpty(this.values)) {
             this.lastPage = true;
+        } else if (this.jsonArray.containsKey("isLastPage")) {
+            // Bitbucket Server pages by start offset instead of next links
+            this.lastPage = !Boolean.FALSE.equals(this.jsonArray.get("isLastPage"));
+            String nextPageStart = str(this.jsonArray, "nextPageStart");
+            if (!this.lastPage && nextPageStart != null) {
+                try {
+                    this.nextPageUrl = new URIBuilder(this.currentPageUrl).setParameter("start", nextPageStart).build();
+                } catch (URISyntaxException e) {
+                    throw new RuntimeException("Unable to create next page URI", e);
+                }
+            } else {
+                this.lastPage = true;
+            }
         } else {
             String nextPageUrlString = str(this.jsonArray, "next");
             this.lastPage = nextPageUrlString == null;
@@ -0,0 +1,45 @@
+package com.capitalone.dashboard.collector;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight Recorder event of one batch saved to Mongo; only used through {@link CollectorEvents}.
+ */
+@Name("bitbucket.Persistence")
+@Label("Bitbucket Persistence")
+@Category({"Hygieia", "Bitbucket Collector"})
+@Description("Batch of documents saved by the collector")
+class PersistenceEvent extends Event {
+    @Label("Repository")
+    String repository;
+
+    @Label("Operation")
+    String operation;
+
+    @Label("Items")
+    int items;
+
+    static Object begin(String repository) {
+        PersistenceEvent event = new PersistenceEvent();
+        if (!event.isEnabled()) {
+            return null;
+        }
+        event.repository = repository;
+        event.begin();
+        return event;
+    }
+
+    static void end(Object handle, String operation, int items) {
+        PersistenceEvent event = (PersistenceEvent) handle;
+        event.end();
+        if (event.shouldCommit()) {
+            event.operation = operation;
+            event.items = items;
+            event.commit();
+        }
+    }
+}
@@ -15,6 +15,7 @@ import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Component;
+import org.springframework.web.client.RestClientException;
 
 import javax.inject.Inject;
 import java.lang.reflect.Array;
@@ -24,8 +25,13 @@ import java.text.DateFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import static com.capitalone.dashboard.collector.JSONParserUtils.parseAsObject;
 import static com.capitalone.dashboard.collector.JSONParserUtils.str;
@@ -38,8 +44,16 @@ public class PullRequestCollector {
   private static final String OPEN = "open";
   private static final String CLOSED = "closed";
   private static final String MERGED = "merged";
-
-  DateFormat formatter = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSSSSX");
+  private static final String ALL = "ALL";
+  private static final String[] CLOUD_STATES = {"OPEN", "MERGED", "DECLINED", "SUPERSEDED"};
+
+  // SimpleDateFormat is not thread safe and repositories may be collected by several workers
+  private final ThreadLocal<DateFormat> formatter = new ThreadLocal<DateFormat>() {
+    @Override
+    protected DateFormat initialValue() {
+      return new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSSSSX");
+    }
+  };
 
   @Inject private GitSettings settings;
 
@@ -51,6 +65,8 @@ public class PullRequestCollector {
 
   @Inject private CommitRepository commitRepository;
 
+  @Inject private ClosedPullRequestCache closedPullRequestCache;
+
   /**
    * This method fetches pull-request using Bitbucket REST APIs and stores them to Hygieia DB. We
    * can stop this processing as soon as we find a PR which has not changed(updateAt is same in
@@ -60,8 +76,28 @@ public class PullRequestCollector {
    * @param status open/merged
    * @return
    */
-  @SuppressWarnings("PMD.NPathComplexity")
   public int getPullRequests(GitRepo repo, String status, String userName, String password) {
+    return getPullRequests(Collections.singletonList(repo), status, userName, password);
+  }
+
+  /**
+   * Fetches the pull-requests of one repository once and stores each of them for every tracked
+   * branch whose name matches the pull request target branch. Enrichment calls are made once per
+   * pull request regardless of the number of items it is stored for. Paging stops as soon as every
+   * item has found a PR which has not changed, or, for several branches, at the first PR older than
+   * what every item already stored. Merged and declined pull requests already known to
+   * the {@link ClosedPullRequestCache} are skipped without a lookup, even if their updatedAt moved,
+   * as long as the listing still shows them closed; a reopened one is dropped from the cache.
+   *
+   * @param repos collector items tracking branches of the same repository with the same
+   * credentials
+   * @param status OPEN for the fast path, ALL for a full sweep
+   * @return number of new pull requests
+   * @throws RestClientException if a listing page could not be read, so that the sweep is retried
+   */
+  @SuppressWarnings("PMD.NPathComplexity")
+  public int getPullRequests(List<GitRepo> repos, String status, String userName, String password) {
+    GitRepo repo = repos.get(0);
     String repoUser = null;
     String repoPassword = null;
     if (repo.getPassword() != null && !repo.getPassword().isEmpty()) {
@@ -75,26 +111,54 @@ public class PullRequestCollector {
       repoUser = userName;
       repoPassword = password;
     }
-    String branch = (repo.getBranch() != null) ? repo.getBranch() : "master";
-    List<GitRequest> pulls;
+    Map<String, List<GitRepo>> reposByBranch = new HashMap<>();
+    for (GitRepo branchRepo : repos) {
+      String branch = branchName(branchRepo);
+      if (!reposByBranch.containsKey(branch)) {
+        reposByBranch.put(branch, new ArrayList<GitRepo>());
+      }
+      reposByBranch.get(branch).add(branchRepo);
+    }
+    Set<GitRepo> upToDate = Collections.newSetFromMap(new IdentityHashMap<GitRepo, Boolean>());
 
     URI pageUrl;
     int pullCount = 0;
     try {
       URI uri = bitbucketApiUrlBuilder.buildPullRequestApiUrl(repo.getRepoUrl());
-      String branchId = "refs/heads/" + branch;
-      pageUrl =
-          new URIBuilder(uri).addParameter("at", branchId).addParameter("state", status).build();
+      URIBuilder uriBuilder = new URIBuilder(uri);
+      if (isCloud() && ALL.equalsIgnoreCase(status)) {
+        // Cloud lists open pull requests only unless every state is asked for
+        for (String state : CLOUD_STATES) {
+          uriBuilder.addParameter("state", state);
+        }
+      } else {
+        if (!isCloud() && reposByBranch.size() == 1) {
+          // Server filters on the target branch, an item then pages its own pull requests only
+          uriBuilder.addParameter("at", "refs/heads/" + reposByBranch.keySet().iterator().next());
+        }
+        uriBuilder.addParameter("state", status);
+      }
+      pageUrl = uriBuilder.build();
+      // pull requests of several branches are listed together, so a branch with few of them would
+      // only find an unchanged one deep in the history: stop where no item can have changed
+      long watermark = reposByBranch.size() > 1 ? getStoredWatermark(repos) : 0;
 
       boolean lastPage = false;
-      boolean stop = false;
+      boolean pastWatermark = false;
       URI queryUrlPage = pageUrl;
+      int page = 0;
 
-      while (!lastPage && !stop) {
+      while (!lastPage && !pastWatermark && upToDate.size() < repos.size()) {
         LOG.info("Executing [" + queryUrlPage);
-        pulls = new ArrayList<>();
+        Map<GitRepo, List<GitRequest>> pulls = new IdentityHashMap<>();
         ResponseEntity<String> response =
             scmHttpRestClient.makeRestCall(queryUrlPage, repoUser, repoPassword);
+        if (SCMHttpRestClient.isNotModified(response) && !ALL.equalsIgnoreCase(status)) {
+          // The open pull requests on this page are those stored when it was read last time;
+          // the full sweep reads unchanged pages anyway, for items added since
+          break;
+        }
+        Object pageEvent = CollectorEvents.beginPage();
         JSONObject jsonArray = new JSONObject();
         try {
           jsonArray = parseAsObject(response);
@@ -104,51 +168,266 @@ public class PullRequestCollector {
         JSONArray values = (JSONArray) jsonArray.get("values");
         for (Object item : values) {
           JSONObject jsonObject = (JSONObject) item;
-          Date updated_on = formatter.parse((String) jsonObject.get("updated_on"));
-          Long updatedAt = updated_on.getTime();
+          if (getListedUpdatedAt(jsonObject) < watermark) {
+            pastWatermark = true;
+            break;
+          }
+          List<GitRepo> targets = reposByBranch.get(getTargetBranch(jsonObject));
+          if (targets == null) {
+            continue;
+          }
 
-          GitRequest pull = new GitRequest();
+          GitRequest enriched = null;
+          for (GitRepo target : targets) {
+            if (upToDate.contains(target)) {
+              continue;
+            }
+            GitRequest pull = getPullRequest(target, jsonObject);
+            if (closedPullRequestCache.contains(target, pull.getNumber())) {
+              if (ClosedPullRequestCache.isTerminal(pull)) {
+                if (closedPullRequestCache.getUpdatedAt(target, pull.getNumber()) == pull.getUpdatedAt()) {
+                  upToDate.add(target);
+                }
+                continue;
+              }
+              // reopened since it was closed, its new activity has to be read
+              closedPullRequestCache.remove(target, pull.getNumber());
+            }
+            GitRequest existingPull =
+                gitRequestRepository.findByCollectorItemIdAndNumberAndRequestType(
+                    target.getId(), pull.getNumber(), "pull");
+            if (existingPull != null && existingPull.getUpdatedAt() == pull.getUpdatedAt()) {
+              // Found a match for last updated PR so this branch is done
+              closedPullRequestCache.add(target, existingPull);
+              upToDate.add(target);
+              continue;
+            }
 
-          if (settings.getProduct().equalsIgnoreCase("cloud")) {
-            pull = getPullRequestCloud(repo, jsonObject);
-          } else {
-            pull = getPullRequestServer(repo, jsonObject);
-          }
-          GitRequest existingPull =
-              gitRequestRepository.findByCollectorItemIdAndNumberAndRequestType(
-                  repo.getId(), pull.getNumber(), "pull");
-
-          if (existingPull != null) {
-            stop = (Long.valueOf(existingPull.getUpdatedAt()).compareTo(updatedAt) == 0);
-            if (stop) { // Found a match for last updated PR so stop
-              break;
+            if (enriched == null) {
+              populatePullRequestDetails(target, pull, existingPull, jsonObject, repoUser, repoPassword);
+              enriched = pull;
+            } else {
+              pull.setScmRevisionNumber(enriched.getScmRevisionNumber());
+              pull.setCommits(enriched.getCommits());
+              pull.setComments(enriched.getComments());
+              if (pull instanceof BitbucketPullRequest) {
+                ((BitbucketPullRequest) pull).setLastActivityId(BitbucketPullRequest.lastActivityId(enriched));
+              }
+            }
+            if (!pulls.containsKey(target)) {
+              pulls.put(target, new ArrayList<GitRequest>());
             }
+            pulls.get(target).add(pull);
           }
-
-          populatePullRequestMergeCommit(repo, pull, repoUser, repoPassword);
-          populatePullRequestCommits(repo, pull, repoUser, repoPassword);
-          populatePullRequestComments(repo, pull, repoUser, repoPassword);
-          pulls.add(pull);
         }
         try {
-          pullCount += processList(repo, pulls, "pull");
+          for (Map.Entry<GitRepo, List<GitRequest>> entry : pulls.entrySet()) {
+            pullCount += processList(entry.getKey(), entry.getValue(), "pull");
+            for (GitRequest pull : entry.getValue()) {
+              closedPullRequestCache.add(entry.getKey(), pull);
+            }
+          }
         } catch (Exception ex) {
           LOG.error("failed to process Pull Requests", ex);
           throw new RuntimeException("Unable to process pull requests", ex);
         }
 
+        CollectorEvents.endPage(pageEvent, "pull-requests", ++page, values.size());
         PageMetadata pageMetadata = new PageMetadata(pageUrl, jsonArray, values);
         lastPage = pageMetadata.isLastPage();
         queryUrlPage = pageMetadata.getNextPageUrl();
       }
     } catch (URISyntaxException e) {
       LOG.error("Unable to construct Bitbucket API URL" + e.getMessage());
+    } catch (RestClientException e) {
+      // the collector task records the failure and lists again next cycle
+      throw e;
     } catch (Exception e) {
       LOG.error("Exception block: " + e.getMessage());
+    } finally {
+      for (GitRepo target : repos) {
+        closedPullRequestCache.save(target);
+      }
     }
     return pullCount;
   }
 
+  /**
+   * @return the oldest of the latest updatedAt stored for each item, 0 if an item has none yet
+   */
+  private long getStoredWatermark(List<GitRepo> repos) {
+    long watermark = Long.MAX_VALUE;
+    for (GitRepo target : repos) {
+      long latest = 0;
+      if (target.getId() != null) {
+        for (GitRequest stored : gitRequestRepository.findRequestNumberAndLastUpdated(target.getId(), PULL)) {
+          latest = Math.max(latest, stored.getUpdatedAt());
+        }
+      }
+      watermark = Math.min(watermark, latest);
+    }
+    return watermark;
+  }
+
+  private long getListedUpdatedAt(JSONObject jsonObject) throws ParseException {
+    if (isCloud()) {
+      return formatter.get().parse((String) jsonObject.get("updated_on")).getTime();
+    }
+    return ((Number) jsonObject.get("updatedDate")).longValue();
+  }
+
+  /**
+   * Fills merge commit, commits and comments of a changed pull request. The listing already tells
+   * whether the source head, the comment count or the merge commit changed, so the matching
+   * endpoints are only paged when the stored pull request cannot be reused.
+   *
+   * @param repo
+   * @param pull pull request mapped from the listing
+   * @param existingPull stored version of the pull request, may be null
+   * @param jsonObject listing entry of the pull request
+   */
+  private void populatePullRequestDetails(GitRepo repo, GitRequest pull, GitRequest existingPull,
+      JSONObject jsonObject, String userName, String password) {
+    if (!isCloud()) {
+      populateServerPullRequestDetails(repo, pull, existingPull, jsonObject, userName, password);
+      return;
+    }
+    String mergeCommit = getListedMergeCommit(jsonObject);
+    if (MERGED.equals(pull.getState()) && mergeCommit != null) {
+      pull.setScmRevisionNumber(mergeCommit);
+    } else {
+      populatePullRequestMergeCommit(repo, pull, userName, password);
+    }
+
+    if (existingPull != null && existingPull.getCommits() != null
+        && pull.getHeadSha() != null && pull.getHeadSha().equals(existingPull.getHeadSha())) {
+      pull.setCommits(existingPull.getCommits());
+    } else {
+      populatePullRequestCommits(repo, pull, userName, password);
+    }
+
+    Long commentCount = getListedCommentCount(jsonObject);
+    if (existingPull != null && existingPull.getComments() != null
+        && commentCount != null && commentCount == existingPull.getComments().size()) {
+      pull.setComments(existingPull.getComments());
+    } else {
+      populatePullRequestComments(repo, pull, userName, password);
+    }
+  }
+
+  /**
+   * Bitbucket Server has no comments listing and reports merges and pushes as activities, so merge
+   * commit, comments and rescoped commits all come from one walk of the activities stream. Only a
+   * pull request seen for the first time pages its commits as well, since the commits it was
+   * opened with are not part of any activity.
+   * The walk stops at the newest activity processed last time; comments and rescopes found before
+   * it are merged into the stored ones.
+   *
+   * @param repo
+   * @param pull pull request mapped from the listing
+   * @param existingPull stored version of the pull request, may be null
+   * @param jsonObject listing entry of the pull request
+   */
+  private void populateServerPullRequestDetails(GitRepo repo, GitRequest pull,
+      GitRequest existingPull, JSONObject jsonObject, String userName, String password) {
+    String mergeCommit = getListedMergeCommit(jsonObject);
+    boolean mergeCommitKnown = !MERGED.equals(pull.getState()) || mergeCommit != null;
+    if (MERGED.equals(pull.getState()) && mergeCommit != null) {
+      pull.setScmRevisionNumber(mergeCommit);
+    } else if (MERGED.equals(pull.getState()) && existingPull != null
+        && MERGED.equals(existingPull.getState()) && existingPull.getScmRevisionNumber() != null) {
+      // the merge activity lies before the marker of the incremental walk
+      pull.setScmRevisionNumber(existingPull.getScmRevisionNumber());
+      mergeCommitKnown = true;
+    }
+
+    List<Commit> storedCommits = existingPull == null ? null : existingPull.getCommits();
+    boolean commitsKnown = storedCommits != null
+        && pull.getHeadSha() != null && pull.getHeadSha().equals(existingPull.getHeadSha());
+    if (commitsKnown) {
+      pull.setCommits(storedCommits);
+    } else if (storedCommits == null) {
+      populatePullRequestCommits(repo, pull, userName, password);
+      storedCommits = pull.getCommits();
+      commitsKnown = true;
+    }
+
+    Long commentCount = getListedCommentCount(jsonObject);
+    boolean commentsKnown = existingPull != null && existingPull.getComments() != null
+        && commentCount != null && commentCount == existingPull.getComments().size();
+    if (commentsKnown) {
+      pull.setComments(existingPull.getComments());
+    }
+    Long lastActivityId = BitbucketPullRequest.lastActivityId(existingPull);
+    if (pull instanceof BitbucketPullRequest) {
+      ((BitbucketPullRequest) pull).setLastActivityId(lastActivityId);
+    }
+    if (mergeCommitKnown && commitsKnown && commentsKnown) {
+      return;
+    }
+
+    ServerPullRequestActivities activities = new ServerPullRequestActivities();
+    try {
+      URI pageUrl =
+          bitbucketApiUrlBuilder.buildPullRequestActivitiesApiUrl(repo.getRepoUrl(), pull.getNumber());
+      boolean lastPage = false;
+      boolean stop = false;
+      URI queryUrlPage = pageUrl;
+      int page = 0;
+      while (!lastPage && !stop) {
+        LOG.info("Executing [" + queryUrlPage);
+        ResponseEntity<String> response =
+            scmHttpRestClient.makeRestCall(queryUrlPage, userName, password);
+        Object pageEvent = CollectorEvents.beginPage();
+        JSONObject jsonArray = parseAsObject(response);
+        JSONArray values = (JSONArray) jsonArray.get("values");
+        for (Object item : values) {
+          JSONObject activity = (JSONObject) item;
+          // Activities come newest first, everything from the marker on was processed before
+          stop = lastActivityId != null && ServerPullRequestActivities.id(activity) <= lastActivityId;
+          if (stop) {
+            break;
+          }
+          activities.add(activity);
+        }
+        CollectorEvents.endPage(pageEvent, "activities", ++page, values.size());
+        PageMetadata pageMetadata = new PageMetadata(pageUrl, jsonArray, values);
+        lastPage = pageMetadata.isLastPage();
+        queryUrlPage = pageMetadata.getNextPageUrl();
+      }
+    } catch (URISyntaxException e) {
+      LOG.error("Unable to construct Bitbucket API URL" + e.getMessage());
+      return;
+    }
+
+    if (!mergeCommitKnown && activities.getMergeCommit() != null) {
+      pull.setScmRevisionNumber(activities.getMergeCommit());
+    }
+    if (!commitsKnown) {
+      pull.setCommits(activities.applyRescopes(storedCommits));
+    }
+    if (!commentsKnown) {
+      boolean incremental = lastActivityId != null && existingPull.getComments() != null;
+      pull.setComments(incremental
+          ? activities.mergeComments(existingPull.getComments()) : activities.getComments());
+    }
+    if (pull instanceof BitbucketPullRequest && activities.getLastActivityId() != null) {
+      ((BitbucketPullRequest) pull).setLastActivityId(activities.getLastActivityId());
+    }
+  }
+
+  /**
+   * The commits of a merged pull request no longer change, so they may be served from the
+   * {@link ImmutableResponseCache}. Activities and comments are always read: comments are still
+   * added after the merge, and a declined pull request may be reopened.
+   */
+  private ResponseEntity<String> fetchCommits(URI uri, GitRequest pull, String userName, String password) {
+    if (MERGED.equals(pull.getState())) {
+      return scmHttpRestClient.makeRestCall(uri, userName, password, true);
+    }
+    return scmHttpRestClient.makeRestCall(uri, userName, password);
+  }
+
   /**
    * Pull Requests merge commits can change after final merge to a branch. This depends on the merge
    * strategy used : merge(no fast forward),squash,rebase or fast-forward
@@ -182,10 +461,12 @@ public class PullRequestCollector {
         boolean lastPage = false;
         boolean stop = false;
         URI queryUrlPage = pageUrl;
+        int page = 0;
         while (!lastPage && !stop) {
           LOG.info("sExecuting [" + queryUrlPage);
           ResponseEntity<String> response =
               scmHttpRestClient.makeRestCall(queryUrlPage, repoUser, repoPassword);
+          Object pageEvent = CollectorEvents.beginPage();
           JSONObject jsonArray = parseAsObject(response);
           JSONArray values = (JSONArray) jsonArray.get("values");
           for (Object item : values) {
@@ -202,6 +483,7 @@ public class PullRequestCollector {
               }
             }
           }
+          CollectorEvents.endPage(pageEvent, "activities", ++page, values.size());
           PageMetadata pageMetadata = new PageMetadata(pageUrl, jsonArray, values);
           lastPage = pageMetadata.isLastPage();
           queryUrlPage = pageMetadata.getNextPageUrl();
@@ -247,14 +529,20 @@ public class PullRequestCollector {
       boolean lastPage = false;
       boolean stop = false;
       URI queryUrlPage = pageUrl;
+      int page = 0;
       while (!lastPage && !stop) {
         LOG.info("sExecuting [" + queryUrlPage);
         ResponseEntity<String> response =
-            scmHttpRestClient.makeRestCall(queryUrlPage, repoUser, repoPassword);
+            fetchCommits(queryUrlPage, pull, repoUser, repoPassword);
+        Object pageEvent = CollectorEvents.beginPage();
         JSONObject jsonArray = parseAsObject(response);
         JSONArray values = (JSONArray) jsonArray.get("values");
         for (Object item : values) {
           JSONObject jsonObject = (JSONObject) item;
+          if (!isCloud()) {
+            commitList.add(ServerPullRequestActivities.toCommit(jsonObject));
+            continue;
+          }
 
           String sha = (String) jsonObject.get("hash");
           long timestamp = new DateTime(str(jsonObject, "date")).getMillis();
@@ -267,6 +555,7 @@ public class PullRequestCollector {
           commit.setNumberOfChanges(1);
           commitList.add(commit);
         }
+        CollectorEvents.endPage(pageEvent, "pull-request-commits", ++page, values.size());
         PageMetadata pageMetadata = new PageMetadata(pageUrl, jsonArray, values);
         lastPage = pageMetadata.isLastPage();
         queryUrlPage = pageMetadata.getNextPageUrl();
@@ -312,10 +601,12 @@ public class PullRequestCollector {
       boolean lastPage = false;
       boolean stop = false;
       URI queryUrlPage = pageUrl;
+      int page = 0;
       while (!lastPage && !stop) {
         LOG.info("Executing [" + queryUrlPage);
         ResponseEntity<String> response =
             scmHttpRestClient.makeRestCall(queryUrlPage, repoUser, repoPassword);
+        Object pageEvent = CollectorEvents.beginPage();
         JSONObject jsonArray = parseAsObject(response);
         JSONArray values = (JSONArray) jsonArray.get("values");
         for (Object item : values) {
@@ -328,10 +619,10 @@ public class PullRequestCollector {
           String displayName = (String) user.get("display_name");
           String uuid = (String) user.get("uuid");
 
-          Date created_on = formatter.parse((String) jsonObject.get("created_on"));
+          Date created_on = formatter.get().parse((String) jsonObject.get("created_on"));
           Long createdAt = created_on.getTime();
 
-          Date updated_on = formatter.parse((String) jsonObject.get("updated_on"));
+          Date updated_on = formatter.get().parse((String) jsonObject.get("updated_on"));
           Long updatedAt = updated_on.getTime();
 
           Comment comment = new Comment();
@@ -343,6 +634,7 @@ public class PullRequestCollector {
 
           commentList.add(comment);
         }
+        CollectorEvents.endPage(pageEvent, "comments", ++page, values.size());
         PageMetadata pageMetadata = new PageMetadata(pageUrl, jsonArray, values);
         lastPage = pageMetadata.isLastPage();
         queryUrlPage = pageMetadata.getNextPageUrl();
@@ -402,18 +694,20 @@ public class PullRequestCollector {
     }
   }
 
-  private GitRequest getPullRequestServer(GitRepo repo, JSONObject jsonObject) {
+  // package for benchmarks
+  /*package*/ GitRequest getPullRequestServer(GitRepo repo, JSONObject jsonObject) {
     String prNumber = jsonObject.get("id").toString();
     String message = (String) jsonObject.get("title");
     JSONObject fromRef = (JSONObject) jsonObject.get("fromRef");
     String sha = (String) fromRef.get("latestCommit");
     Long createdAt = (Long) jsonObject.get("createdDate");
     Long updatedAt = (Long) jsonObject.get("updatedDate");
-    GitRequest pull = new GitRequest();
+    GitRequest pull = new BitbucketPullRequest();
     pull.setScmCommitLog(message);
     pull.setNumber(prNumber);
     pull.setScmUrl(repo.getRepoUrl());
     pull.setScmRevisionNumber(sha);
+    pull.setHeadSha(sha);
     long currentTimeMillis = new DateTime(createdAt).getMillis();
     pull.setCreatedAt(currentTimeMillis);
     pull.setTimestamp(currentTimeMillis);
@@ -434,7 +728,8 @@ public class PullRequestCollector {
     return pull;
   }
 
-  private GitRequest getPullRequestCloud(GitRepo repo, JSONObject jsonObject)
+  // package for benchmarks
+  /*package*/ GitRequest getPullRequestCloud(GitRepo repo, JSONObject jsonObject)
       throws ParseException {
     String prNumber = jsonObject.get("id").toString();
     String message = (String) jsonObject.get("title");
@@ -442,10 +737,10 @@ public class PullRequestCollector {
     JSONObject commit = (JSONObject) source.get("commit");
     String sha = (String) commit.get("hash");
 
-    Date created_on = formatter.parse((String) jsonObject.get("created_on"));
+    Date created_on = formatter.get().parse((String) jsonObject.get("created_on"));
     Long createdAt = created_on.getTime();
 
-    Date updated_on = formatter.parse((String) jsonObject.get("updated_on"));
+    Date updated_on = formatter.get().parse((String) jsonObject.get("updated_on"));
     Long updatedAt = updated_on.getTime();
 
     GitRequest pull = new GitRequest();
@@ -453,6 +748,7 @@ public class PullRequestCollector {
     pull.setNumber(prNumber);
     pull.setScmUrl(repo.getRepoUrl());
     pull.setScmRevisionNumber(sha);
+    pull.setHeadSha(sha);
     long currentTimeMillis = new DateTime(createdAt).getMillis();
     pull.setCreatedAt(currentTimeMillis);
     pull.setTimestamp(currentTimeMillis);
@@ -473,6 +769,57 @@ public class PullRequestCollector {
     return pull;
   }
 
+  private GitRequest getPullRequest(GitRepo repo, JSONObject jsonObject) throws ParseException {
+    if (isCloud()) {
+      return getPullRequestCloud(repo, jsonObject);
+    }
+    return getPullRequestServer(repo, jsonObject);
+  }
+
+  private String getTargetBranch(JSONObject jsonObject) {
+    if (isCloud()) {
+      JSONObject destination = (JSONObject) jsonObject.get("destination");
+      JSONObject branch = destination == null ? null : (JSONObject) destination.get("branch");
+      return branch == null ? null : str(branch, "name");
+    }
+    JSONObject toRef = (JSONObject) jsonObject.get("toRef");
+    return toRef == null ? null : str(toRef, "displayId");
+  }
+
+  private String getListedMergeCommit(JSONObject jsonObject) {
+    JSONObject mergeCommit;
+    if (isCloud()) {
+      mergeCommit = (JSONObject) jsonObject.get("merge_commit");
+      return mergeCommit == null ? null : str(mergeCommit, "hash");
+    }
+    JSONObject properties = (JSONObject) jsonObject.get("properties");
+    mergeCommit = properties == null ? null : (JSONObject) properties.get("mergeCommit");
+    return mergeCommit == null ? null : str(mergeCommit, "id");
+  }
+
+  private Long getListedCommentCount(JSONObject jsonObject) {
+    Object count;
+    if (isCloud()) {
+      count = jsonObject.get("comment_count");
+    } else {
+      JSONObject properties = (JSONObject) jsonObject.get("properties");
+      if (properties == null) {
+        return null;
+      }
+      // Bitbucket Server leaves commentCount out when there are no comments
+      count = properties.containsKey("commentCount") ? properties.get("commentCount") : 0L;
+    }
+    return count instanceof Number ? ((Number) count).longValue() : null;
+  }
+
+  private boolean isCloud() {
+    return "cloud".equalsIgnoreCase(settings.getProduct());
+  }
+
+  private static String branchName(GitRepo repo) {
+    return (repo.getBranch() != null) ? repo.getBranch() : "master";
+  }
+
   private String getPullRequestAuthorServer(JSONObject jsonObject) {
     JSONObject author = (JSONObject) jsonObject.get("author");
     JSONObject user = (JSONObject) author.get("user");
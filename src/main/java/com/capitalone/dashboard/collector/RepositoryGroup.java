@@ -0,0 +1,89 @@
+package com.capitalone.dashboard.collector;
+
+import com.capitalone.dashboard.model.GitRepo;
+import org.bson.types.ObjectId;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The ids of the collector items of one repository together with what scheduling needs to know
+ * about their progress. Items are only loaded once the repository is collected, so that a cycle
+ * holds a few fields per repository instead of every enabled item.
+ */
+public class RepositoryGroup {
+    private final List<ObjectId> itemIds = new ArrayList<>();
+    private boolean neverCollected;
+    private Long oldestUpdate;
+    private Long oldestUnpacedUpdate;
+    private long nextPoll = Long.MAX_VALUE;
+    private boolean unquarantined;
+    private Long quarantinedUntil;
+
+    public void add(GitRepo item) {
+        itemIds.add(item.getId());
+        Long lastUpdate = item.getLastUpdateTime();
+        if (lastUpdate == null) {
+            neverCollected = true;
+        } else {
+            oldestUpdate = oldestUpdate == null ? lastUpdate : Math.min(oldestUpdate, lastUpdate);
+            if (item.getPollInterval() == null) {
+                oldestUnpacedUpdate = oldestUnpacedUpdate == null
+                        ? lastUpdate : Math.min(oldestUnpacedUpdate, lastUpdate);
+            } else {
+                nextPoll = Math.min(nextPoll, lastUpdate + item.getPollInterval());
+            }
+        }
+        if (item.getQuarantinedUntil() == null) {
+            unquarantined = true;
+        } else {
+            quarantinedUntil = quarantinedUntil == null
+                    ? item.getQuarantinedUntil() : Math.min(quarantinedUntil, item.getQuarantinedUntil());
+        }
+    }
+
+    public List<ObjectId> getItemIds() {
+        return Collections.unmodifiableList(itemIds);
+    }
+
+    public int size() {
+        return itemIds.size();
+    }
+
+    /**
+     * @return time in millis the repository was last fully collected, null if one of its items never was
+     */
+    public Long getLastUpdate() {
+        return neverCollected ? null : oldestUpdate;
+    }
+
+    /**
+     * A repository is polled again once the poll interval of one of its items has passed since the
+     * item was last collected. Items never collected, or that saw a change last time, are always due.
+     */
+    public boolean isPollDue(long now) {
+        return neverCollected || oldestUnpacedUpdate != null || now >= nextPoll;
+    }
+
+    /**
+     * @return true while every item of the repository is quarantined
+     */
+    public boolean isQuarantined(long now) {
+        return !unquarantined && quarantinedUntil != null && now < quarantinedUntil;
+    }
+
+    /**
+     * @param defaultInterval poll interval in millis of items that saw a change last time
+     * @return earliest time one of the items is due, but not before the repository leaves quarantine
+     */
+    public long dueTime(long defaultInterval, long now) {
+        long dueTime = nextPoll;
+        if (neverCollected) {
+            dueTime = 0;
+        } else if (oldestUnpacedUpdate != null) {
+            dueTime = Math.min(dueTime, oldestUnpacedUpdate + defaultInterval);
+        }
+        return isQuarantined(now) ? Math.max(dueTime, quarantinedUntil) : dueTime;
+    }
+}
@@ -0,0 +1,142 @@
+package com.capitalone.dashboard.collector;
+
+import com.capitalone.dashboard.repository.RepositoryLeaseRepository;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Repository leases of this collector instance in cluster mode. Instances collecting the same
+ * collector items claim each repository before collecting it, renew the lease while they work on
+ * it and release it when done; a lease left by an instance that stopped expires and is taken over.
+ * <p>
+ * A claimed lease is renewed in the background every third of {@code git.leaseSeconds} until it is
+ * completed or released, so that a long commit or pull request walk does not let it expire. Once a
+ * renewal fails the renewals stop and {@link #isHeld} tells the collection to give up.
+ */
+@Component
+public class RepositoryLeases {
+    private static final Log LOG = LogFactory.getLog(RepositoryLeases.class);
+
+    private final RepositoryLeaseRepository repositoryLeaseRepository;
+    private final GitSettings settings;
+    private final String instanceId;
+    private final ScheduledExecutorService renewals = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "bitbucket-lease-renewal");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+    private final Map<String, ScheduledFuture<?>> held = new ConcurrentHashMap<>();
+    private final Set<String> lost = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    @Autowired
+    public RepositoryLeases(RepositoryLeaseRepository repositoryLeaseRepository, GitSettings settings) {
+        this(repositoryLeaseRepository, settings, ManagementFactory.getRuntimeMXBean().getName() + "-" + UUID.randomUUID());
+    }
+
+    public RepositoryLeases(RepositoryLeaseRepository repositoryLeaseRepository, GitSettings settings, String instanceId) {
+        this.repositoryLeaseRepository = repositoryLeaseRepository;
+        this.settings = settings;
+        this.instanceId = instanceId;
+        LOG.info("Collector instance " + instanceId);
+    }
+
+    public String getInstanceId() {
+        return instanceId;
+    }
+
+    /**
+     * @param collectedBefore only claim the repository if no instance collected it since then
+     * @return true if this instance may collect the repository; the lease is then renewed until
+     * it is completed or released
+     */
+    public boolean claim(final String repositoryKey, long collectedBefore) {
+        if (!repositoryLeaseRepository.claim(repositoryKey, instanceId, expiresAt(), collectedBefore)) {
+            return false;
+        }
+        stopRenewing(repositoryKey);
+        long period = TimeUnit.SECONDS.toMillis(settings.getLeaseSeconds()) / 3;
+        held.put(repositoryKey, renewals.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                renewHeld(repositoryKey);
+            }
+        }, period, period, TimeUnit.MILLISECONDS));
+        return true;
+    }
+
+    /**
+     * @return false if the lease was lost and the repository must not be collected any further
+     */
+    public boolean renew(String repositoryKey) {
+        return repositoryLeaseRepository.renew(repositoryKey, instanceId, expiresAt());
+    }
+
+    /**
+     * @return false if a renewal failed since the repository was claimed, so that another instance
+     * may be collecting it
+     */
+    public boolean isHeld(String repositoryKey) {
+        return !lost.contains(repositoryKey);
+    }
+
+    public void complete(String repositoryKey) {
+        stopRenewing(repositoryKey);
+        repositoryLeaseRepository.release(repositoryKey, instanceId, System.currentTimeMillis());
+    }
+
+    public void release(String repositoryKey) {
+        stopRenewing(repositoryKey);
+        repositoryLeaseRepository.release(repositoryKey, instanceId, null);
+    }
+
+    @PreDestroy
+    public void close() {
+        renewals.shutdownNow();
+    }
+
+    private void renewHeld(String repositoryKey) {
+        boolean renewed;
+        try {
+            renewed = renew(repositoryKey);
+        } catch (RuntimeException e) {
+            LOG.warn("Unable to renew the lease of " + repositoryKey, e);
+            renewed = false;
+        }
+        ScheduledFuture<?> renewal = held.get(repositoryKey);
+        if (!renewed && renewal != null) {
+            LOG.warn("Lost the lease of " + repositoryKey);
+            lost.add(repositoryKey);
+            renewal.cancel(false);
+        }
+    }
+
+    private void stopRenewing(String repositoryKey) {
+        ScheduledFuture<?> renewal = held.remove(repositoryKey);
+        if (renewal != null) {
+            renewal.cancel(false);
+        }
+        lost.remove(repositoryKey);
+    }
+
+    private long expiresAt() {
+        return System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(settings.getLeaseSeconds());
+    }
+}
@@ -0,0 +1,203 @@
+package com.capitalone.dashboard.collector;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Continuous scheduling of repositories. Each repository waits in a queue ordered by the time it is
+ * due; workers take the next due repository as soon as they are free, collect it and queue it
+ * again with the due time returned by the collection. Repositories are added, updated and removed
+ * by {@link #schedule} and {@link #retainOnly} while the workers run.
+ */
+public class RepositoryScheduler {
+    private static final Log LOG = LogFactory.getLog(RepositoryScheduler.class);
+
+    /**
+     * Collects one repository.
+     */
+    public interface RepositoryCollector {
+        /**
+         * @return time in millis at which the repository is due again
+         */
+        long collect(RepositoryWork work);
+    }
+
+    private final RepositoryCollector collector;
+    private final int workerCount;
+    private final long retryDelayMillis;
+    private final DelayQueue<ScheduledRepository> queue = new DelayQueue<>();
+    private final ConcurrentMap<String, ScheduledRepository> scheduled = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Long> lags = new ConcurrentHashMap<>();
+    private ExecutorService workers;
+
+    /**
+     * @param collector collects a due repository
+     * @param workerCount number of repositories collected at the same time
+     * @param retryDelayMillis delay before a repository whose collection failed is due again
+     */
+    public RepositoryScheduler(RepositoryCollector collector, int workerCount, long retryDelayMillis) {
+        this.collector = collector;
+        this.workerCount = workerCount;
+        this.retryDelayMillis = retryDelayMillis;
+    }
+
+    /**
+     * Adds a repository due at the given time, or replaces the items and priority of a repository
+     * already scheduled while keeping its due time.
+     */
+    public void schedule(RepositoryWork work, long dueTime) {
+        ScheduledRepository current = scheduled.get(work.getKey());
+        if (current != null) {
+            current.work = work;
+            return;
+        }
+        ScheduledRepository repository = new ScheduledRepository(work, dueTime);
+        if (scheduled.putIfAbsent(work.getKey(), repository) == null) {
+            queue.add(repository);
+        }
+    }
+
+    /**
+     * Stops scheduling the repositories whose key is not in the given keys. A repository being
+     * collected finishes its collection but is not queued again.
+     */
+    public void retainOnly(Set<String> keys) {
+        for (String key : scheduled.keySet()) {
+            if (!keys.contains(key)) {
+                ScheduledRepository removed = scheduled.remove(key);
+                if (removed != null) {
+                    queue.remove(removed);
+                }
+                lags.remove(key);
+            }
+        }
+    }
+
+    public synchronized void start() {
+        if (workers != null && !workers.isShutdown()) {
+            return;
+        }
+        workers = Executors.newFixedThreadPool(workerCount, new WorkerThreadFactory());
+        for (int i = 0; i < workerCount; i++) {
+            workers.execute(new Worker());
+        }
+    }
+
+    public synchronized void stop() {
+        if (workers != null) {
+            workers.shutdownNow();
+        }
+    }
+
+    public synchronized boolean isRunning() {
+        return workers != null && !workers.isTerminated() && !workers.isShutdown();
+    }
+
+    public int size() {
+        return scheduled.size();
+    }
+
+    /**
+     * Freshness of the scheduled repositories: how many millis after its due time each repository
+     * was last picked up by a worker, or is already overdue if it is still waiting.
+     *
+     * @return lag in millis by repository key
+     */
+    public Map<String, Long> getLags() {
+        long now = System.currentTimeMillis();
+        Map<String, Long> result = new HashMap<>(lags);
+        for (ScheduledRepository repository : scheduled.values()) {
+            long overdue = now - repository.dueTime;
+            Long lag = result.get(repository.work.getKey());
+            if (overdue > 0 && !repository.collecting && (lag == null || overdue > lag)) {
+                result.put(repository.work.getKey(), overdue);
+            }
+        }
+        return Collections.unmodifiableMap(result);
+    }
+
+    private void runOnce(ScheduledRepository repository) {
+        String key = repository.work.getKey();
+        if (scheduled.get(key) != repository) {
+            return;
+        }
+        long start = System.currentTimeMillis();
+        lags.put(key, Math.max(0, start - repository.dueTime));
+        long dueTime;
+        repository.collecting = true;
+        try {
+            dueTime = collector.collect(repository.work);
+        } catch (RuntimeException e) {
+            LOG.error("Failed to collect " + key, e);
+            dueTime = System.currentTimeMillis() + retryDelayMillis;
+        }
+        repository.dueTime = dueTime;
+        repository.collecting = false;
+        if (scheduled.get(key) == repository) {
+            queue.add(repository);
+        }
+    }
+
+    private class Worker implements Runnable {
+        @Override
+        public void run() {
+            while (!Thread.currentThread().isInterrupted()) {
+                try {
+                    runOnce(queue.take());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (RuntimeException e) {
+                    LOG.error("Repository worker failed", e);
+                }
+            }
+        }
+    }
+
+    private static class WorkerThreadFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "bitbucket-worker-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+    private static class ScheduledRepository implements Delayed {
+        private volatile RepositoryWork work;
+        private volatile long dueTime;
+        private volatile boolean collecting;
+
+        ScheduledRepository(RepositoryWork work, long dueTime) {
+            this.work = work;
+            this.dueTime = dueTime;
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(dueTime - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            ScheduledRepository that = (ScheduledRepository) other;
+            int byDueTime = Long.compare(dueTime, that.dueTime);
+            return byDueTime != 0 ? byDueTime : work.compareTo(that.work);
+        }
+    }
+}
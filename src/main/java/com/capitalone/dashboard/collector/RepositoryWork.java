@@ -0,0 +1,51 @@
+package com.capitalone.dashboard.collector;
+
+/**
+ * The collector items of one repository, collected together, with the priority that orders
+ * repositories within a cycle. Repositories deferred by the previous cycle sort first, then higher
+ * priority; equal priorities keep the order in which the repositories were read.
+ */
+public class RepositoryWork implements Comparable<RepositoryWork> {
+    private final String key;
+    private final RepositoryGroup group;
+    private final double priority;
+    private final long sequence;
+    private final boolean deferred;
+
+    public RepositoryWork(String key, RepositoryGroup group, double priority, long sequence) {
+        this(key, group, priority, sequence, false);
+    }
+
+    public RepositoryWork(String key, RepositoryGroup group, double priority, long sequence, boolean deferred) {
+        this.key = key;
+        this.group = group;
+        this.priority = priority;
+        this.sequence = sequence;
+        this.deferred = deferred;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public RepositoryGroup getGroup() {
+        return group;
+    }
+
+    public double getPriority() {
+        return priority;
+    }
+
+    public boolean isDeferred() {
+        return deferred;
+    }
+
+    @Override
+    public int compareTo(RepositoryWork other) {
+        if (deferred != other.deferred) {
+            return deferred ? -1 : 1;
+        }
+        int byPriority = Double.compare(other.priority, priority);
+        return byPriority != 0 ? byPriority : Long.compare(sequence, other.sequence);
+    }
+}
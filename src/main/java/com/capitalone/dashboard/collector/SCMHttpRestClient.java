@@ -3,12 +3,14 @@ package com.capitalone.dashboard.collector;
 import com.capitalone.dashboard.util.Encryption;
 import com.capitalone.dashboard.util.EncryptionException;
 import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Component;
 import org.springframework.web.client.RestTemplate;
@@ -16,6 +18,8 @@ import org.springframework.web.client.RestTemplate;
 import javax.inject.Inject;
 import java.net.URI;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
 
 @Component
 public class SCMHttpRestClient {
@@ -27,21 +31,124 @@ public class SCMHttpRestClient {
   @Inject
   private RestTemplate restTemplate;
 
+  @Inject
+  private ImmutableResponseCache responseCache;
+
+  @Inject
+  private ConditionalRequestCache conditionalRequests;
+
+  private final InFlightRequests inFlight = new InFlightRequests();
+
     public ResponseEntity<String> makeRestCall(URI uri, String userId, String password) {
+        return makeRestCall(uri, userId, password, ImmutableResponseCache.isShaAnchored(uri));
+    }
+
+    /**
+     * Workers asking for the same page with the same user at the same time share one call and its
+     * response.
+     *
+     * @param immutable true if the response can never change, such as the commits of a merged pull
+     *                  request; it is then served from the {@link ImmutableResponseCache} when it is there
+     */
+    public ResponseEntity<String> makeRestCall(final URI uri, final String userId, final String password,
+            final boolean immutable) {
+        return inFlight.call(cacheKey(uri, userId), CollectorMetrics.endpointKind(String.valueOf(uri)),
+                new Callable<ResponseEntity<String>>() {
+                    @Override
+                    public ResponseEntity<String> call() {
+                        return get(uri, userId, password, immutable);
+                    }
+                });
+    }
+
+    /**
+     * @return number of calls saved because another worker was making the same one
+     */
+    public long getCoalescedCalls() {
+        return inFlight.getCoalesced();
+    }
+
+    private ResponseEntity<String> get(URI uri, String userId, String password, boolean immutable) {
+        boolean cached = immutable && responseCache != null && responseCache.isEnabled();
+        if (cached) {
+            ResponseEntity<String> response = responseCache.get(uri, userId);
+            if (response != null) {
+                return response;
+            }
+        }
+        ResponseEntity<String> response = fetch(uri, userId, password);
+        if (cached) {
+            responseCache.put(uri, userId, response);
+        }
+        return response;
+    }
+
+    /**
+     * @return true if Bitbucket answered that the page did not change since it was last read; the
+     * response then carries the page as it was read back then
+     */
+    public static boolean isNotModified(ResponseEntity<String> response) {
+        return response != null && response.getStatusCode() == HttpStatus.NOT_MODIFIED;
+    }
+
+    /**
+     * @return key of a response in the caches: the URI without credentials and with sorted
+     * parameters, and a hash of the user, since two users may not see the same repositories
+     */
+    static String cacheKey(URI uri, String userId) {
+        String scope = StringUtils.isEmpty(userId) ? "anonymous" : DigestUtils.sha256Hex(userId);
+        String stripped = HttpArchive.strip(uri);
+        int query = stripped.indexOf('?');
+        if (query >= 0) {
+            String[] parameters = stripped.substring(query + 1).split("&");
+            Arrays.sort(parameters);
+            stripped = stripped.substring(0, query + 1) + StringUtils.join(parameters, '&');
+        }
+        return scope + ' ' + stripped;
+    }
+
+    private ResponseEntity<String> fetch(URI uri, String userId, String password) {
+        HttpHeaders headers = new HttpHeaders();
+        boolean conditional = conditionalRequests != null && conditionalRequests.addValidators(uri, userId, headers);
+        ResponseEntity<String> response = exchange(uri, userId, password, headers);
+        if (conditionalRequests == null) {
+            return response;
+        }
+        ResponseEntity<String> resolved = conditionalRequests.update(uri, userId, conditional, response);
+        if (resolved == null) {
+            // the page was dropped from the cache while Bitbucket revalidated it
+            resolved = conditionalRequests.update(uri, userId, false,
+                    exchange(uri, userId, password, new HttpHeaders()));
+        }
+        return resolved;
+    }
+
+    private ResponseEntity<String> exchange(URI uri, String userId, String password, HttpHeaders headers) {
         String id = userId;
         String secret = password;
         if (LOG.isDebugEnabled()) {
             LOG.debug("GET " + uri);
         }
-        // Basic Auth only.
-        if (StringUtils.isNotEmpty(id) && StringUtils.isNotEmpty(secret)) {
-            return restTemplate.exchange(
-                    uri, HttpMethod.GET, new HttpEntity<>(createHeaders(id, secret)), String.class);
-
-    } else {
-      return restTemplate.exchange(uri, HttpMethod.GET, null, String.class);
+        long start = System.nanoTime();
+        Object event = CollectorEvents.beginHttpCall();
+        ResponseEntity<String> response = null;
+        RuntimeException failure = null;
+        try {
+            // Basic Auth only.
+            if (StringUtils.isNotEmpty(id) && StringUtils.isNotEmpty(secret)) {
+                headers.putAll(createHeaders(id, secret));
+            }
+            response = restTemplate.exchange(
+                    uri, HttpMethod.GET, headers.isEmpty() ? null : new HttpEntity<>(headers), String.class);
+            return response;
+        } catch (RuntimeException e) {
+            failure = e;
+            throw e;
+        } finally {
+            CollectorMetrics.global().recordHttpCall(String.valueOf(uri), System.nanoTime() - start, response, failure);
+            CollectorEvents.endHttpCall(event, String.valueOf(uri), response);
+        }
     }
-  }
 
     private HttpHeaders createHeaders(final String userId, final String password) {
         String auth = userId + ":" + password;
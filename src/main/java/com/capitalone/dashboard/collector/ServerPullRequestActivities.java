@@ -0,0 +1,218 @@
+package com.capitalone.dashboard.collector;
+
+import com.capitalone.dashboard.model.Comment;
+import com.capitalone.dashboard.model.Commit;
+import com.capitalone.dashboard.model.CommitType;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static com.capitalone.dashboard.collector.JSONParserUtils.str;
+
+/**
+ * Collects merge commit, comments and rescoped commits of a Bitbucket Server pull request from its
+ * activities stream. Activities have to be added newest first, which is the order Bitbucket Server
+ * returns them in; the newest activity about a comment or commit decides whether it is kept.
+ */
+public class ServerPullRequestActivities {
+    private static final String MERGED = "MERGED";
+    private static final String COMMENTED = "COMMENTED";
+    private static final String RESCOPED = "RESCOPED";
+    private static final String DELETED = "DELETED";
+
+    private Long lastActivityId;
+    private String mergeCommit;
+    private final Map<String, Comment> comments = new LinkedHashMap<>();
+    private final Set<String> deletedComments = new HashSet<>();
+    private final Set<String> deletedCommentKeys = new HashSet<>();
+    private final Map<String, Commit> addedCommits = new LinkedHashMap<>();
+    private final Set<String> removedCommits = new HashSet<>();
+
+    public void add(JSONObject activity) {
+        if (lastActivityId == null) {
+            lastActivityId = id(activity);
+        }
+        String action = str(activity, "action");
+        if (MERGED.equals(action)) {
+            JSONObject commit = (JSONObject) activity.get("commit");
+            if (mergeCommit == null && commit != null) {
+                mergeCommit = str(commit, "id");
+            }
+        } else if (COMMENTED.equals(action)) {
+            JSONObject comment = (JSONObject) activity.get("comment");
+            if (comment == null) {
+                return;
+            }
+            if (DELETED.equals(str(activity, "commentAction"))) {
+                deletedComments.add(str(comment, "id"));
+                deletedCommentKeys.add(key(toComment(comment)));
+            } else {
+                addComment(comment);
+            }
+        } else if (RESCOPED.equals(action)) {
+            for (JSONObject commit : rescopedCommits(activity, "removed")) {
+                String sha = str(commit, "id");
+                if (!addedCommits.containsKey(sha)) {
+                    removedCommits.add(sha);
+                }
+            }
+            for (JSONObject commit : rescopedCommits(activity, "added")) {
+                String sha = str(commit, "id");
+                if (!removedCommits.contains(sha) && !addedCommits.containsKey(sha)) {
+                    addedCommits.put(sha, toCommit(commit));
+                }
+            }
+        }
+    }
+
+    /**
+     * @return id of the newest activity added, null if none was added
+     */
+    public Long getLastActivityId() {
+        return lastActivityId;
+    }
+
+    /**
+     * @return merge commit of the pull request, null if no MERGED activity was seen
+     */
+    public String getMergeCommit() {
+        return mergeCommit;
+    }
+
+    /**
+     * @return comments and their replies oldest first, without deleted ones
+     */
+    public List<Comment> getComments() {
+        return sorted(comments.values());
+    }
+
+    /**
+     * Merges the comments seen into the comments known before them. Stored comments carry no id,
+     * so a comment is matched by its author and creation time.
+     *
+     * @param stored comments of the pull request before the activities added
+     * @return comments and their replies oldest first, without deleted ones
+     */
+    public List<Comment> mergeComments(List<Comment> stored) {
+        Map<String, Comment> result = new LinkedHashMap<>();
+        for (Comment comment : stored) {
+            if (!deletedCommentKeys.contains(key(comment))) {
+                result.put(key(comment), comment);
+            }
+        }
+        for (Comment comment : comments.values()) {
+            result.put(key(comment), comment);
+        }
+        return sorted(result.values());
+    }
+
+    static long id(JSONObject activity) {
+        return toLong(activity.get("id"));
+    }
+
+    private static List<Comment> sorted(Collection<Comment> comments) {
+        List<Comment> result = new ArrayList<>(comments);
+        Collections.sort(result, new Comparator<Comment>() {
+            @Override
+            public int compare(Comment a, Comment b) {
+                return Long.compare(a.getCreatedAt(), b.getCreatedAt());
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Applies the rescopes seen to the commits known before them.
+     *
+     * @param commits commits of the pull request before the rescopes, may be null
+     * @return commits of the pull request after the rescopes
+     */
+    public List<Commit> applyRescopes(List<Commit> commits) {
+        Map<String, Commit> result = new LinkedHashMap<>(addedCommits);
+        if (commits != null) {
+            for (Commit commit : commits) {
+                String sha = commit.getScmRevisionNumber();
+                if (!removedCommits.contains(sha) && !result.containsKey(sha)) {
+                    result.put(sha, commit);
+                }
+            }
+        }
+        return new ArrayList<>(result.values());
+    }
+
+    private static String key(Comment comment) {
+        return comment.getUserLDAPDN() + ":" + comment.getCreatedAt();
+    }
+
+    private void addComment(JSONObject json) {
+        String id = str(json, "id");
+        if (!deletedComments.contains(id) && !comments.containsKey(id)) {
+            comments.put(id, toComment(json));
+        }
+        JSONArray replies = (JSONArray) json.get("comments");
+        if (replies != null) {
+            for (Object reply : replies) {
+                addComment((JSONObject) reply);
+            }
+        }
+    }
+
+    private static List<JSONObject> rescopedCommits(JSONObject activity, String key) {
+        List<JSONObject> commits = new ArrayList<>();
+        JSONObject changes = (JSONObject) activity.get(key);
+        JSONArray values = changes == null ? null : (JSONArray) changes.get("commits");
+        if (values != null) {
+            for (Object value : values) {
+                commits.add((JSONObject) value);
+            }
+        }
+        return commits;
+    }
+
+    private static Comment toComment(JSONObject json) {
+        JSONObject author = (JSONObject) json.get("author");
+        Comment comment = new Comment();
+        if (author != null) {
+            comment.setUser(str(author, "displayName"));
+            comment.setUserLDAPDN(str(author, "name"));
+        }
+        comment.setBody(str(json, "text"));
+        comment.setCreatedAt(toLong(json.get("createdDate")));
+        comment.setUpdatedAt(toLong(json.get("updatedDate")));
+        return comment;
+    }
+
+    static Commit toCommit(JSONObject json) {
+        JSONObject author = (JSONObject) json.get("author");
+        JSONArray parents = (JSONArray) json.get("parents");
+        List<String> parentShas = new ArrayList<>();
+        if (parents != null) {
+            for (Object parent : parents) {
+                parentShas.add(str((JSONObject) parent, "id"));
+            }
+        }
+        Commit commit = new Commit();
+        commit.setTimestamp(System.currentTimeMillis());
+        commit.setScmRevisionNumber(str(json, "id"));
+        commit.setScmParentRevisionNumbers(parentShas);
+        commit.setScmAuthor(author == null ? null : str(author, "name"));
+        commit.setScmCommitLog(str(json, "message"));
+        commit.setScmCommitTimestamp(toLong(json.get("authorTimestamp")));
+        commit.setType(parentShas.size() > 1 ? CommitType.Merge : CommitType.New);
+        commit.setNumberOfChanges(1);
+        return commit;
+    }
+
+    private static long toLong(Object value) {
+        return value instanceof Number ? ((Number) value).longValue() : 0;
+    }
+}
@@ -0,0 +1,62 @@
+package com.capitalone.dashboard.collector;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Consistent-hash ring assigning repositories to a fixed number of collector replicas. Each shard
+ * owns many points on the ring and a repository belongs to the shard owning the first point at or
+ * after the hash of its key; when a shard is added only the repositories falling on its points
+ * move, roughly 1/shardCount of them.
+ */
+public class ShardRing {
+    private static final int POINTS_PER_SHARD = 160;
+
+    private final TreeMap<Long, Integer> ring = new TreeMap<>();
+    private final int shardCount;
+
+    public ShardRing(int shardCount) {
+        this.shardCount = shardCount;
+        if (shardCount < 1) {
+            throw new IllegalArgumentException("shardCount must be at least 1: " + shardCount);
+        }
+        for (int shard = 0; shard < shardCount; shard++) {
+            for (int point = 0; point < POINTS_PER_SHARD; point++) {
+                ring.put(hash("shard-" + shard + "-" + point), shard);
+            }
+        }
+    }
+
+    public int getShardCount() {
+        return shardCount;
+    }
+
+    /**
+     * @param key canonical repository key
+     * @return shard collecting the repository
+     */
+    public int shardOf(String key) {
+        Map.Entry<Long, Integer> entry = ring.ceilingEntry(hash(key));
+        return entry != null ? entry.getValue() : ring.firstEntry().getValue();
+    }
+
+    /**
+     * First eight bytes of the MD5 digest. {@link String#hashCode()} is stable too, but keys and
+     * virtual nodes that share a prefix land close together on the ring and balance poorly.
+     */
+    private static long hash(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(key.getBytes(StandardCharsets.UTF_8));
+            long hash = 0;
+            for (int i = 0; i < 8; i++) {
+                hash = (hash << 8) | (digest[i] & 0xff);
+            }
+            return hash;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.capitalone.dashboard.config;
+
+import com.capitalone.dashboard.collector.CollectorMetrics;
+import com.capitalone.dashboard.collector.CostLedger;
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.data.repository.Repository;
+import org.springframework.stereotype.Component;
+import org.springframework.util.ClassUtils;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+/**
+ * Times every call to a Spring Data repository, so that Mongo read and write latency shows up in
+ * {@code bitbucket_mongo_operations_seconds} tagged by repository bean and method, and is charged
+ * to the repository being collected in the cost ledger.
+ */
+@Component
+public class RepositoryMetricsPostProcessor implements BeanPostProcessor {
+
+    @Override
+    public Object postProcessBeforeInitialization(Object bean, String beanName) throws BeansException {
+        return bean;
+    }
+
+    @Override
+    public Object postProcessAfterInitialization(Object bean, String beanName) throws BeansException {
+        if (!(bean instanceof Repository)) {
+            return bean;
+        }
+        return timed(bean, beanName);
+    }
+
+    static Object timed(final Object repository, final String name) {
+        return Proxy.newProxyInstance(repository.getClass().getClassLoader(),
+                ClassUtils.getAllInterfaces(repository), new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        if (method.getDeclaringClass() == Object.class) {
+                            return method.invoke(repository, args);
+                        }
+                        long start = System.nanoTime();
+                        CostLedger.recordMongoOperation();
+                        try {
+                            return method.invoke(repository, args);
+                        } catch (InvocationTargetException e) {
+                            throw e.getCause();
+                        } finally {
+                            CollectorMetrics.global().record("bitbucket_mongo_operations", System.nanoTime() - start,
+                                    "repository", name, "method", method.getName());
+                        }
+                    }
+                });
+    }
+}
@@ -1,5 +1,6 @@
 package com.capitalone.dashboard.config;
 
+import com.capitalone.dashboard.collector.HttpArchive;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.web.client.RestTemplate;
@@ -8,8 +9,10 @@ import org.springframework.web.client.RestTemplate;
 public class SpringConfig {
 
     @Bean
-    public RestTemplate restTemplate() {
-        return new RestTemplate();
+    public RestTemplate restTemplate(HttpArchive httpArchive) {
+        RestTemplate restTemplate = new RestTemplate();
+        httpArchive.configure(restTemplate);
+        return restTemplate;
     }
 }
 
@@ -0,0 +1,24 @@
+package com.capitalone.dashboard.model;
+
+/**
+ * GitRequest extension to store the id of the newest Bitbucket Server activity processed for the
+ * pull request, so that the next enrichment only reads the activities added since.
+ */
+public class BitbucketPullRequest extends GitRequest {
+    private Long lastActivityId;
+
+    public Long getLastActivityId() {
+        return lastActivityId;
+    }
+
+    public void setLastActivityId(Long lastActivityId) {
+        this.lastActivityId = lastActivityId;
+    }
+
+    /**
+     * @return last processed activity id of the stored pull request, null if it has none
+     */
+    public static Long lastActivityId(GitRequest pull) {
+        return pull instanceof BitbucketPullRequest ? ((BitbucketPullRequest) pull).getLastActivityId() : null;
+    }
+}
@@ -0,0 +1,44 @@
+package com.capitalone.dashboard.model;
+
+import org.bson.types.ObjectId;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Index of the merged and declined pull requests already stored for one collector item, keyed by
+ * pull request number with the updatedAt they were stored with. Terminal pull requests found in
+ * this index are not enriched again.
+ */
+@Document(collection = "bitbucket_closed_pull_requests")
+public class ClosedPullRequests {
+    @Id
+    private ObjectId collectorItemId;
+
+    private Map<String, Long> updatedAt = new HashMap<>();
+
+    public ClosedPullRequests() {
+    }
+
+    public ClosedPullRequests(ObjectId collectorItemId) {
+        this.collectorItemId = collectorItemId;
+    }
+
+    public ObjectId getCollectorItemId() {
+        return collectorItemId;
+    }
+
+    public void setCollectorItemId(ObjectId collectorItemId) {
+        this.collectorItemId = collectorItemId;
+    }
+
+    public Map<String, Long> getUpdatedAt() {
+        return updatedAt;
+    }
+
+    public void setUpdatedAt(Map<String, Long> updatedAt) {
+        this.updatedAt = updatedAt;
+    }
+}
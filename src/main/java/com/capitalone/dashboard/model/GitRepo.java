@@ -16,6 +16,10 @@ public class GitRepo extends CollectorItem {
     public static final String PASSWORD = "password";
     public static final String LAST_UPDATE_TIME = "lastUpdate";
     public static final String LAST_UPDATE_COMMIT = "lastUpdateCommit"; // Bitbucket Server api uses last update commit instead of time
+    public static final String POLL_INTERVAL = "pollInterval"; // millis to wait after lastUpdate before polling again
+    public static final String FAILURE_COUNT = "failureCount"; // consecutive permanent failures
+    public static final String LAST_FAILURE = "lastFailure"; // type and message of the last failure, for dashboard owners
+    public static final String QUARANTINED_UNTIL = "quarantinedUntil"; // millis until the next re-check of a quarantined repo
 
     public String getUserId() {
         return (String) getOptions().get(USER_ID);
@@ -74,6 +78,41 @@ public class GitRepo extends CollectorItem {
         getOptions().put(LAST_UPDATE_COMMIT, sha);
     }
 
+    public Long getPollInterval() {
+        Object interval = getOptions().get(POLL_INTERVAL);
+        return interval == null ? null : ((Number) interval).longValue();
+    }
+
+    public void setPollInterval(Long millis) {
+        getOptions().put(POLL_INTERVAL, millis);
+    }
+
+    public int getFailureCount() {
+        Object count = getOptions().get(FAILURE_COUNT);
+        return count == null ? 0 : ((Number) count).intValue();
+    }
+
+    public void setFailureCount(int count) {
+        getOptions().put(FAILURE_COUNT, count);
+    }
+
+    public String getLastFailure() {
+        return (String) getOptions().get(LAST_FAILURE);
+    }
+
+    public void setLastFailure(String failure) {
+        getOptions().put(LAST_FAILURE, failure);
+    }
+
+    public Long getQuarantinedUntil() {
+        Object until = getOptions().get(QUARANTINED_UNTIL);
+        return until == null ? null : ((Number) until).longValue();
+    }
+
+    public void setQuarantinedUntil(Long dateInMillis) {
+        getOptions().put(QUARANTINED_UNTIL, dateInMillis);
+    }
+
     /* (non-Javadoc)
      * @see java.lang.Object#equals(java.lang.Object)
      */
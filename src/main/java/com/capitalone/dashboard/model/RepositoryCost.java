@@ -0,0 +1,127 @@
+package com.capitalone.dashboard.model;
+
+import org.bson.types.ObjectId;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * What collecting one repository cost in one cycle. The entries expire after a week, which is
+ * enough to compare repositories over a few days of cycles.
+ */
+@Document(collection = "bitbucket_repository_costs")
+public class RepositoryCost {
+    public static final int RETENTION_SECONDS = 7 * 24 * 60 * 60;
+
+    @Id
+    private ObjectId id;
+
+    private String repositoryKey;
+
+    private List<ObjectId> collectorItemIds = new ArrayList<>();
+
+    @Indexed(expireAfterSeconds = RETENTION_SECONDS)
+    private Date timestamp;
+
+    private long httpCalls;
+
+    private long bytes;
+
+    private long wallMillis;
+
+    private long mongoOperations;
+
+    private long commits;
+
+    private long pulls;
+
+    public ObjectId getId() {
+        return id;
+    }
+
+    public void setId(ObjectId id) {
+        this.id = id;
+    }
+
+    public String getRepositoryKey() {
+        return repositoryKey;
+    }
+
+    public void setRepositoryKey(String repositoryKey) {
+        this.repositoryKey = repositoryKey;
+    }
+
+    public List<ObjectId> getCollectorItemIds() {
+        return collectorItemIds;
+    }
+
+    public void setCollectorItemIds(List<ObjectId> collectorItemIds) {
+        this.collectorItemIds = collectorItemIds;
+    }
+
+    public Date getTimestamp() {
+        return timestamp;
+    }
+
+    public void setTimestamp(Date timestamp) {
+        this.timestamp = timestamp;
+    }
+
+    public long getHttpCalls() {
+        return httpCalls;
+    }
+
+    public void setHttpCalls(long httpCalls) {
+        this.httpCalls = httpCalls;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    public void setBytes(long bytes) {
+        this.bytes = bytes;
+    }
+
+    public long getWallMillis() {
+        return wallMillis;
+    }
+
+    public void setWallMillis(long wallMillis) {
+        this.wallMillis = wallMillis;
+    }
+
+    public long getMongoOperations() {
+        return mongoOperations;
+    }
+
+    public void setMongoOperations(long mongoOperations) {
+        this.mongoOperations = mongoOperations;
+    }
+
+    public long getCommits() {
+        return commits;
+    }
+
+    public void setCommits(long commits) {
+        this.commits = commits;
+    }
+
+    public long getPulls() {
+        return pulls;
+    }
+
+    public void setPulls(long pulls) {
+        this.pulls = pulls;
+    }
+
+    @Override
+    public String toString() {
+        return repositoryKey + ": " + wallMillis + " ms, " + httpCalls + " calls, " + bytes + " bytes, "
+                + mongoOperations + " mongo operations, " + commits + " commits, " + pulls + " pulls";
+    }
+}
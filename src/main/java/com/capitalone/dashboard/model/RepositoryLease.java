@@ -0,0 +1,53 @@
+package com.capitalone.dashboard.model;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+/**
+ * Time-limited claim of one repository by one collector instance in cluster mode. The lease is
+ * keyed by the canonical repository key, so that every item of the repository is collected by the
+ * same instance, and remembers when the repository was last collected by any instance.
+ */
+@Document(collection = "bitbucket_repository_leases")
+public class RepositoryLease {
+    @Id
+    private String repositoryKey;
+
+    private String owner;
+
+    private long expiresAt;
+
+    private Long collectedAt;
+
+    public String getRepositoryKey() {
+        return repositoryKey;
+    }
+
+    public void setRepositoryKey(String repositoryKey) {
+        this.repositoryKey = repositoryKey;
+    }
+
+    public String getOwner() {
+        return owner;
+    }
+
+    public void setOwner(String owner) {
+        this.owner = owner;
+    }
+
+    public long getExpiresAt() {
+        return expiresAt;
+    }
+
+    public void setExpiresAt(long expiresAt) {
+        this.expiresAt = expiresAt;
+    }
+
+    public Long getCollectedAt() {
+        return collectedAt;
+    }
+
+    public void setCollectedAt(Long collectedAt) {
+        this.collectedAt = collectedAt;
+    }
+}
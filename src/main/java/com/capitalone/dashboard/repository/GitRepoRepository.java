@@ -6,7 +6,7 @@ import org.springframework.data.mongodb.repository.Query;
 
 import java.util.List;
 
-public interface GitRepoRepository extends BaseCollectorItemRepository<GitRepo> {
+public interface GitRepoRepository extends BaseCollectorItemRepository<GitRepo>, GitRepoRepositoryCustom {
 
     @Query(value="{ 'collectorId' : ?0, options.url : ?1, options.branch : ?2}")
     GitRepo findGitRepo(ObjectId collectorId, String url, String branch);
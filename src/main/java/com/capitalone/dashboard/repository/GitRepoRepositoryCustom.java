@@ -0,0 +1,62 @@
+package com.capitalone.dashboard.repository;
+
+import com.capitalone.dashboard.model.GitRepo;
+import org.bson.types.ObjectId;
+import org.springframework.data.util.CloseableIterator;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Queries on Bitbucket collector items that are answered inside Mongo rather than by loading
+ * documents into the collector.
+ */
+public interface GitRepoRepositoryCustom {
+
+    /**
+     * Number of dashboard components referencing each SCM collector item of the given collector.
+     * Items that no component references are left out.
+     *
+     * @param collectorId Bitbucket collector id
+     * @return reference count by collector item id
+     */
+    Map<ObjectId, Integer> countGitRepoReferences(ObjectId collectorId);
+
+    /**
+     * Enables the collector items whose id is in {@code enabledIds} and disables all other items of
+     * the collector. Only the {@code enabled} flag is written.
+     *
+     * @param collectorId Bitbucket collector id
+     * @param enabledIds ids of the items to keep enabled
+     */
+    void updateEnabledGitRepos(ObjectId collectorId, Collection<ObjectId> enabledIds);
+
+    /**
+     * Iterates the enabled collector items of the given collector with a Mongo cursor, reading
+     * them in batches and only with the fields needed for collection. Items returned by this method
+     * must be written back with {@link #saveLastUpdate(GitRepo)}, never with a full save.
+     *
+     * @param collectorId Bitbucket collector id
+     * @return cursor over enabled items; must be closed by the caller
+     */
+    CloseableIterator<GitRepo> streamEnabledGitRepos(ObjectId collectorId);
+
+    /**
+     * Reads the enabled collector items with the given ids, with the same fields as
+     * {@link #streamEnabledGitRepos(ObjectId)}. Items disabled or removed since their ids were read
+     * are left out.
+     *
+     * @param ids collector item ids
+     * @return enabled items in the order of {@code ids}
+     */
+    List<GitRepo> findEnabledGitReposById(List<ObjectId> ids);
+
+    /**
+     * Writes the collection progress of an item (last update time, commit, poll interval and
+     * failure status) without touching any other field.
+     *
+     * @param repo collected item
+     */
+    void saveLastUpdate(GitRepo repo);
+}
@@ -0,0 +1,149 @@
+package com.capitalone.dashboard.repository;
+
+import com.capitalone.dashboard.model.Component;
+import com.capitalone.dashboard.model.GitRepo;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.convert.MongoConverter;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.data.util.CloseableIterator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+
+public class GitRepoRepositoryImpl implements GitRepoRepositoryCustom {
+    private static final String SCM_ITEMS = "collectorItems.SCM";
+    private static final int BATCH_SIZE = 500;
+    private static final String[] COLLECTION_FIELDS = {"collectorId", "enabled", "lastUpdated", "options"};
+
+    private final MongoOperations operations;
+
+    @Autowired
+    public GitRepoRepositoryImpl(MongoOperations operations) {
+        this.operations = operations;
+    }
+
+    @Override
+    public Map<ObjectId, Integer> countGitRepoReferences(ObjectId collectorId) {
+        BasicDBObject matchCollector = new BasicDBObject("$match",
+                new BasicDBObject(SCM_ITEMS + ".collectorId", collectorId));
+        List<DBObject> pipeline = Arrays.<DBObject>asList(
+                matchCollector,
+                new BasicDBObject("$unwind", "$" + SCM_ITEMS),
+                matchCollector,
+                new BasicDBObject("$group", new BasicDBObject("_id", "$" + SCM_ITEMS + "._id")
+                        .append("references", new BasicDBObject("$sum", 1))));
+        Map<ObjectId, Integer> references = new HashMap<>();
+        for (DBObject result : operations.getCollection(operations.getCollectionName(Component.class))
+                .aggregate(pipeline).results()) {
+            Object id = result.get("_id");
+            if (id instanceof ObjectId) {
+                references.put((ObjectId) id, ((Number) result.get("references")).intValue());
+            }
+        }
+        return references;
+    }
+
+    @Override
+    public void updateEnabledGitRepos(ObjectId collectorId, Collection<ObjectId> enabledIds) {
+        operations.updateMulti(
+                Query.query(where("collectorId").is(collectorId).and("_id").in(enabledIds).and("enabled").is(false)),
+                Update.update("enabled", true), GitRepo.class);
+        operations.updateMulti(
+                Query.query(where("collectorId").is(collectorId).and("_id").nin(enabledIds).and("enabled").is(true)),
+                Update.update("enabled", false), GitRepo.class);
+    }
+
+    @Override
+    public CloseableIterator<GitRepo> streamEnabledGitRepos(ObjectId collectorId) {
+        DBObject query = new BasicDBObject("collectorId", collectorId).append("enabled", true);
+        DBCursor cursor = operations.getCollection(operations.getCollectionName(GitRepo.class))
+                .find(query, collectionFields())
+                .batchSize(BATCH_SIZE);
+        return new GitRepoCursor(cursor, operations.getConverter());
+    }
+
+    @Override
+    public List<GitRepo> findEnabledGitReposById(List<ObjectId> ids) {
+        DBObject query = new BasicDBObject("_id", new BasicDBObject("$in", ids)).append("enabled", true);
+        Map<ObjectId, GitRepo> found = new HashMap<>();
+        try (GitRepoCursor repos = new GitRepoCursor(operations.getCollection(
+                operations.getCollectionName(GitRepo.class)).find(query, collectionFields()), operations.getConverter())) {
+            while (repos.hasNext()) {
+                GitRepo repo = repos.next();
+                found.put(repo.getId(), repo);
+            }
+        }
+        List<GitRepo> repos = new ArrayList<>(found.size());
+        for (ObjectId id : ids) {
+            if (found.containsKey(id)) {
+                repos.add(found.get(id));
+            }
+        }
+        return repos;
+    }
+
+    private static DBObject collectionFields() {
+        DBObject fields = new BasicDBObject();
+        for (String field : COLLECTION_FIELDS) {
+            fields.put(field, 1);
+        }
+        return fields;
+    }
+
+    @Override
+    public void saveLastUpdate(GitRepo repo) {
+        Update update = Update.update("lastUpdated", repo.getLastUpdated())
+                .set("options." + GitRepo.LAST_UPDATE_TIME, repo.getLastUpdateTime())
+                .set("options." + GitRepo.LAST_UPDATE_COMMIT, repo.getLastUpdateCommit())
+                .set("options." + GitRepo.POLL_INTERVAL, repo.getPollInterval())
+                .set("options." + GitRepo.FAILURE_COUNT, repo.getFailureCount())
+                .set("options." + GitRepo.LAST_FAILURE, repo.getLastFailure())
+                .set("options." + GitRepo.QUARANTINED_UNTIL, repo.getQuarantinedUntil());
+        operations.updateFirst(Query.query(where("_id").is(repo.getId())), update, GitRepo.class);
+    }
+
+    /**
+     * Converts one document at a time so that only the current cursor batch is held in memory.
+     */
+    private static class GitRepoCursor implements CloseableIterator<GitRepo> {
+        private final DBCursor cursor;
+        private final MongoConverter converter;
+
+        GitRepoCursor(DBCursor cursor, MongoConverter converter) {
+            this.cursor = cursor;
+            this.converter = converter;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return cursor.hasNext();
+        }
+
+        @Override
+        public GitRepo next() {
+            return converter.read(GitRepo.class, cursor.next());
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException("remove");
+        }
+
+        @Override
+        public void close() {
+            cursor.close();
+        }
+    }
+}
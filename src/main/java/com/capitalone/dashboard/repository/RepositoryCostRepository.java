@@ -0,0 +1,8 @@
+package com.capitalone.dashboard.repository;
+
+import com.capitalone.dashboard.model.RepositoryCost;
+import org.bson.types.ObjectId;
+import org.springframework.data.repository.CrudRepository;
+
+public interface RepositoryCostRepository extends CrudRepository<RepositoryCost, ObjectId>, RepositoryCostRepositoryCustom {
+}
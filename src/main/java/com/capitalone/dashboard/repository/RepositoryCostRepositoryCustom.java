@@ -0,0 +1,18 @@
+package com.capitalone.dashboard.repository;
+
+import com.capitalone.dashboard.model.RepositoryCost;
+
+import java.util.List;
+
+public interface RepositoryCostRepositoryCustom {
+
+    /**
+     * Sums the costs recorded for each repository since the given time and returns the most
+     * expensive repositories by wall time.
+     *
+     * @param since time in millis from which costs are summed
+     * @param limit number of repositories returned
+     * @return summed costs, most expensive first; the id and timestamp are not set
+     */
+    List<RepositoryCost> findMostExpensive(long since, int limit);
+}
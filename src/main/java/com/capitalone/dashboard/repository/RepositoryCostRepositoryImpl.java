@@ -0,0 +1,55 @@
+package com.capitalone.dashboard.repository;
+
+import com.capitalone.dashboard.model.RepositoryCost;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.MongoOperations;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+public class RepositoryCostRepositoryImpl implements RepositoryCostRepositoryCustom {
+    private static final String[] SUMMED_FIELDS = {"httpCalls", "bytes", "wallMillis", "mongoOperations", "commits", "pulls"};
+
+    private final MongoOperations operations;
+
+    @Autowired
+    public RepositoryCostRepositoryImpl(MongoOperations operations) {
+        this.operations = operations;
+    }
+
+    @Override
+    public List<RepositoryCost> findMostExpensive(long since, int limit) {
+        BasicDBObject group = new BasicDBObject("_id", "$repositoryKey");
+        for (String field : SUMMED_FIELDS) {
+            group.append(field, new BasicDBObject("$sum", "$" + field));
+        }
+        List<DBObject> pipeline = Arrays.<DBObject>asList(
+                new BasicDBObject("$match", new BasicDBObject("timestamp", new BasicDBObject("$gte", new Date(since)))),
+                new BasicDBObject("$group", group),
+                new BasicDBObject("$sort", new BasicDBObject("wallMillis", -1)),
+                new BasicDBObject("$limit", limit));
+        List<RepositoryCost> costs = new ArrayList<>();
+        for (DBObject result : operations.getCollection(operations.getCollectionName(RepositoryCost.class))
+                .aggregate(pipeline).results()) {
+            RepositoryCost cost = new RepositoryCost();
+            cost.setRepositoryKey((String) result.get("_id"));
+            cost.setHttpCalls(sum(result, "httpCalls"));
+            cost.setBytes(sum(result, "bytes"));
+            cost.setWallMillis(sum(result, "wallMillis"));
+            cost.setMongoOperations(sum(result, "mongoOperations"));
+            cost.setCommits(sum(result, "commits"));
+            cost.setPulls(sum(result, "pulls"));
+            costs.add(cost);
+        }
+        return costs;
+    }
+
+    private static long sum(DBObject result, String field) {
+        Object value = result.get(field);
+        return value instanceof Number ? ((Number) value).longValue() : 0;
+    }
+}
@@ -0,0 +1,7 @@
+package com.capitalone.dashboard.repository;
+
+import com.capitalone.dashboard.model.RepositoryLease;
+import org.springframework.data.repository.CrudRepository;
+
+public interface RepositoryLeaseRepository extends CrudRepository<RepositoryLease, String>, RepositoryLeaseRepositoryCustom {
+}
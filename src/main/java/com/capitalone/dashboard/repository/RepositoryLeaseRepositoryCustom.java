@@ -0,0 +1,35 @@
+package com.capitalone.dashboard.repository;
+
+/**
+ * Atomic lease operations; each one is a single conditional write so that concurrent collector
+ * instances cannot both hold the same repository.
+ */
+public interface RepositoryLeaseRepositoryCustom {
+
+    /**
+     * Claims the repository if its lease is free or expired, or already held by the owner, and no
+     * instance collected it since {@code collectedBefore}.
+     *
+     * @param repositoryKey canonical repository key
+     * @param owner id of the claiming instance
+     * @param expiresAt time in millis until which the lease is held
+     * @param collectedBefore only claim repositories last collected before this time in millis
+     * @return true if the owner now holds the lease
+     */
+    boolean claim(String repositoryKey, String owner, long expiresAt, long collectedBefore);
+
+    /**
+     * Extends a lease held by the owner.
+     *
+     * @return false if the lease expired and was taken over by another instance
+     */
+    boolean renew(String repositoryKey, String owner, long expiresAt);
+
+    /**
+     * Gives up a lease held by the owner, recording the collection time if the repository was
+     * collected.
+     *
+     * @param collectedAt time in millis the repository was collected, null if it was not
+     */
+    void release(String repositoryKey, String owner, Long collectedAt);
+}
@@ -0,0 +1,51 @@
+package com.capitalone.dashboard.repository;
+
+import com.capitalone.dashboard.model.RepositoryLease;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+
+public class RepositoryLeaseRepositoryImpl implements RepositoryLeaseRepositoryCustom {
+    private final MongoOperations operations;
+
+    @Autowired
+    public RepositoryLeaseRepositoryImpl(MongoOperations operations) {
+        this.operations = operations;
+    }
+
+    @Override
+    public boolean claim(String repositoryKey, String owner, long expiresAt, long collectedBefore) {
+        Query claimable = Query.query(where("_id").is(repositoryKey).andOperator(
+                new Criteria().orOperator(where("expiresAt").lt(System.currentTimeMillis()), where("owner").is(owner)),
+                new Criteria().orOperator(where("collectedAt").lt(collectedBefore), where("collectedAt").exists(false))));
+        try {
+            // a lease held by another instance does not match, so the upsert fails on the _id
+            operations.upsert(claimable, Update.update("owner", owner).set("expiresAt", expiresAt),
+                    RepositoryLease.class);
+            return true;
+        } catch (DuplicateKeyException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public boolean renew(String repositoryKey, String owner, long expiresAt) {
+        return operations.updateFirst(Query.query(where("_id").is(repositoryKey).and("owner").is(owner)),
+                Update.update("expiresAt", expiresAt), RepositoryLease.class).getN() == 1;
+    }
+
+    @Override
+    public void release(String repositoryKey, String owner, Long collectedAt) {
+        Update update = Update.update("expiresAt", 0L);
+        if (collectedAt != null) {
+            update.set("collectedAt", collectedAt);
+        }
+        operations.updateFirst(Query.query(where("_id").is(repositoryKey).and("owner").is(owner)),
+                update, RepositoryLease.class);
+    }
+}
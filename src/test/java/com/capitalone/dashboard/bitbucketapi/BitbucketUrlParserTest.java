@@ -24,6 +24,19 @@ public class BitbucketUrlParserTest {
         assertNotNull(bitbucketUrlParts.getScheme());
         assertEquals(bitbucketUrlParts.getScheme(),"https");
     }
+
+    @Test
+    public void canonicalKeyIgnoresUrlSpelling() {
+        String expected = "mycompany.com/xyz/rsa";
+
+        assertEquals(expected, BitbucketUrlParser.parseBitbucketUrl("https://mycompany.com/XYZ/rsa").getCanonicalKey());
+        assertEquals(expected, BitbucketUrlParser.parseBitbucketUrl("https://user@mycompany.com/scm/xyz/rsa.git").getCanonicalKey());
+        assertEquals(expected, BitbucketUrlParser.parseBitbucketUrl("ssh://git@mycompany.com/xyz/rsa.git").getCanonicalKey());
+        assertEquals(expected, BitbucketUrlParser.parseBitbucketUrl("https://mycompany.com:443/xyz/rsa").getCanonicalKey());
+        assertEquals(expected, BitbucketUrlParser.parseBitbucketUrl("ssh://git@mycompany.com:7999/xyz/rsa.git").getCanonicalKey());
+        assertEquals("mycompany.com:8443/xyz/rsa",
+                BitbucketUrlParser.parseBitbucketUrl("https://mycompany.com:8443/scm/xyz/rsa.git").getCanonicalKey());
+    }
 }
 
 /*
@@ -0,0 +1,242 @@
+package com.capitalone.dashboard.collector;
+
+import com.capitalone.dashboard.model.Collector;
+import com.capitalone.dashboard.model.Commit;
+import com.capitalone.dashboard.model.GitRepo;
+import com.capitalone.dashboard.model.RepositoryLease;
+import com.capitalone.dashboard.repository.CollectorRepository;
+import com.capitalone.dashboard.repository.CommitRepository;
+import com.capitalone.dashboard.repository.GitRepoRepository;
+import com.capitalone.dashboard.repository.RepositoryLeaseRepository;
+import com.capitalone.dashboard.repository.RepositoryLeaseRepositoryImpl;
+import com.github.fakemongo.Fongo;
+import org.bson.types.ObjectId;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Matchers;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.data.mongodb.repository.support.MongoRepositoryFactory;
+import org.springframework.data.util.CloseableIterator;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Runs several collector instances in one JVM against one embedded Mongo holding the leases.
+ */
+public class ClusterCollectionTest {
+    private static final int INSTANCES = 3;
+    private static final int REPOSITORIES = 30;
+
+    private final Collector collector = new Collector();
+    private final List<ObjectId> itemIds = new ArrayList<>();
+    private final Map<String, AtomicInteger> fetches = new ConcurrentHashMap<>();
+    private final Map<String, AtomicInteger> fetchesByInstance = new ConcurrentHashMap<>();
+    private MongoTemplate template;
+    private RepositoryLeaseRepository leaseRepository;
+
+    @Before
+    public void init() {
+        template = new MongoTemplate(new Fongo("cluster").getMongo(), "dashboarddb");
+        leaseRepository = new MongoRepositoryFactory(template)
+                .getRepository(RepositoryLeaseRepository.class, new RepositoryLeaseRepositoryImpl(template));
+        collector.setId(new ObjectId());
+        for (int i = 0; i < REPOSITORIES; i++) {
+            itemIds.add(new ObjectId());
+        }
+    }
+
+    @Test
+    public void instancesCollectEachRepositoryOnce() throws InterruptedException {
+        final CountDownLatch ready = new CountDownLatch(INSTANCES);
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < INSTANCES; i++) {
+            final GitCollectorTask task = instance("instance-" + i);
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    ready.countDown();
+                    try {
+                        ready.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    task.collect(collector);
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(REPOSITORIES, fetches.size());
+        for (AtomicInteger count : fetches.values()) {
+            assertEquals(1, count.get());
+        }
+        assertEquals(INSTANCES, fetchesByInstance.size());
+        for (AtomicInteger count : fetchesByInstance.values()) {
+            assertTrue(count.get() < REPOSITORIES);
+        }
+    }
+
+    @Test
+    public void nextCycleCollectsEveryRepositoryAgain() {
+        GitCollectorTask first = instance("instance-0");
+        GitCollectorTask second = instance("instance-1");
+
+        first.collect(collector);
+        second.collect(collector);
+        // the second instance finds every repository already collected in its cycle
+        assertEquals(REPOSITORIES, fetchesByInstance.get("instance-0").get());
+        assertFalse(fetchesByInstance.containsKey("instance-1"));
+
+        // a cron period later the repositories are due again
+        template.updateMulti(new Query(), Update.update("collectedAt", System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(5)),
+                RepositoryLease.class);
+        second.collect(collector);
+        assertEquals(REPOSITORIES, fetchesByInstance.get("instance-1").get());
+    }
+
+    @Test
+    public void claimedLeaseIsRenewedUntilALeaseIsLost() throws InterruptedException {
+        GitSettings settings = new GitSettings();
+        settings.setLeaseSeconds(1);
+        RepositoryLeases first = new RepositoryLeases(leaseRepository, settings, "instance-0");
+        RepositoryLeases second = new RepositoryLeases(leaseRepository, settings, "instance-1");
+        String key = "company.com/proj/repo0";
+        long cycleStart = System.currentTimeMillis();
+        assertTrue(first.claim(key, cycleStart));
+
+        // a collection running longer than the lease keeps it
+        Thread.sleep(1500);
+        assertFalse(second.claim(key, cycleStart));
+        assertTrue(first.isHeld(key));
+
+        // once a renewal fails the collection is told to stop
+        template.updateMulti(new Query(), Update.update("owner", "instance-1"), RepositoryLease.class);
+        Thread.sleep(700);
+        assertFalse(first.isHeld(key));
+
+        first.release(key);
+        assertTrue(first.isHeld(key));
+        first.close();
+        second.close();
+    }
+
+    private GitCollectorTask instance(final String instanceId) {
+        GitSettings settings = new GitSettings();
+        settings.setHost(Collections.singletonList("company.com"));
+        settings.setUsername(Collections.singletonList("user"));
+        settings.setPassword(Collections.singletonList("cGFzc3dvcmQ="));
+        settings.setCron("0 */5 * * * *");
+        settings.setCluster(true);
+
+        // every instance reads its own copy of the collector items
+        final List<GitRepo> repos = new ArrayList<>();
+        for (int i = 0; i < REPOSITORIES; i++) {
+            GitRepo repo = new GitRepo();
+            repo.setId(itemIds.get(i));
+            repo.setCollectorId(collector.getId());
+            repo.setRepoUrl("https://company.com/scm/proj/repo" + i + ".git");
+            repo.setBranch("master");
+            repos.add(repo);
+        }
+        GitRepoRepository gitRepoRepository = mock(GitRepoRepository.class);
+        given(gitRepoRepository.streamEnabledGitRepos(collector.getId())).willAnswer(new Answer<CloseableIterator<GitRepo>>() {
+            @Override
+            public CloseableIterator<GitRepo> answer(InvocationOnMock invocation) {
+                return stream(repos);
+            }
+        });
+        given(gitRepoRepository.findEnabledGitReposById(Matchers.<List<ObjectId>>any())).willAnswer(new Answer<List<GitRepo>>() {
+            @Override
+            public List<GitRepo> answer(InvocationOnMock invocation) {
+                return find(repos, (List<?>) invocation.getArguments()[0]);
+            }
+        });
+
+        GitClient gitClient = new GitClient() {
+            @Override
+            public List<Commit> getCommits(GitRepo repo, boolean firstRun, String userName, String password) {
+                count(fetches, repo.getRepoUrl());
+                count(fetchesByInstance, instanceId);
+                try {
+                    Thread.sleep(10);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return Collections.emptyList();
+            }
+        };
+
+        GitCollectorTask task = new GitCollectorTask(mock(TaskScheduler.class), mock(CollectorRepository.class),
+                gitRepoRepository, mock(CommitRepository.class), gitClient, settings);
+        ReflectionTestUtils.setField(task, "pullRequestCollector", mock(PullRequestCollector.class));
+        ReflectionTestUtils.setField(task, "repositoryLeases", new RepositoryLeases(leaseRepository, settings, instanceId));
+        return task;
+    }
+
+    private static void count(Map<String, AtomicInteger> counts, String key) {
+        AtomicInteger count = counts.get(key);
+        if (count == null) {
+            counts.putIfAbsent(key, new AtomicInteger());
+            count = counts.get(key);
+        }
+        count.incrementAndGet();
+    }
+
+    private static List<GitRepo> find(List<GitRepo> repos, List<?> ids) {
+        List<GitRepo> found = new ArrayList<>();
+        for (GitRepo repo : repos) {
+            if (ids.contains(repo.getId())) {
+                found.add(repo);
+            }
+        }
+        return found;
+    }
+
+    private static CloseableIterator<GitRepo> stream(List<GitRepo> repos) {
+        final Iterator<GitRepo> iterator = repos.iterator();
+        return new CloseableIterator<GitRepo>() {
+            @Override
+            public void close() {
+            }
+
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public GitRepo next() {
+                return iterator.next();
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+}
@@ -0,0 +1,72 @@
+package com.capitalone.dashboard.collector;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class CollectionProgressTest {
+    private final CollectionProgress progress = new CollectionProgress();
+
+    @Test
+    public void reportsRepositoriesInFlightWithTheirPages() {
+        long now = System.currentTimeMillis();
+        Map<String, Long> lastUpdates = new HashMap<>();
+        lastUpdates.put("company.com/proj/fresh", now - TimeUnit.MINUTES.toMillis(1));
+        lastUpdates.put("company.com/proj/stale", now - TimeUnit.HOURS.toMillis(3));
+        lastUpdates.put("company.com/proj/new", null);
+        progress.startCycle("cron", lastUpdates);
+        progress.setQueueDepth(2);
+
+        progress.begin("company.com/proj/new");
+        progress.recordPage();
+        progress.recordPage();
+
+        JSONObject report = progress.toJson();
+        JSONObject cycle = (JSONObject) report.get("cycle");
+        assertEquals("cron", cycle.get("mode"));
+        assertEquals(3, cycle.get("repositories"));
+        assertEquals(2, cycle.get("queueDepth"));
+        assertNull(cycle.get("finishedAt"));
+        JSONArray inFlight = (JSONArray) report.get("inFlight");
+        assertEquals(1, inFlight.size());
+        assertEquals("company.com/proj/new", ((JSONObject) inFlight.get(0)).get("repository"));
+        assertEquals(2, ((JSONObject) inFlight.get(0)).get("pages"));
+        Map<?, ?> freshness = (Map<?, ?>) report.get("freshness");
+        assertEquals(1, freshness.get("le5m"));
+        assertEquals(1, freshness.get("le6h"));
+        assertEquals(1, freshness.get("never"));
+        assertEquals(0, freshness.get("older"));
+    }
+
+    @Test
+    public void collectedRepositoryBecomesFresh() {
+        progress.startCycle("cron", Collections.singletonMap("company.com/proj/new", (Long) null));
+        progress.begin("company.com/proj/new");
+        progress.end("company.com/proj/new", true);
+        progress.recordPage();
+        progress.finishCycle();
+
+        JSONObject report = progress.toJson();
+        assertTrue(((JSONArray) report.get("inFlight")).isEmpty());
+        assertEquals(1, ((Map<?, ?>) report.get("freshness")).get("le5m"));
+        assertEquals(0, ((JSONObject) report.get("cycle")).get("queueDepth"));
+    }
+
+    @Test
+    public void failedRepositoryKeepsItsLag() {
+        progress.startCycle("continuous", Collections.singletonMap("company.com/proj/gone", (Long) null));
+        progress.begin("company.com/proj/gone");
+        progress.end("company.com/proj/gone", false);
+
+        assertEquals(1, ((Map<?, ?>) progress.toJson().get("freshness")).get("never"));
+    }
+}
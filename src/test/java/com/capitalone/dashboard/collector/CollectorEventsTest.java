@@ -0,0 +1,77 @@
+package com.capitalone.dashboard.collector;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class CollectorEventsTest {
+
+    @Test
+    public void recordsEventsTaggedWithRepository() throws IOException {
+        List<RecordedEvent> events;
+        File file = File.createTempFile("collector", ".jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable("bitbucket.HttpCall").withoutThreshold();
+            recording.enable("bitbucket.Page").withoutThreshold();
+            recording.enable("bitbucket.Persistence").withoutThreshold();
+            recording.start();
+
+            CollectorEvents.setRepository("company.com/proj/repo");
+            Object call = CollectorEvents.beginHttpCall();
+            CollectorEvents.endHttpCall(call, "https://company.com/rest/api/1.0/projects/proj/repos/repo/commits",
+                    new ResponseEntity<>("{\"values\":[]}", HttpStatus.OK));
+            Object page = CollectorEvents.beginPage();
+            CollectorEvents.endPage(page, "commits", 1, 25);
+            Object save = CollectorEvents.beginPersistence();
+            CollectorEvents.endPersistence(save, "commits", 25);
+            CollectorEvents.setRepository(null);
+
+            recording.stop();
+            recording.dump(file.toPath());
+            events = new ArrayList<>(RecordingFile.readAllEvents(file.toPath()));
+        } finally {
+            file.delete();
+        }
+
+        RecordedEvent call = event(events, "bitbucket.HttpCall");
+        assertEquals("company.com/proj/repo", call.getString("repository"));
+        assertEquals("commits", call.getString("kind"));
+        assertEquals(200, call.getInt("status"));
+        assertEquals(13, call.getLong("bytes"));
+        RecordedEvent page = event(events, "bitbucket.Page");
+        assertEquals(1, page.getInt("page"));
+        assertEquals(25, page.getInt("items"));
+        RecordedEvent save = event(events, "bitbucket.Persistence");
+        assertEquals("commits", save.getString("operation"));
+        assertEquals(25, save.getInt("items"));
+    }
+
+    @Test
+    public void nothingIsRecordedWhenEventIsDisabled() {
+        assertNull(CollectorEvents.beginHttpCall());
+        CollectorEvents.endHttpCall(null, "https://company.com", null);
+    }
+
+    private static RecordedEvent event(List<RecordedEvent> events, String name) {
+        RecordedEvent found = null;
+        for (RecordedEvent event : events) {
+            if (event.getEventType().getName().equals(name)) {
+                assertNull("more than one " + name, found);
+                found = event;
+            }
+        }
+        assertEquals(name, found == null ? null : found.getEventType().getName());
+        return found;
+    }
+}
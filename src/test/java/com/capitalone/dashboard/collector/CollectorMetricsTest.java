@@ -0,0 +1,68 @@
+package com.capitalone.dashboard.collector;
+
+import org.junit.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.client.HttpClientErrorException;
+
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CollectorMetricsTest {
+    private final CollectorMetrics metrics = new CollectorMetrics();
+
+    @Test
+    public void endpointKind() {
+        String repo = "https://company.com/rest/api/1.0/projects/proj/repos/repo";
+        assertEquals("commits", CollectorMetrics.endpointKind(repo + "/commits?until=refs/heads/master"));
+        assertEquals("pull-requests", CollectorMetrics.endpointKind(repo + "/pull-requests?state=OPEN"));
+        assertEquals("pull-request-commits", CollectorMetrics.endpointKind(repo + "/pull-requests/7/commits"));
+        assertEquals("activities", CollectorMetrics.endpointKind(repo + "/pull-requests/7/activities?start=25"));
+        assertEquals("comments", CollectorMetrics.endpointKind(
+                "https://api.bitbucket.org/2.0/repositories/team/repo/pullrequests/7/comments"));
+        assertEquals("other", CollectorMetrics.endpointKind(repo));
+    }
+
+    @Test
+    public void recordsHttpCallsByKindAndStatus() {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentLength(1234);
+        String url = "https://company.com/rest/api/1.0/projects/proj/repos/repo/commits";
+
+        metrics.recordHttpCall(url, 1000, new ResponseEntity<>("{}", headers, HttpStatus.OK), null);
+        metrics.recordHttpCall(url, 1000, new ResponseEntity<>("{}", HttpStatus.OK), null);
+        metrics.recordHttpCall(url, 1000, null, new HttpClientErrorException(HttpStatus.NOT_FOUND));
+
+        assertEquals(2, metrics.getTimerCount("bitbucket_http_requests", "kind", "commits", "status", "200"));
+        assertEquals(1, metrics.getTimerCount("bitbucket_http_requests", "kind", "commits", "status", "404"));
+        assertEquals(1236, metrics.getCount("bitbucket_http_received_bytes", "kind", "commits"));
+    }
+
+    @Test
+    public void scrapeRendersPrometheusText() {
+        metrics.setCommonTags(Collections.singletonMap("host", "collector-1"));
+        metrics.count("bitbucket_commits_inserted", 3);
+        metrics.record("bitbucket_mongo_operations", 2000000000L, "repository", "commitRepository", "method", "save");
+        metrics.record("bitbucket_mongo_operations", 1000000000L, "repository", "commitRepository", "method", "save");
+
+        String scrape = metrics.getRegistry().scrape();
+
+        assertTrue(scrape, scrape.contains("# TYPE bitbucket_commits_inserted_total counter\n"
+                + "bitbucket_commits_inserted_total{host=\"collector-1\",} 3.0\n"));
+        String tags = "{host=\"collector-1\",method=\"save\",repository=\"commitRepository\",}";
+        assertTrue(scrape, scrape.contains("# TYPE bitbucket_mongo_operations_seconds summary\n"));
+        assertTrue(scrape, scrape.contains("bitbucket_mongo_operations_seconds_count" + tags + " 2.0\n"));
+        assertTrue(scrape, scrape.contains("bitbucket_mongo_operations_seconds_sum" + tags + " 3.0\n"));
+        // the max is a gauge of its own, it is not part of a summary
+        assertTrue(scrape, scrape.contains("# TYPE bitbucket_mongo_operations_seconds_max gauge\n"
+                + "bitbucket_mongo_operations_seconds_max" + tags + " 2.0\n"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnpairedTags() {
+        metrics.count("bitbucket_pages", 1, "kind");
+    }
+}
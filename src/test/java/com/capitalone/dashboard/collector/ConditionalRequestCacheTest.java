@@ -0,0 +1,122 @@
+package com.capitalone.dashboard.collector;
+
+import org.apache.commons.lang3.StringUtils;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.test.web.client.MockRestServiceServer;
+import org.springframework.web.client.RestTemplate;
+
+import java.net.URI;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.header;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.method;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.requestTo;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withStatus;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withSuccess;
+
+public class ConditionalRequestCacheTest {
+    private static final URI PULL_REQUESTS = URI.create(
+            "https://company.com/rest/api/1.0/projects/P/repos/r/pull-requests?state=OPEN");
+    private static final String LISTING = "{\"values\":[],\"isLastPage\":true}";
+
+    private GitSettings settings;
+    private RestTemplate restTemplate;
+    private MockRestServiceServer bitbucket;
+
+    @Before
+    public void init() {
+        settings = new GitSettings();
+        settings.setConditionalRequests(true);
+        restTemplate = new RestTemplate();
+        bitbucket = MockRestServiceServer.createServer(restTemplate);
+    }
+
+    @Test
+    public void revalidatesWithTheEtagAndHandsOutTheKeptPage() {
+        ConditionalRequestCache cache = new ConditionalRequestCache(settings);
+        SCMHttpRestClient client = client(cache);
+        double before = CollectorMetrics.global().getCount(
+                "bitbucket_conditional_requests", "kind", "pull-requests", "result", "not_modified");
+        HttpHeaders validators = new HttpHeaders();
+        validators.setETag("\"v1\"");
+        bitbucket.expect(requestTo(PULL_REQUESTS))
+                .andRespond(withSuccess(LISTING, MediaType.APPLICATION_JSON).headers(validators));
+        bitbucket.expect(requestTo(PULL_REQUESTS)).andExpect(header(HttpHeaders.IF_NONE_MATCH, "\"v1\""))
+                .andRespond(withStatus(HttpStatus.NOT_MODIFIED));
+
+        ResponseEntity<String> first = client.makeRestCall(PULL_REQUESTS, "jdoe", "pw");
+        ResponseEntity<String> second = client.makeRestCall(PULL_REQUESTS, "jdoe", "pw");
+
+        bitbucket.verify();
+        assertFalse(SCMHttpRestClient.isNotModified(first));
+        assertTrue(SCMHttpRestClient.isNotModified(second));
+        assertEquals(LISTING, second.getBody());
+        assertEquals(MediaType.APPLICATION_JSON, second.getHeaders().getContentType());
+        assertEquals(before + 1, CollectorMetrics.global().getCount(
+                "bitbucket_conditional_requests", "kind", "pull-requests", "result", "not_modified"), 0);
+        assertTrue(cache.getNotModifiedRate("pull-requests") > 0);
+    }
+
+    @Test
+    public void revalidatesWithLastModifiedPerUser() {
+        SCMHttpRestClient client = client(new ConditionalRequestCache(settings));
+        HttpHeaders validators = new HttpHeaders();
+        validators.set(HttpHeaders.LAST_MODIFIED, "Tue, 02 Oct 2018 10:00:00 GMT");
+        bitbucket.expect(requestTo(PULL_REQUESTS))
+                .andRespond(withSuccess(LISTING, MediaType.APPLICATION_JSON).headers(validators));
+        bitbucket.expect(requestTo(PULL_REQUESTS))
+                .andExpect(header(HttpHeaders.IF_MODIFIED_SINCE, "Tue, 02 Oct 2018 10:00:00 GMT"))
+                .andRespond(withSuccess("{\"values\":[1],\"isLastPage\":true}", MediaType.APPLICATION_JSON));
+        // another user is not revalidated against the page the first one read
+        bitbucket.expect(requestTo(PULL_REQUESTS)).andExpect(method(HttpMethod.GET))
+                .andRespond(withSuccess(LISTING, MediaType.APPLICATION_JSON));
+
+        client.makeRestCall(PULL_REQUESTS, "jdoe", "pw");
+        ResponseEntity<String> changed = client.makeRestCall(PULL_REQUESTS, "jdoe", "pw");
+        ResponseEntity<String> otherUser = client.makeRestCall(PULL_REQUESTS, "asmith", "pw");
+
+        bitbucket.verify();
+        assertEquals(HttpStatus.OK, changed.getStatusCode());
+        assertEquals("{\"values\":[1],\"isLastPage\":true}", changed.getBody());
+        assertEquals(HttpStatus.OK, otherUser.getStatusCode());
+    }
+
+    @Test
+    public void keepsNothingWhenDisabledOrTooLarge() {
+        settings.setConditionalRequests(false);
+        ConditionalRequestCache disabled = new ConditionalRequestCache(settings);
+        HttpHeaders validators = new HttpHeaders();
+        validators.setETag("\"v1\"");
+        disabled.update(PULL_REQUESTS, "jdoe", false, new ResponseEntity<>(LISTING, validators, HttpStatus.OK));
+        assertEquals(0, disabled.size());
+
+        settings.setConditionalRequests(true);
+        settings.setValidatorCacheMaxMegabytes(1);
+        ConditionalRequestCache cache = new ConditionalRequestCache(settings);
+        // a megabyte holds 512k chars, so only two of these pages fit
+        String page = StringUtils.repeat('x', 200 * 1024);
+        for (int i = 0; i < 3; i++) {
+            cache.update(URI.create(PULL_REQUESTS + "&start=" + i), "jdoe", false,
+                    new ResponseEntity<>(page, validators, HttpStatus.OK));
+        }
+        assertEquals(2, cache.size());
+        assertFalse(cache.addValidators(URI.create(PULL_REQUESTS + "&start=0"), "jdoe", new HttpHeaders()));
+        assertTrue(cache.addValidators(URI.create(PULL_REQUESTS + "&start=2"), "jdoe", new HttpHeaders()));
+    }
+
+    private SCMHttpRestClient client(ConditionalRequestCache cache) {
+        SCMHttpRestClient client = new SCMHttpRestClient();
+        ReflectionTestUtils.setField(client, "restTemplate", restTemplate);
+        ReflectionTestUtils.setField(client, "conditionalRequests", cache);
+        return client;
+    }
+}
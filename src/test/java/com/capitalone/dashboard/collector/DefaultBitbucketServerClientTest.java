@@ -155,6 +155,27 @@ public class DefaultBitbucketServerClientTest {
         assertEquals(commits.size(), 0);
     }
 
+    @Test
+    public void testCommitsNotModifiedSinceLastKnownCommit() throws Exception {
+        String keptPage = getJson("/bitbucket-server/response1a.json");
+        GitRepo repo = new GitRepo();
+        String repoUrl = "https://username@company.com/scm/myproject/myrepository.git";
+        repo.setRepoUrl(repoUrl);
+        repo.getOptions().put("url", repoUrl);
+        repo.setBranch("master");
+        repo.setLastUpdateCommit("30a9559513e471fb8f1deff10bd8823ad74a2fab");
+        URI uri = URI.create("https://company.com/rest/api/1.0/projects/myproject/repos/myrepository/commits"
+                + "?until=refs%2Fheads%2Fmaster&since=30a9559513e471fb8f1deff10bd8823ad74a2fab&limit=25");
+        given(bitbucketApiUrlBuilder.buildReposApiUrl(repoUrl))
+                .willReturn(new URI("https://company.com/rest/api/1.0/projects/myproject/repos/myrepository"));
+        when(scmHttpRestClient.makeRestCall(uri, "abcdefgh", "abcdefghijklmnopqrstuvwxyz1234567"))
+                .thenReturn(new ResponseEntity<>(keptPage, HttpStatus.NOT_MODIFIED));
+
+        List<Commit> commits = client.getCommits(repo, false, "abcdefgh", "abcdefghijklmnopqrstuvwxyz1234567");
+
+        assertEquals(0, commits.size());
+    }
+
     @Test
     public void testBuildUri() throws URISyntaxException {
 
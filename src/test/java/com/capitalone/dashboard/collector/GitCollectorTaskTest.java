@@ -0,0 +1,455 @@
+package com.capitalone.dashboard.collector;
+
+import com.capitalone.dashboard.model.Collector;
+import com.capitalone.dashboard.model.Commit;
+import com.capitalone.dashboard.model.GitRepo;
+import com.capitalone.dashboard.repository.BaseCollectorRepository;
+import com.capitalone.dashboard.repository.CommitRepository;
+import com.capitalone.dashboard.repository.GitRepoRepository;
+import org.bson.types.ObjectId;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.InOrder;
+import org.mockito.Matchers;
+import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.mockito.stubbing.Answer;
+import org.springframework.data.util.CloseableIterator;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.http.HttpStatus;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.ResourceAccessException;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.BDDMockito.willAnswer;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+@RunWith(MockitoJUnitRunner.class)
+public class GitCollectorTaskTest {
+
+    @Mock
+    private TaskScheduler taskScheduler;
+
+    @Mock
+    private BaseCollectorRepository<Collector> collectorRepository;
+
+    @Mock
+    private GitRepoRepository gitRepoRepository;
+
+    @Mock
+    private CommitRepository commitRepository;
+
+    @Mock
+    private GitClient gitClient;
+
+    @Mock
+    private PullRequestCollector pullRequestCollector;
+
+    @Mock
+    private CostLedger costLedger;
+
+    @Captor
+    private ArgumentCaptor<List<Commit>> savedCommits;
+
+    private GitSettings settings;
+
+    private GitCollectorTask task;
+
+    private final Collector collector = new Collector();
+
+    @Before
+    public void init() {
+        settings = new GitSettings();
+        settings.setHost(Collections.singletonList("company.com"));
+        settings.setUsername(Collections.singletonList("user"));
+        settings.setPassword(Collections.singletonList("cGFzc3dvcmQ="));
+        collector.setId(new ObjectId());
+        task = new GitCollectorTask(taskScheduler, collectorRepository, gitRepoRepository,
+                commitRepository, gitClient, settings);
+        ReflectionTestUtils.setField(task, "pullRequestCollector", pullRequestCollector);
+    }
+
+    @Test
+    public void collectFetchesDuplicateItemsOnce() {
+        GitRepo https = gitRepo("https://someone@company.com/scm/proj/repo.git", "master");
+        GitRepo ssh = gitRepo("ssh://git@company.com/PROJ/repo.git", "master");
+        GitRepo develop = gitRepo("https://company.com/proj/repo", "develop");
+        givenEnabledRepos(https, ssh, develop);
+        given(gitClient.getCommits(any(GitRepo.class), anyBoolean(), anyString(), anyString()))
+                .willAnswer(new Answer<List<Commit>>() {
+                    @Override
+                    public List<Commit> answer(InvocationOnMock invocation) {
+                        Commit commit = new Commit();
+                        commit.setScmRevisionNumber("abc");
+                        return Collections.singletonList(commit);
+                    }
+                });
+
+        task.collect(collector);
+
+        // one commit fetch per branch, one pull request listing for the repository
+        verify(gitClient, times(2)).getCommits(any(GitRepo.class), anyBoolean(), eq("user"), eq("password"));
+        verify(pullRequestCollector, times(1)).getPullRequests(
+                eq(Arrays.asList(https, ssh, develop)), eq("ALL"), eq("user"), eq("password"));
+
+        verify(commitRepository, times(3)).save(savedCommits.capture());
+        assertEquals(https.getId(), savedCommits.getAllValues().get(0).get(0).getCollectorItemId());
+        assertEquals(ssh.getId(), savedCommits.getAllValues().get(1).get(0).getCollectorItemId());
+        assertEquals(develop.getId(), savedCommits.getAllValues().get(2).get(0).getCollectorItemId());
+        assertEquals("abc", ssh.getLastUpdateCommit());
+        verify(gitRepoRepository, times(3)).saveLastUpdate(any(GitRepo.class));
+    }
+
+    @Test
+    public void collectSeparatesItemsWithDifferentCredentials() {
+        settings.setQuarantineAfterFailures(1);
+        GitRepo teamA = gitRepo("https://company.com/scm/proj/repo.git", "master");
+        teamA.setUserId("team-a");
+        teamA.setPassword("encrypted-a");
+        GitRepo teamB = gitRepo("ssh://git@company.com/PROJ/repo.git", "master");
+        teamB.setUserId("team-b");
+        teamB.setPassword("encrypted-b");
+        givenEnabledRepos(teamA, teamB);
+        Commit commit = new Commit();
+        commit.setScmRevisionNumber("abc");
+        given(gitClient.getCommits(eq(teamA), anyBoolean(), anyString(), anyString()))
+                .willThrow(new HttpClientErrorException(HttpStatus.UNAUTHORIZED));
+        given(gitClient.getCommits(eq(teamB), anyBoolean(), anyString(), anyString()))
+                .willReturn(Collections.singletonList(commit));
+
+        task.collect(collector);
+
+        // each item is fetched with its own credentials and only the revoked ones are quarantined
+        verify(gitClient).getCommits(eq(teamA), anyBoolean(), anyString(), anyString());
+        verify(gitClient).getCommits(eq(teamB), anyBoolean(), anyString(), anyString());
+        verify(commitRepository).save(savedCommits.capture());
+        assertEquals(teamB.getId(), savedCommits.getValue().get(0).getCollectorItemId());
+        verify(pullRequestCollector).getPullRequests(
+                eq(Collections.singletonList(teamB)), anyString(), anyString(), anyString());
+        assertTrue(teamA.getLastFailure().startsWith("UNAUTHORIZED"));
+        assertTrue(teamA.getQuarantinedUntil() > System.currentTimeMillis());
+        assertNull(teamB.getLastFailure());
+        assertNull(teamB.getQuarantinedUntil());
+    }
+
+    @Test
+    public void collectBacksOffIdleRepositories() {
+        long now = System.currentTimeMillis();
+        GitRepo waiting = gitRepo("https://company.com/scm/proj/waiting.git", "master");
+        waiting.setLastUpdateTime(now - TimeUnit.MINUTES.toMillis(1));
+        waiting.setPollInterval(TimeUnit.MINUTES.toMillis(10));
+        GitRepo idle = gitRepo("https://company.com/scm/proj/idle.git", "master");
+        idle.setLastUpdateTime(now - TimeUnit.MINUTES.toMillis(20));
+        idle.setPollInterval(TimeUnit.MINUTES.toMillis(10));
+        GitRepo active = gitRepo("https://company.com/scm/proj/active.git", "master");
+        active.setLastUpdateTime(now - TimeUnit.MINUTES.toMillis(20));
+        active.setPollInterval(TimeUnit.MINUTES.toMillis(10));
+        givenEnabledRepos(waiting, idle, active);
+        Commit commit = new Commit();
+        commit.setScmRevisionNumber("abc");
+        given(gitClient.getCommits(eq(idle), anyBoolean(), anyString(), anyString()))
+                .willReturn(Collections.<Commit>emptyList());
+        given(gitClient.getCommits(eq(active), anyBoolean(), anyString(), anyString()))
+                .willReturn(Collections.singletonList(commit));
+
+        task.collect(collector);
+
+        verify(gitClient, never()).getCommits(eq(waiting), anyBoolean(), anyString(), anyString());
+        verify(gitRepoRepository, never()).saveLastUpdate(waiting);
+        assertEquals(Long.valueOf(TimeUnit.MINUTES.toMillis(20)), idle.getPollInterval());
+        assertNull(active.getPollInterval());
+    }
+
+    @Test
+    public void collectStartsWithMostReferencedRepositories() {
+        GitRepo single = gitRepo("https://company.com/scm/proj/single.git", "master");
+        GitRepo shared = gitRepo("https://company.com/scm/proj/shared.git", "master");
+        givenEnabledRepos(single, shared);
+        Map<ObjectId, Integer> references = new HashMap<>();
+        references.put(single.getId(), 1);
+        references.put(shared.getId(), 3);
+        given(gitRepoRepository.countGitRepoReferences(collector.getId())).willReturn(references);
+
+        task.collect(collector);
+
+        InOrder inOrder = inOrder(gitClient);
+        inOrder.verify(gitClient).getCommits(eq(shared), anyBoolean(), anyString(), anyString());
+        inOrder.verify(gitClient).getCommits(eq(single), anyBoolean(), anyString(), anyString());
+    }
+
+    @Test
+    public void collectDefersRepositoryOverItsBudget() {
+        settings.setRepoBudgetSeconds(1);
+        GitRepo master = gitRepo("https://company.com/scm/proj/slow.git", "master");
+        GitRepo develop = gitRepo("https://company.com/scm/proj/slow.git", "develop");
+        GitRepo popular = gitRepo("https://company.com/scm/proj/popular.git", "master");
+        givenEnabledRepos(master, develop);
+        given(gitClient.getCommits(eq(master), anyBoolean(), anyString(), anyString()))
+                .willAnswer(new Answer<List<Commit>>() {
+                    @Override
+                    public List<Commit> answer(InvocationOnMock invocation) throws InterruptedException {
+                        Thread.sleep(1100);
+                        return Collections.emptyList();
+                    }
+                });
+
+        task.collect(collector);
+
+        verify(gitClient, never()).getCommits(eq(develop), anyBoolean(), anyString(), anyString());
+        verify(pullRequestCollector, never()).getPullRequests(
+                Matchers.<List<GitRepo>>any(), anyString(), anyString(), anyString());
+        verify(gitRepoRepository).saveLastUpdate(master);
+        verify(gitRepoRepository, never()).saveLastUpdate(develop);
+
+        // the deferred repository goes ahead of a more referenced one in the next cycle, starting
+        // with the branch it did not reach
+        settings.setRepoBudgetSeconds(0);
+        givenEnabledRepos(popular, master, develop);
+        given(gitRepoRepository.countGitRepoReferences(collector.getId()))
+                .willReturn(Collections.singletonMap(popular.getId(), 5));
+        ReflectionTestUtils.setField(task, "referenceCounts", null);
+
+        task.collect(collector);
+
+        InOrder inOrder = inOrder(gitClient);
+        inOrder.verify(gitClient).getCommits(eq(develop), anyBoolean(), anyString(), anyString());
+        inOrder.verify(gitClient).getCommits(eq(master), anyBoolean(), anyString(), anyString());
+        inOrder.verify(gitClient).getCommits(eq(popular), anyBoolean(), anyString(), anyString());
+    }
+
+    @Test
+    public void collectQuarantinesRepeatedlyMissingRepository() {
+        settings.setQuarantineAfterFailures(2);
+        GitRepo deleted = gitRepo("https://company.com/scm/proj/deleted.git", "master");
+        given(gitClient.getCommits(eq(deleted), anyBoolean(), anyString(), anyString()))
+                .willThrow(new HttpClientErrorException(HttpStatus.NOT_FOUND));
+
+        givenEnabledRepos(deleted);
+        task.collect(collector);
+        assertEquals(1, deleted.getFailureCount());
+        assertNull(deleted.getQuarantinedUntil());
+        assertTrue(deleted.getLastFailure().startsWith("NOT_FOUND"));
+
+        givenEnabledRepos(deleted);
+        task.collect(collector);
+        assertEquals(2, deleted.getFailureCount());
+        assertTrue(deleted.getQuarantinedUntil() > System.currentTimeMillis());
+
+        givenEnabledRepos(deleted);
+        task.collect(collector);
+        verify(gitClient, times(2)).getCommits(eq(deleted), anyBoolean(), anyString(), anyString());
+        verify(pullRequestCollector, never()).getPullRequests(
+                Matchers.<List<GitRepo>>any(), anyString(), anyString(), anyString());
+    }
+
+    @Test
+    public void collectSweepsPullRequestsAgainAfterFailedSweep() {
+        GitRepo repo = gitRepo("https://company.com/scm/proj/repo.git", "master");
+        given(pullRequestCollector.getPullRequests(Matchers.<List<GitRepo>>any(), eq("ALL"), anyString(), anyString()))
+                .willThrow(new ResourceAccessException("connection reset"))
+                .willReturn(0);
+
+        givenEnabledRepos(repo);
+        task.collect(collector);
+        givenEnabledRepos(repo);
+        task.collect(collector);
+        repo.setPollInterval(null);
+        givenEnabledRepos(repo);
+        task.collect(collector);
+
+        InOrder inOrder = inOrder(pullRequestCollector);
+        inOrder.verify(pullRequestCollector, times(2)).getPullRequests(
+                eq(Collections.singletonList(repo)), eq("ALL"), anyString(), anyString());
+        inOrder.verify(pullRequestCollector).getPullRequests(
+                eq(Collections.singletonList(repo)), eq("OPEN"), anyString(), anyString());
+    }
+
+    @Test
+    public void collectOnlyRepositoriesOfItsShard() {
+        settings.setShardCount(2);
+        GitRepo[] repos = new GitRepo[20];
+        for (int i = 0; i < repos.length; i++) {
+            repos[i] = gitRepo("https://company.com/scm/proj/repo" + i + ".git", "master");
+        }
+
+        settings.setShardIndex(1);
+        givenEnabledRepos(repos);
+        task.collect(collector);
+        verify(gitRepoRepository, never()).updateEnabledGitRepos(any(ObjectId.class), Matchers.<Collection<ObjectId>>any());
+
+        settings.setShardIndex(0);
+        givenEnabledRepos(repos);
+        ReflectionTestUtils.setField(task, "referenceCounts", null);
+        task.collect(collector);
+        verify(gitRepoRepository).updateEnabledGitRepos(any(ObjectId.class), Matchers.<Collection<ObjectId>>any());
+
+        // together the shards collect every repository exactly once
+        for (GitRepo repo : repos) {
+            verify(gitClient).getCommits(eq(repo), anyBoolean(), anyString(), anyString());
+        }
+    }
+
+    @Test
+    public void collectRecordsRepositoryCosts() {
+        settings.setCostLedger(true);
+        ReflectionTestUtils.setField(task, "costLedger", costLedger);
+        GitRepo repo = gitRepo("https://company.com/scm/proj/repo.git", "master");
+        givenEnabledRepos(repo);
+        given(pullRequestCollector.getPullRequests(Matchers.<List<GitRepo>>any(), anyString(), anyString(), anyString()))
+                .willReturn(2);
+
+        task.collect(collector);
+
+        InOrder inOrder = inOrder(costLedger);
+        inOrder.verify(costLedger).finish(anyLong(), eq(0), eq(2));
+        inOrder.verify(costLedger).save();
+        inOrder.verify(costLedger).findMostExpensive(anyLong(), eq(10));
+    }
+
+    @Test
+    public void collectDoesNotRetainItemsOfRepositoriesNotYetCollected() {
+        final int repoCount = 2000;
+        final Map<ObjectId, String> urls = new HashMap<>();
+        for (int i = 0; i < repoCount; i++) {
+            urls.put(new ObjectId(), "https://company.com/scm/proj/repo" + i + ".git");
+        }
+        // every read returns new items, as a Mongo cursor would
+        final List<WeakReference<GitRepo>> streamed = new ArrayList<>();
+        final Iterator<ObjectId> ids = urls.keySet().iterator();
+        given(gitRepoRepository.streamEnabledGitRepos(collector.getId())).willReturn(new CloseableIterator<GitRepo>() {
+            @Override
+            public void close() {
+            }
+
+            @Override
+            public boolean hasNext() {
+                return ids.hasNext();
+            }
+
+            @Override
+            public GitRepo next() {
+                ObjectId id = ids.next();
+                GitRepo repo = gitRepo(urls.get(id), "master");
+                repo.setId(id);
+                streamed.add(new WeakReference<>(repo));
+                return repo;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        });
+        given(gitRepoRepository.findEnabledGitReposById(Matchers.<List<ObjectId>>any())).willAnswer(new Answer<List<GitRepo>>() {
+            @Override
+            public List<GitRepo> answer(InvocationOnMock invocation) {
+                List<GitRepo> found = new ArrayList<>();
+                for (Object id : (List<?>) invocation.getArguments()[0]) {
+                    GitRepo repo = gitRepo(urls.get(id), "master");
+                    repo.setId((ObjectId) id);
+                    found.add(repo);
+                }
+                return found;
+            }
+        });
+        final List<Integer> retained = new ArrayList<>();
+        given(gitClient.getCommits(any(GitRepo.class), anyBoolean(), anyString(), anyString()))
+                .willAnswer(new Answer<List<Commit>>() {
+                    @Override
+                    public List<Commit> answer(InvocationOnMock invocation) {
+                        if (retained.isEmpty()) {
+                            // sample the heap while the first repository is collected
+                            System.gc();
+                            int count = 0;
+                            for (WeakReference<GitRepo> reference : streamed) {
+                                if (reference.get() != null) {
+                                    count++;
+                                }
+                            }
+                            retained.add(count);
+                        }
+                        return Collections.emptyList();
+                    }
+                });
+
+        task.collect(collector);
+
+        assertEquals(repoCount, streamed.size());
+        verify(gitClient, times(repoCount)).getCommits(any(GitRepo.class), anyBoolean(), anyString(), anyString());
+        assertTrue("retained " + retained.get(0) + " of " + repoCount, retained.get(0) < repoCount / 10);
+    }
+
+    private GitRepo gitRepo(String url, String branch) {
+        GitRepo repo = new GitRepo();
+        repo.setId(new ObjectId());
+        repo.setCollectorId(collector.getId());
+        repo.setRepoUrl(url);
+        repo.setBranch(branch);
+        return repo;
+    }
+
+    private void givenEnabledRepos(final GitRepo... repos) {
+        final Iterator<GitRepo> iterator = Arrays.asList(repos).iterator();
+        given(gitRepoRepository.streamEnabledGitRepos(collector.getId())).willReturn(new CloseableIterator<GitRepo>() {
+            @Override
+            public void close() {
+            }
+
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public GitRepo next() {
+                return iterator.next();
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        });
+        // stubbed without invoking the mock, since a test may stub it again with other items
+        willAnswer(new Answer<List<GitRepo>>() {
+            @Override
+            public List<GitRepo> answer(InvocationOnMock invocation) {
+                List<?> ids = (List<?>) invocation.getArguments()[0];
+                List<GitRepo> found = new ArrayList<>();
+                for (GitRepo repo : repos) {
+                    if (ids.contains(repo.getId())) {
+                        found.add(repo);
+                    }
+                }
+                return found;
+            }
+        }).given(gitRepoRepository).findEnabledGitReposById(Matchers.<List<ObjectId>>any());
+    }
+}
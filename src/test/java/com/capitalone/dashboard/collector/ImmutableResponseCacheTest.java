@@ -0,0 +1,130 @@
+package com.capitalone.dashboard.collector;
+
+import org.apache.commons.lang3.StringUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.test.web.client.MockRestServiceServer;
+import org.springframework.web.client.RestTemplate;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.URI;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.requestTo;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withSuccess;
+
+public class ImmutableResponseCacheTest {
+    private static final URI ACTIVITIES = URI.create(
+            "https://company.com/rest/api/1.0/projects/P/repos/r/pull-requests/7/activities?start=25&limit=25");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void servesResponsesAfterReopeningPerUser() throws IOException {
+        File directory = folder.newFolder();
+        ImmutableResponseCache cache = cache(directory, 1);
+        cache.put(ACTIVITIES, "jdoe", new ResponseEntity<>("{\"values\":[1]}", HttpStatus.OK));
+        cache.put(ACTIVITIES, "jdoe", new ResponseEntity<>("{}", HttpStatus.NOT_FOUND));
+        cache.close();
+
+        ImmutableResponseCache reopened = cache(directory, 1);
+        ResponseEntity<String> cached = reopened.get(URI.create(
+                "https://jdoe:pw@company.com/rest/api/1.0/projects/P/repos/r/pull-requests/7/activities?limit=25&start=25"),
+                "jdoe");
+        assertEquals(HttpStatus.OK, cached.getStatusCode());
+        assertEquals(MediaType.APPLICATION_JSON, cached.getHeaders().getContentType());
+        assertEquals("{\"values\":[1]}", cached.getBody());
+        assertNull(reopened.get(ACTIVITIES, "asmith"));
+        assertNull(reopened.get(ACTIVITIES, null));
+        assertEquals(1, reopened.getHits());
+        assertEquals(2, reopened.getMisses());
+        assertEquals(1 / 3.0, reopened.getHitRate(), 0.001);
+    }
+
+    @Test
+    public void cutsTornEntriesWhenOpened() throws IOException {
+        File directory = folder.newFolder();
+        ImmutableResponseCache cache = cache(directory, 1);
+        cache.put(ACTIVITIES, "jdoe", new ResponseEntity<>("{\"values\":[1]}", HttpStatus.OK));
+        URI second = URI.create(ACTIVITIES + "&page=2");
+        cache.put(second, "jdoe", new ResponseEntity<>("{\"values\":[2]}", HttpStatus.OK));
+        long complete = cache.getSizeBytes();
+        cache.close();
+        File segment = directory.listFiles()[0];
+        try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+            file.setLength(complete - 3);
+        }
+
+        ImmutableResponseCache reopened = cache(directory, 1);
+        assertEquals("{\"values\":[1]}", reopened.get(ACTIVITIES, "jdoe").getBody());
+        assertNull(reopened.get(second, "jdoe"));
+        reopened.put(second, "jdoe", new ResponseEntity<>("{\"values\":[2]}", HttpStatus.OK));
+        assertEquals("{\"values\":[2]}", reopened.get(second, "jdoe").getBody());
+        assertEquals(complete, segment.length());
+    }
+
+    @Test
+    public void dropsTheOldestSegmentBeyondTheMaximumSize() throws IOException {
+        ImmutableResponseCache cache = cache(folder.newFolder(), 1);
+        // a sixteenth of a megabyte per segment, so two bodies fill one
+        String body = "{\"values\":\"" + StringUtils.repeat('x', 30000) + "\"}";
+        for (int i = 0; i < 40; i++) {
+            cache.put(URI.create(ACTIVITIES + "&page=" + i), "jdoe", new ResponseEntity<>(body, HttpStatus.OK));
+        }
+
+        assertTrue(cache.getSizeBytes() <= 1024 * 1024);
+        assertNull(cache.get(URI.create(ACTIVITIES + "&page=0"), "jdoe"));
+        assertEquals(body, cache.get(URI.create(ACTIVITIES + "&page=39"), "jdoe").getBody());
+    }
+
+    @Test
+    public void restClientServesImmutableResponsesFromTheCache() throws IOException {
+        ImmutableResponseCache cache = cache(folder.newFolder(), 1);
+        RestTemplate restTemplate = new RestTemplate();
+        SCMHttpRestClient client = new SCMHttpRestClient();
+        ReflectionTestUtils.setField(client, "restTemplate", restTemplate);
+        ReflectionTestUtils.setField(client, "responseCache", cache);
+        URI anchored = URI.create("https://company.com/rest/api/1.0/projects/P/repos/r/commits"
+                + "?until=0123456789abcdef0123456789abcdef01234567&since=89abcdef0123456789abcdef0123456789abcdef");
+        MockRestServiceServer bitbucket = MockRestServiceServer.createServer(restTemplate);
+        bitbucket.expect(requestTo(anchored)).andRespond(withSuccess("{\"values\":[]}", MediaType.APPLICATION_JSON));
+        bitbucket.expect(requestTo(ACTIVITIES)).andRespond(withSuccess("{\"values\":[7]}", MediaType.APPLICATION_JSON));
+
+        assertEquals("{\"values\":[]}", client.makeRestCall(anchored, "jdoe", "pw").getBody());
+        assertEquals("{\"values\":[]}", client.makeRestCall(anchored, "jdoe", "pw").getBody());
+        assertEquals("{\"values\":[7]}", client.makeRestCall(ACTIVITIES, "jdoe", "pw", true).getBody());
+        assertEquals("{\"values\":[7]}", client.makeRestCall(ACTIVITIES, "jdoe", "pw", true).getBody());
+        bitbucket.verify();
+        assertEquals(2, cache.getHits());
+    }
+
+    @Test
+    public void isShaAnchored() {
+        assertTrue(ImmutableResponseCache.isShaAnchored(URI.create("https://company.com/rest/commits"
+                + "?until=0123456789abcdef0123456789abcdef01234567&since=89abcdef0123456789abcdef0123456789abcdef&limit=25")));
+        assertFalse(ImmutableResponseCache.isShaAnchored(URI.create("https://company.com/rest/commits"
+                + "?until=refs%2Fheads%2Fmaster&since=89abcdef0123456789abcdef0123456789abcdef")));
+        assertFalse(ImmutableResponseCache.isShaAnchored(URI.create(
+                "https://company.com/rest/commits?until=0123456789abcdef0123456789abcdef01234567")));
+    }
+
+    private static ImmutableResponseCache cache(File directory, int maxMegabytes) throws IOException {
+        GitSettings settings = new GitSettings();
+        settings.setResponseCacheDir(directory.getPath());
+        settings.setResponseCacheMaxMegabytes(maxMegabytes);
+        ImmutableResponseCache cache = new ImmutableResponseCache(settings);
+        cache.open();
+        return cache;
+    }
+}
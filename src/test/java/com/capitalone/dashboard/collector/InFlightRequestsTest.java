@@ -0,0 +1,133 @@
+package com.capitalone.dashboard.collector;
+
+import org.junit.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.client.HttpClientErrorException;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class InFlightRequestsTest {
+    private static final String KEY = "anonymous https://company.com/rest/api/1.0/projects/P/repos/r/pull-requests";
+
+    @Test
+    public void concurrentCallsShareOneCall() throws Exception {
+        final InFlightRequests requests = new InFlightRequests();
+        final AtomicInteger calls = new AtomicInteger();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final Object response = new Object();
+        ExecutorService workers = Executors.newFixedThreadPool(2);
+        try {
+            Future<Object> first = workers.submit(call(requests, KEY, new Callable<Object>() {
+                @Override
+                public Object call() throws Exception {
+                    calls.incrementAndGet();
+                    started.countDown();
+                    assertTrue(release.await(5, TimeUnit.SECONDS));
+                    return response;
+                }
+            }));
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            Future<Object> second = workers.submit(call(requests, KEY, new Callable<Object>() {
+                @Override
+                public Object call() {
+                    calls.incrementAndGet();
+                    return new Object();
+                }
+            }));
+            while (requests.getCoalesced() == 0) {
+                Thread.sleep(1);
+            }
+            release.countDown();
+
+            assertSame(response, first.get(5, TimeUnit.SECONDS));
+            assertSame(response, second.get(5, TimeUnit.SECONDS));
+            assertEquals(1, calls.get());
+            assertEquals(1, requests.getCoalesced());
+        } finally {
+            workers.shutdownNow();
+        }
+    }
+
+    @Test
+    public void waitingCallsGetTheSameFailure() throws Exception {
+        final InFlightRequests requests = new InFlightRequests();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        ExecutorService workers = Executors.newFixedThreadPool(2);
+        try {
+            Future<Object> first = workers.submit(call(requests, KEY, new Callable<Object>() {
+                @Override
+                public Object call() throws Exception {
+                    started.countDown();
+                    assertTrue(release.await(5, TimeUnit.SECONDS));
+                    throw new HttpClientErrorException(HttpStatus.TOO_MANY_REQUESTS);
+                }
+            }));
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            Future<Object> second = workers.submit(call(requests, KEY, new Callable<Object>() {
+                @Override
+                public Object call() {
+                    return new Object();
+                }
+            }));
+            while (requests.getCoalesced() == 0) {
+                Thread.sleep(1);
+            }
+            release.countDown();
+
+            assertTooManyRequests(first);
+            assertTooManyRequests(second);
+        } finally {
+            workers.shutdownNow();
+        }
+    }
+
+    @Test
+    public void completedCallsAreNotKept() {
+        InFlightRequests requests = new InFlightRequests();
+        final AtomicInteger calls = new AtomicInteger();
+        Callable<Integer> call = new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return calls.incrementAndGet();
+            }
+        };
+
+        assertEquals(Integer.valueOf(1), requests.call(KEY, "pull-requests", call));
+        assertEquals(Integer.valueOf(2), requests.call(KEY, "pull-requests", call));
+        // another user makes its own call
+        assertEquals(Integer.valueOf(3), requests.call("other " + KEY, "pull-requests", call));
+        assertEquals(0, requests.getCoalesced());
+    }
+
+    private static Callable<Object> call(final InFlightRequests requests, final String key, final Callable<Object> call) {
+        return new Callable<Object>() {
+            @Override
+            public Object call() {
+                return requests.call(key, "pull-requests", call);
+            }
+        };
+    }
+
+    private static void assertTooManyRequests(Future<Object> result) throws Exception {
+        try {
+            result.get(5, TimeUnit.SECONDS);
+            fail("429 expected");
+        } catch (ExecutionException e) {
+            assertEquals(HttpStatus.TOO_MANY_REQUESTS, ((HttpClientErrorException) e.getCause()).getStatusCode());
+        }
+    }
+}
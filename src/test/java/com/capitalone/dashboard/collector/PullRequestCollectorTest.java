@@ -1,33 +1,60 @@
 package com.capitalone.dashboard.collector;
 
 import com.capitalone.dashboard.bitbucketapi.BitbucketApiUrlBuilder;
+import com.capitalone.dashboard.model.BitbucketPullRequest;
+import com.capitalone.dashboard.model.ClosedPullRequests;
+import com.capitalone.dashboard.model.Comment;
+import com.capitalone.dashboard.model.Commit;
 import com.capitalone.dashboard.model.GitRepo;
 import com.capitalone.dashboard.model.GitRequest;
+import com.capitalone.dashboard.repository.ClosedPullRequestsRepository;
+import com.capitalone.dashboard.repository.CommitRepository;
 import com.capitalone.dashboard.repository.GitRequestRepository;
 import com.capitalone.dashboard.util.EncryptionException;
 import org.apache.commons.codec.binary.Base64;
 import org.apache.commons.io.IOUtils;
+import org.bson.types.ObjectId;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Matchers;
 import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
 import org.mockito.runners.MockitoJUnitRunner;
+import org.mockito.stubbing.Answer;
 import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.test.util.ReflectionTestUtils;
 import org.springframework.web.client.RestOperations;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.BDDMockito.given;
+import static org.mockito.Matchers.anyBoolean;
 import static org.mockito.Matchers.anyObject;
+import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 
 
 @RunWith(MockitoJUnitRunner.class)
@@ -48,6 +75,12 @@ public class PullRequestCollectorTest {
     @Mock
     private GitRequestRepository gitRequestRepository;
 
+    @Mock
+    private CommitRepository commitRepository;
+
+    @Mock
+    private ClosedPullRequestCache closedPullRequestCache;
+
     @InjectMocks
     private PullRequestCollector pullRequestCollector;
 
@@ -60,13 +93,13 @@ public class PullRequestCollectorTest {
         String repoUrl = "https://username@company.com/scm/myproject/myrepository.git";
         repo.setRepoUrl(repoUrl);
         repo.getOptions().put("url", repoUrl);
-        repo.setBranch("master");
+        repo.setBranch("develop");
         URI uri1 =
                 URI.create(
-                        "https://company.com/rest/api/1.0/projects/myproject/repos/myrepository/pull-requests?at=refs%2Fheads%2Fmaster&state=OPEN&limit=0");
+                        "https://company.com/rest/api/1.0/projects/myproject/repos/myrepository/pull-requests?at=refs%2Fheads%2Fdevelop&state=OPEN");
         URI uri2 =
                 URI.create(
-                        "https://company.com/rest/api/1.0/projects/myproject/repos/myrepository/pull-requests?at=refs%2Fheads%2Fmaster&state=OPEN&limit=0");
+                        "https://company.com/rest/api/1.0/projects/myproject/repos/myrepository/pull-requests?at=refs%2Fheads%2Fdevelop&state=OPEN");
 
         given(
                 rest.exchange(
@@ -83,6 +116,7 @@ public class PullRequestCollectorTest {
                 new URI(
                         "https://company.com/rest/api/1.0/projects/myproject/repos/myrepository/pull-requests");
         given(bitbucketApiUrlBuilder.buildPullRequestApiUrl(repoUrl)).willReturn(value);
+        givenNoEnrichment(repoUrl);
 
         given(scmHttpRestClient.makeRestCall(uri1, "abcdefgh","abcdefghijklmnopqrstuvwxyz1234567"))
                 .willReturn(new ResponseEntity<>(prResponseTestData, HttpStatus.OK));
@@ -106,13 +140,13 @@ public class PullRequestCollectorTest {
         String repoUrl = "https://username@company.com/scm/myproject/myrepository.git";
         repo.setRepoUrl(repoUrl);
         repo.getOptions().put("url", repoUrl);
-        repo.setBranch("master");
+        repo.setBranch("develop");
         URI uri1 =
                 URI.create(
-                        "https://company.com/rest/api/1.0/projects/myproject/repos/myrepository/pull-requests?at=refs%2Fheads%2Fmaster&state=OPEN&limit=0");
+                        "https://company.com/rest/api/1.0/projects/myproject/repos/myrepository/pull-requests?at=refs%2Fheads%2Fdevelop&state=OPEN");
         URI uri2 =
                 URI.create(
-                        "https://company.com/rest/api/1.0/projects/myproject/repos/myrepository/pull-requests?at=refs%2Fheads%2Fmaster&state=OPEN&limit=0");
+                        "https://company.com/rest/api/1.0/projects/myproject/repos/myrepository/pull-requests?at=refs%2Fheads%2Fdevelop&state=OPEN");
 
         given(
                 rest.exchange(
@@ -129,6 +163,7 @@ public class PullRequestCollectorTest {
                 new URI(
                         "https://company.com/rest/api/1.0/projects/myproject/repos/myrepository/pull-requests");
         given(bitbucketApiUrlBuilder.buildPullRequestApiUrl(repoUrl)).willReturn(value);
+        givenNoEnrichment(repoUrl);
 
         given(scmHttpRestClient.makeRestCall(uri1,"abcdefgh", "abcdefghijklmnopqrstuvwxyz1234567"))
                 .willReturn(new ResponseEntity<>(prResponseTestData, HttpStatus.OK));
@@ -147,6 +182,448 @@ public class PullRequestCollectorTest {
 
     }
 
+    @Test
+    public void testGetPullRequests_SharedAcrossTrackedBranches() throws Exception {
+        String prResponseTestData = getJson("/bitbucket-server/pr-response-test-data-1.json");
+        String repoUrl = "https://username@company.com/scm/myproject/myrepository.git";
+        GitRepo develop = new GitRepo();
+        develop.setRepoUrl(repoUrl);
+        develop.setBranch("develop");
+        GitRepo master = new GitRepo();
+        master.setRepoUrl(repoUrl);
+        master.setBranch("master");
+        URI listing = URI.create(
+                "https://company.com/rest/api/1.0/projects/myproject/repos/myrepository/pull-requests?state=ALL");
+
+        given(bitbucketApiUrlBuilder.buildPullRequestApiUrl(repoUrl)).willReturn(new URI(
+                "https://company.com/rest/api/1.0/projects/myproject/repos/myrepository/pull-requests"));
+        givenNoEnrichment(repoUrl);
+        given(scmHttpRestClient.makeRestCall(listing, "user", "password"))
+                .willReturn(new ResponseEntity<>(prResponseTestData, HttpStatus.OK));
+
+        // when
+        int pullCount = pullRequestCollector.getPullRequests(
+                Arrays.asList(master, develop), "ALL", "user", "password");
+
+        // then all three PRs target develop, and the listing is read once
+        assertEquals(3, pullCount);
+        verify(scmHttpRestClient, times(1)).makeRestCall(listing, "user", "password");
+        verify(bitbucketApiUrlBuilder, times(3)).buildPullRequestCommitsApiUrl(eq(repoUrl), anyString());
+    }
+
+    @Test
+    public void testGetPullRequests_StopsAtOldestStoredUpdateOfTrackedBranches() throws Exception {
+        String prResponseTestData = getJson("/bitbucket-server/pr-response-test-data-1.json");
+        String repoUrl = "https://username@company.com/scm/myproject/myrepository.git";
+        GitRepo develop = new GitRepo();
+        develop.setId(new ObjectId());
+        develop.setRepoUrl(repoUrl);
+        develop.setBranch("develop");
+        GitRepo master = new GitRepo();
+        master.setId(new ObjectId());
+        master.setRepoUrl(repoUrl);
+        master.setBranch("master");
+        URI listing = URI.create(
+                "https://company.com/rest/api/1.0/projects/myproject/repos/myrepository/pull-requests?state=OPEN");
+        GitRequest stored = new GitRequest();
+        stored.setUpdatedAt(1538072099541L);
+
+        given(bitbucketApiUrlBuilder.buildPullRequestApiUrl(repoUrl)).willReturn(new URI(
+                "https://company.com/rest/api/1.0/projects/myproject/repos/myrepository/pull-requests"));
+        givenNoEnrichment(repoUrl);
+        given(gitRequestRepository.findRequestNumberAndLastUpdated(Matchers.any(ObjectId.class), eq("pull")))
+                .willReturn(Collections.singletonList(stored));
+        given(scmHttpRestClient.makeRestCall(listing, "user", "password"))
+                .willReturn(new ResponseEntity<>(prResponseTestData, HttpStatus.OK));
+
+        // when
+        int pullCount = pullRequestCollector.getPullRequests(
+                Arrays.asList(master, develop), "OPEN", "user", "password");
+
+        // then both items stored 7462, the older 7463 and 7439 are not looked at
+        assertEquals(1, pullCount);
+        verify(bitbucketApiUrlBuilder, times(1)).buildPullRequestCommitsApiUrl(eq(repoUrl), anyString());
+        verify(gitRequestRepository, never()).findByCollectorItemIdAndNumberAndRequestType(develop.getId(), "7463", "pull");
+    }
+
+    @Test
+    public void testGetPullRequests_ReusesUnchangedCommitsAndComments() throws Exception {
+        String prResponseTestData = getJson("/bitbucket-server/pr-response-test-data-1.json");
+        String repoUrl = "https://username@company.com/scm/myproject/myrepository.git";
+        GitRepo repo = new GitRepo();
+        repo.setRepoUrl(repoUrl);
+        repo.setBranch("develop");
+        URI listing = URI.create(
+                "https://company.com/rest/api/1.0/projects/myproject/repos/myrepository/pull-requests?at=refs%2Fheads%2Fdevelop&state=OPEN");
+        given(bitbucketApiUrlBuilder.buildPullRequestApiUrl(repoUrl)).willReturn(new URI(
+                "https://company.com/rest/api/1.0/projects/myproject/repos/myrepository/pull-requests"));
+        givenNoEnrichment(repoUrl);
+        given(scmHttpRestClient.makeRestCall(listing, "user", "password"))
+                .willReturn(new ResponseEntity<>(prResponseTestData, HttpStatus.OK));
+
+        // 7462 was updated, but its source head and its two comments are already stored
+        GitRequest existingPR = new GitRequest();
+        existingPR.setUpdatedAt(1L);
+        existingPR.setHeadSha("123456789012345678901234567890");
+        existingPR.setCommits(Collections.singletonList(new Commit()));
+        existingPR.setComments(Arrays.asList(new Comment(), new Comment()));
+        given(gitRequestRepository.findByCollectorItemIdAndNumberAndRequestType(
+                repo.getId(), "7462", "pull")).willReturn(existingPR);
+
+        // when
+        pullRequestCollector.getPullRequests(repo, "OPEN", "user", "password");
+
+        // then
+        verify(bitbucketApiUrlBuilder, never()).buildPullRequestCommitsApiUrl(repoUrl, "7462");
+        verify(bitbucketApiUrlBuilder, never()).buildPullRequestActivitiesApiUrl(repoUrl, "7462");
+        verify(bitbucketApiUrlBuilder).buildPullRequestCommitsApiUrl(repoUrl, "7463");
+        verify(bitbucketApiUrlBuilder).buildPullRequestActivitiesApiUrl(repoUrl, "7463");
+    }
+
+    @Test
+    public void testGetPullRequests_SkipsKnownClosedPullRequests() throws Exception {
+        String prResponseTestData = getJson("/bitbucket-server/pr-response-test-data-1.json")
+                .replace("\"state\": \"OPEN\"", "\"state\": \"DECLINED\"");
+        String repoUrl = "https://username@company.com/scm/myproject/myrepository.git";
+        GitRepo repo = new GitRepo();
+        repo.setRepoUrl(repoUrl);
+        repo.setBranch("develop");
+        URI listing = URI.create(
+                "https://company.com/rest/api/1.0/projects/myproject/repos/myrepository/pull-requests?at=refs%2Fheads%2Fdevelop&state=ALL");
+        given(bitbucketApiUrlBuilder.buildPullRequestApiUrl(repoUrl)).willReturn(new URI(
+                "https://company.com/rest/api/1.0/projects/myproject/repos/myrepository/pull-requests"));
+        givenNoEnrichment(repoUrl);
+        given(scmHttpRestClient.makeRestCall(listing, "user", "password"))
+                .willReturn(new ResponseEntity<>(prResponseTestData, HttpStatus.OK));
+
+        // 7462 got a late update after it was closed, 7463 is unchanged since it was closed
+        given(closedPullRequestCache.contains(repo, "7462")).willReturn(true);
+        given(closedPullRequestCache.getUpdatedAt(repo, "7462")).willReturn(1L);
+        given(closedPullRequestCache.contains(repo, "7463")).willReturn(true);
+        given(closedPullRequestCache.getUpdatedAt(repo, "7463")).willReturn(1538072054312L);
+
+        // when
+        int pullCount = pullRequestCollector.getPullRequests(repo, "ALL", "user", "password");
+
+        // then
+        assertEquals(0, pullCount);
+        verify(gitRequestRepository, never()).findByCollectorItemIdAndNumberAndRequestType(
+                eq(repo.getId()), anyString(), eq("pull"));
+        verify(bitbucketApiUrlBuilder, never()).buildPullRequestCommitsApiUrl(eq(repoUrl), anyString());
+        verify(closedPullRequestCache).save(repo);
+    }
+
+    @Test
+    public void testGetPullRequests_ServerEnrichmentFromActivities() throws Exception {
+        String prResponseTestData = getJson("/bitbucket-server/pr-response-test-data-1.json");
+        String activities = getJson("/bitbucket-server/pr-activities-test-data-1.json");
+        String repoUrl = "https://username@company.com/scm/myproject/myrepository.git";
+        GitRepo repo = new GitRepo();
+        repo.setRepoUrl(repoUrl);
+        repo.setBranch("develop");
+        URI listing = URI.create(
+                "https://company.com/rest/api/1.0/projects/myproject/repos/myrepository/pull-requests?at=refs%2Fheads%2Fdevelop&state=OPEN");
+        URI activitiesUrl = URI.create(
+                "https://company.com/rest/api/1.0/projects/myproject/repos/myrepository/pull-requests/7462/activities");
+        given(bitbucketApiUrlBuilder.buildPullRequestApiUrl(repoUrl)).willReturn(new URI(
+                "https://company.com/rest/api/1.0/projects/myproject/repos/myrepository/pull-requests"));
+        givenNoEnrichment(repoUrl);
+        given(bitbucketApiUrlBuilder.buildPullRequestActivitiesApiUrl(repoUrl, "7462")).willReturn(activitiesUrl);
+        given(scmHttpRestClient.makeRestCall(listing, "user", "password"))
+                .willReturn(new ResponseEntity<>(prResponseTestData, HttpStatus.OK));
+        given(scmHttpRestClient.makeRestCall(activitiesUrl, "user", "password"))
+                .willReturn(new ResponseEntity<>(activities, HttpStatus.OK));
+
+        // 7462 was rescoped and commented since it was stored
+        Commit base = new Commit();
+        base.setScmRevisionNumber("1111111111111111111111111111111111111111");
+        Commit workInProgress = new Commit();
+        workInProgress.setScmRevisionNumber("2222222222222222222222222222222222222222");
+        GitRequest existingPR = new GitRequest();
+        existingPR.setUpdatedAt(1L);
+        existingPR.setHeadSha("2222222222222222222222222222222222222222");
+        existingPR.setCommits(Arrays.asList(base, workInProgress));
+        existingPR.setComments(Collections.<Comment>emptyList());
+        given(gitRequestRepository.findByCollectorItemIdAndNumberAndRequestType(
+                repo.getId(), "7462", "pull")).willReturn(existingPR);
+
+        // when
+        pullRequestCollector.getPullRequests(repo, "OPEN", "user", "password");
+
+        // then
+        ArgumentCaptor<GitRequest> saved = ArgumentCaptor.forClass(GitRequest.class);
+        verify(gitRequestRepository, times(3)).save(saved.capture());
+        GitRequest pull = saved.getAllValues().get(0);
+        assertEquals("7462", pull.getNumber());
+        assertEquals(2, pull.getCommits().size());
+        assertEquals("3333333333333333333333333333333333333333", pull.getCommits().get(0).getScmRevisionNumber());
+        assertEquals("1111111111111111111111111111111111111111", pull.getCommits().get(1).getScmRevisionNumber());
+        assertEquals(2, pull.getComments().size());
+        assertEquals("Please drop the work in progress commit", pull.getComments().get(0).getBody());
+        assertEquals("Done", pull.getComments().get(1).getBody());
+        verify(scmHttpRestClient, times(1)).makeRestCall(activitiesUrl, "user", "password");
+        verify(bitbucketApiUrlBuilder, never()).buildPullRequestCommitsApiUrl(repoUrl, "7462");
+        verify(bitbucketApiUrlBuilder, never()).buildPullRequestCommentsApiUrl(eq(repoUrl), anyString());
+    }
+
+    @Test
+    public void testGetPullRequests_ServerActivitiesReadUntilLastSeen() throws Exception {
+        String prResponseTestData = getJson("/bitbucket-server/pr-response-test-data-1.json");
+        String activities = getJson("/bitbucket-server/pr-activities-test-data-1.json");
+        String repoUrl = "https://username@company.com/scm/myproject/myrepository.git";
+        GitRepo repo = new GitRepo();
+        repo.setRepoUrl(repoUrl);
+        repo.setBranch("develop");
+        URI listing = URI.create(
+                "https://company.com/rest/api/1.0/projects/myproject/repos/myrepository/pull-requests?at=refs%2Fheads%2Fdevelop&state=OPEN");
+        URI activitiesUrl = URI.create(
+                "https://company.com/rest/api/1.0/projects/myproject/repos/myrepository/pull-requests/7462/activities");
+        given(bitbucketApiUrlBuilder.buildPullRequestApiUrl(repoUrl)).willReturn(new URI(
+                "https://company.com/rest/api/1.0/projects/myproject/repos/myrepository/pull-requests"));
+        givenNoEnrichment(repoUrl);
+        given(bitbucketApiUrlBuilder.buildPullRequestActivitiesApiUrl(repoUrl, "7462")).willReturn(activitiesUrl);
+        given(scmHttpRestClient.makeRestCall(listing, "user", "password"))
+                .willReturn(new ResponseEntity<>(prResponseTestData, HttpStatus.OK));
+        given(scmHttpRestClient.makeRestCall(activitiesUrl, "user", "password"))
+                .willReturn(new ResponseEntity<>(activities, HttpStatus.OK));
+
+        // 7462 was stored after activity 103, with a comment that has since been deleted
+        BitbucketPullRequest existingPR = new BitbucketPullRequest();
+        existingPR.setUpdatedAt(1L);
+        existingPR.setLastActivityId(103L);
+        existingPR.setHeadSha("2222222222222222222222222222222222222222");
+        Commit base = new Commit();
+        base.setScmRevisionNumber("1111111111111111111111111111111111111111");
+        Commit workInProgress = new Commit();
+        workInProgress.setScmRevisionNumber("2222222222222222222222222222222222222222");
+        existingPR.setCommits(Arrays.asList(base, workInProgress));
+        existingPR.setComments(Arrays.asList(
+                comment("reviewer", 1538071600000L, "stored"),
+                comment("userid", 1538071700000L, "Done"),
+                comment("reviewer", 1538071999000L, "wrong pull request")));
+        given(gitRequestRepository.findByCollectorItemIdAndNumberAndRequestType(
+                repo.getId(), "7462", "pull")).willReturn(existingPR);
+
+        // when
+        pullRequestCollector.getPullRequests(repo, "OPEN", "user", "password");
+
+        // then
+        ArgumentCaptor<GitRequest> saved = ArgumentCaptor.forClass(GitRequest.class);
+        verify(gitRequestRepository, times(3)).save(saved.capture());
+        BitbucketPullRequest pull = (BitbucketPullRequest) saved.getAllValues().get(0);
+        assertEquals(Long.valueOf(107L), pull.getLastActivityId());
+        assertEquals(2, pull.getCommits().size());
+        assertEquals("3333333333333333333333333333333333333333", pull.getCommits().get(0).getScmRevisionNumber());
+        assertEquals(2, pull.getComments().size());
+        // activity 102 was not read again, so the stored comment was kept as is
+        assertEquals("stored", pull.getComments().get(0).getBody());
+        assertEquals("Done", pull.getComments().get(1).getBody());
+    }
+
+    @Test
+    public void testGetPullRequests_ServerKeepsMergeCommitOfMergedPullRequest() throws Exception {
+        String activities = getJson("/bitbucket-server/pr-activities-test-data-1.json");
+        String repoUrl = "https://username@company.com/scm/myproject/myrepository.git";
+        GitRepo repo = new GitRepo();
+        repo.setRepoUrl(repoUrl);
+        repo.setBranch("develop");
+        URI listing = URI.create(
+                "https://company.com/rest/api/1.0/projects/myproject/repos/myrepository/pull-requests?at=refs%2Fheads%2Fdevelop&state=ALL");
+        URI activitiesUrl = URI.create(
+                "https://company.com/rest/api/1.0/projects/myproject/repos/myrepository/pull-requests/7462/activities");
+        given(bitbucketApiUrlBuilder.buildPullRequestApiUrl(repoUrl)).willReturn(new URI(
+                "https://company.com/rest/api/1.0/projects/myproject/repos/myrepository/pull-requests"));
+        givenNoEnrichment(repoUrl);
+        given(bitbucketApiUrlBuilder.buildPullRequestActivitiesApiUrl(repoUrl, "7462")).willReturn(activitiesUrl);
+        given(scmHttpRestClient.makeRestCall(listing, "user", "password"))
+                .willReturn(new ResponseEntity<>(listing("MERGED", 1000), HttpStatus.OK));
+        given(scmHttpRestClient.makeRestCall(activitiesUrl, "user", "password"))
+                .willReturn(new ResponseEntity<>(activities, HttpStatus.OK));
+
+        // 7462 was stored merged after activity 107, the listing does not tell its merge commit
+        BitbucketPullRequest existingPR = new BitbucketPullRequest();
+        existingPR.setUpdatedAt(1L);
+        existingPR.setState("merged");
+        existingPR.setLastActivityId(107L);
+        existingPR.setScmRevisionNumber("9999999999999999999999999999999999999999");
+        existingPR.setHeadSha("123456789012345678901234567890");
+        existingPR.setCommits(Collections.singletonList(new Commit()));
+        existingPR.setComments(Collections.singletonList(comment("reviewer", 1538071600000L, "stored")));
+        given(gitRequestRepository.findByCollectorItemIdAndNumberAndRequestType(
+                repo.getId(), "7462", "pull")).willReturn(existingPR);
+
+        // when
+        pullRequestCollector.getPullRequests(repo, "ALL", "user", "password");
+
+        // then the walk stopped at once, and the stored merge commit replaced the head
+        ArgumentCaptor<GitRequest> saved = ArgumentCaptor.forClass(GitRequest.class);
+        verify(gitRequestRepository, times(3)).save(saved.capture());
+        GitRequest pull = saved.getAllValues().get(0);
+        assertEquals("7462", pull.getNumber());
+        assertEquals("9999999999999999999999999999999999999999", pull.getScmRevisionNumber());
+        verify(scmHttpRestClient, times(1)).makeRestCall(activitiesUrl, "user", "password");
+    }
+
+    @Test
+    public void testGetPullRequests_ServerReadsActivitiesOfReopenedAndMergedPullRequest() throws Exception {
+        String activities = getJson("/bitbucket-server/pr-activities-test-data-1.json");
+        String declinedActivities = withoutActivity(activities, 107);
+        String repoUrl = "https://username@company.com/scm/myproject/myrepository.git";
+        GitRepo repo = new GitRepo();
+        repo.setRepoUrl(repoUrl);
+        repo.setBranch("develop");
+        URI listing = URI.create(
+                "https://company.com/rest/api/1.0/projects/myproject/repos/myrepository/pull-requests?at=refs%2Fheads%2Fdevelop&state=ALL");
+        URI activitiesUrl = URI.create(
+                "https://company.com/rest/api/1.0/projects/myproject/repos/myrepository/pull-requests/7462/activities");
+        given(bitbucketApiUrlBuilder.buildPullRequestApiUrl(repoUrl)).willReturn(new URI(
+                "https://company.com/rest/api/1.0/projects/myproject/repos/myrepository/pull-requests"));
+        givenNoEnrichment(repoUrl);
+        given(bitbucketApiUrlBuilder.buildPullRequestActivitiesApiUrl(repoUrl, "7462")).willReturn(activitiesUrl);
+        // what an immutable cache would still hold from the time 7462 was declined
+        given(scmHttpRestClient.makeRestCall(activitiesUrl, "user", "password", true))
+                .willReturn(new ResponseEntity<>(declinedActivities, HttpStatus.OK));
+
+        // 7462 is declined
+        given(scmHttpRestClient.makeRestCall(listing, "user", "password"))
+                .willReturn(new ResponseEntity<>(listing("DECLINED", 0), HttpStatus.OK));
+        given(scmHttpRestClient.makeRestCall(activitiesUrl, "user", "password"))
+                .willReturn(new ResponseEntity<>(declinedActivities, HttpStatus.OK));
+        pullRequestCollector.getPullRequests(repo, "ALL", "user", "password");
+
+        // then reopened and merged
+        given(scmHttpRestClient.makeRestCall(listing, "user", "password"))
+                .willReturn(new ResponseEntity<>(listing("MERGED", 1000), HttpStatus.OK));
+        given(scmHttpRestClient.makeRestCall(activitiesUrl, "user", "password"))
+                .willReturn(new ResponseEntity<>(activities, HttpStatus.OK));
+        pullRequestCollector.getPullRequests(repo, "ALL", "user", "password");
+
+        ArgumentCaptor<GitRequest> saved = ArgumentCaptor.forClass(GitRequest.class);
+        verify(gitRequestRepository, times(6)).save(saved.capture());
+        GitRequest merged = saved.getAllValues().get(3);
+        assertEquals("7462", merged.getNumber());
+        assertEquals("merged", merged.getState());
+        assertEquals("9999999999999999999999999999999999999999", merged.getScmRevisionNumber());
+        verify(scmHttpRestClient, never()).makeRestCall(activitiesUrl, "user", "password", true);
+    }
+
+    @Test
+    public void testGetPullRequests_ReopenedPullRequestLeavesClosedCache() throws Exception {
+        String repoUrl = "https://username@company.com/scm/myproject/myrepository.git";
+        GitRepo repo = new GitRepo();
+        repo.setId(ObjectId.get());
+        repo.setRepoUrl(repoUrl);
+        repo.setBranch("develop");
+        URI listing = URI.create(
+                "https://company.com/rest/api/1.0/projects/myproject/repos/myrepository/pull-requests?at=refs%2Fheads%2Fdevelop&state=ALL");
+        given(bitbucketApiUrlBuilder.buildPullRequestApiUrl(repoUrl)).willReturn(new URI(
+                "https://company.com/rest/api/1.0/projects/myproject/repos/myrepository/pull-requests"));
+        givenNoEnrichment(repoUrl);
+        ClosedPullRequestsRepository closedPullRequestsRepository = storing(mock(ClosedPullRequestsRepository.class));
+        ClosedPullRequestCache closedPullRequests = new ClosedPullRequestCache(closedPullRequestsRepository);
+        ReflectionTestUtils.setField(pullRequestCollector, "closedPullRequestCache", closedPullRequests);
+
+        // all three are declined
+        given(scmHttpRestClient.makeRestCall(listing, "user", "password"))
+                .willReturn(new ResponseEntity<>(listing("DECLINED", 0), HttpStatus.OK));
+        assertEquals(3, pullRequestCollector.getPullRequests(repo, "ALL", "user", "password"));
+        // the index is persisted and released once the listing is done
+        assertEquals(0, closedPullRequests.loadedItems());
+        assertTrue(closedPullRequests.contains(repo, "7462"));
+
+        // 7462 is reopened and commented
+        given(scmHttpRestClient.makeRestCall(listing, "user", "password"))
+                .willReturn(new ResponseEntity<>(listing("OPEN", 1000), HttpStatus.OK));
+        assertEquals(1, pullRequestCollector.getPullRequests(repo, "ALL", "user", "password"));
+        assertFalse(closedPullRequests.contains(repo, "7462"));
+        assertTrue(closedPullRequests.contains(repo, "7463"));
+        ArgumentCaptor<ClosedPullRequests> saved = ArgumentCaptor.forClass(ClosedPullRequests.class);
+        verify(closedPullRequestsRepository, times(2)).save(saved.capture());
+        assertFalse(saved.getValue().getUpdatedAt().containsKey("7462"));
+
+        // and declined again
+        given(scmHttpRestClient.makeRestCall(listing, "user", "password"))
+                .willReturn(new ResponseEntity<>(listing("DECLINED", 2000), HttpStatus.OK));
+        pullRequestCollector.getPullRequests(repo, "ALL", "user", "password");
+        assertTrue(closedPullRequests.contains(repo, "7462"));
+        assertEquals(2000 + 1538072099541L, closedPullRequests.getUpdatedAt(repo, "7462"));
+    }
+
+    /**
+     * @return the activities page without the activity of the given id
+     */
+    private String withoutActivity(String activities, long id) throws Exception {
+        JSONObject page = (JSONObject) new JSONParser().parse(activities);
+        Iterator<?> values = ((JSONArray) page.get("values")).iterator();
+        while (values.hasNext()) {
+            if (((Number) ((JSONObject) values.next()).get("id")).longValue() == id) {
+                values.remove();
+            }
+        }
+        return page.toJSONString();
+    }
+
+    /**
+     * @return the repository, reading back what was saved
+     */
+    private ClosedPullRequestsRepository storing(ClosedPullRequestsRepository repository) {
+        final Map<ObjectId, ClosedPullRequests> stored = new HashMap<>();
+        given(repository.save(Matchers.any(ClosedPullRequests.class))).willAnswer(new Answer<ClosedPullRequests>() {
+            @Override
+            public ClosedPullRequests answer(InvocationOnMock invocation) {
+                ClosedPullRequests closed = (ClosedPullRequests) invocation.getArguments()[0];
+                stored.put(closed.getCollectorItemId(), closed);
+                return closed;
+            }
+        });
+        given(repository.findOne(Matchers.any(ObjectId.class))).willAnswer(new Answer<ClosedPullRequests>() {
+            @Override
+            public ClosedPullRequests answer(InvocationOnMock invocation) {
+                return stored.get(invocation.getArguments()[0]);
+            }
+        });
+        return repository;
+    }
+
+    /**
+     * @return the listing with 7462 in the given state and updated later by the given millis, the
+     * other pull requests declined
+     */
+    @SuppressWarnings("unchecked")
+    private String listing(String state7462, long updatedLater) throws Exception {
+        JSONObject listing = (JSONObject) new JSONParser().parse(
+                getJson("/bitbucket-server/pr-response-test-data-1.json"));
+        for (Object item : (JSONArray) listing.get("values")) {
+            JSONObject pull = (JSONObject) item;
+            if ("7462".equals(pull.get("id").toString())) {
+                pull.put("state", state7462);
+                pull.put("updatedDate", (Long) pull.get("updatedDate") + updatedLater);
+            } else {
+                pull.put("state", "DECLINED");
+            }
+        }
+        return listing.toJSONString();
+    }
+
+    private static Comment comment(String user, long createdAt, String body) {
+        Comment comment = new Comment();
+        comment.setUserLDAPDN(user);
+        comment.setCreatedAt(createdAt);
+        comment.setBody(body);
+        return comment;
+    }
+
+    private void givenNoEnrichment(String repoUrl) throws URISyntaxException {
+        URI enrichment = new URI("https://company.com/rest/api/1.0/projects/myproject/repos/myrepository/enrichment");
+        given(bitbucketApiUrlBuilder.buildPullRequestCommitsApiUrl(eq(repoUrl), anyString())).willReturn(enrichment);
+        given(bitbucketApiUrlBuilder.buildPullRequestCommentsApiUrl(eq(repoUrl), anyString())).willReturn(enrichment);
+        given(bitbucketApiUrlBuilder.buildPullRequestActivitiesApiUrl(eq(repoUrl), anyString())).willReturn(enrichment);
+        given(scmHttpRestClient.makeRestCall(eq(enrichment), anyString(), anyString()))
+                .willReturn(new ResponseEntity<>("{\"values\":[]}", HttpStatus.OK));
+        given(scmHttpRestClient.makeRestCall(eq(enrichment), anyString(), anyString(), anyBoolean()))
+                .willReturn(new ResponseEntity<>("{\"values\":[]}", HttpStatus.OK));
+    }
+
     private String getJson(String fileName) throws IOException {
         InputStream inputStream = PullRequestCollectorTest.class.getResourceAsStream(fileName);
         return IOUtils.toString(inputStream);
@@ -0,0 +1,74 @@
+package com.capitalone.dashboard.collector;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RepositorySchedulerTest {
+
+    private RepositoryScheduler scheduler;
+
+    @After
+    public void stop() {
+        scheduler.stop();
+    }
+
+    @Test
+    public void collectsDueRepositoriesAndReschedulesThem() throws InterruptedException {
+        final List<String> collected = new CopyOnWriteArrayList<>();
+        final CountDownLatch latch = new CountDownLatch(3);
+        scheduler = new RepositoryScheduler(new RepositoryScheduler.RepositoryCollector() {
+            @Override
+            public long collect(RepositoryWork work) {
+                collected.add(work.getKey());
+                latch.countDown();
+                // "fast" is due again right away, "slow" only in an hour
+                return System.currentTimeMillis() + ("fast".equals(work.getKey()) ? 0 : TimeUnit.HOURS.toMillis(1));
+            }
+        }, 1, 1000);
+        long now = System.currentTimeMillis();
+        scheduler.schedule(work("slow"), now - 5000);
+        scheduler.schedule(work("fast"), now);
+        scheduler.schedule(work("later"), now + TimeUnit.HOURS.toMillis(1));
+
+        scheduler.start();
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertEquals("slow", collected.get(0));
+        assertEquals("fast", collected.get(1));
+        assertEquals("fast", collected.get(2));
+        assertTrue(!collected.contains("later"));
+        assertTrue(scheduler.getLags().get("slow") >= 5000);
+    }
+
+    @Test
+    public void retainOnlyStopsSchedulingRemovedRepositories() {
+        scheduler = new RepositoryScheduler(new RepositoryScheduler.RepositoryCollector() {
+            @Override
+            public long collect(RepositoryWork work) {
+                return System.currentTimeMillis();
+            }
+        }, 1, 1000);
+        long later = System.currentTimeMillis() + TimeUnit.HOURS.toMillis(1);
+        scheduler.schedule(work("kept"), later);
+        scheduler.schedule(work("removed"), later);
+        scheduler.schedule(work("kept"), 0);
+
+        scheduler.retainOnly(Collections.singleton("kept"));
+
+        assertEquals(1, scheduler.size());
+        assertTrue(scheduler.getLags().isEmpty());
+    }
+
+    private static RepositoryWork work(String key) {
+        return new RepositoryWork(key, new RepositoryGroup(), 0, 0);
+    }
+}
@@ -0,0 +1,54 @@
+package com.capitalone.dashboard.collector;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ShardRingTest {
+    private static final int REPOSITORIES = 10000;
+
+    @Test
+    public void spreadsRepositoriesEvenly() {
+        ShardRing ring = new ShardRing(4);
+        int[] counts = new int[4];
+        for (int i = 0; i < REPOSITORIES; i++) {
+            counts[ring.shardOf(key(i))]++;
+        }
+        for (int count : counts) {
+            assertTrue("shard has " + count + " repos", Math.abs(count - REPOSITORIES / 4) < REPOSITORIES / 4 * 0.25);
+        }
+    }
+
+    @Test
+    public void addingShardOnlyMovesRepositoriesToIt() {
+        ShardRing four = new ShardRing(4);
+        ShardRing five = new ShardRing(5);
+        int moved = 0;
+        for (int i = 0; i < REPOSITORIES; i++) {
+            int before = four.shardOf(key(i));
+            int after = five.shardOf(key(i));
+            if (before != after) {
+                assertEquals(4, after);
+                moved++;
+            }
+        }
+        assertTrue("moved " + moved + " repos", moved < REPOSITORIES * 0.3);
+    }
+
+    @Test
+    public void singleShardOwnsEverything() {
+        ShardRing ring = new ShardRing(1);
+        assertEquals(0, ring.shardOf(key(1)));
+        assertEquals(0, ring.shardOf(key(2)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsEmptyRing() {
+        new ShardRing(0);
+    }
+
+    private static String key(int i) {
+        return "company.com/proj" + (i % 37) + "/repo" + i;
+    }
+}
@@ -0,0 +1,177 @@
+package com.capitalone.dashboard.repository;
+
+import com.capitalone.dashboard.model.CollectorItem;
+import com.capitalone.dashboard.model.CollectorType;
+import com.capitalone.dashboard.model.Component;
+import com.capitalone.dashboard.model.GitRepo;
+import com.github.fakemongo.Fongo;
+import org.bson.types.ObjectId;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.data.util.CloseableIterator;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+
+public class GitRepoRepositoryImplTest {
+
+    private MongoTemplate template;
+    private GitRepoRepositoryImpl repository;
+    private final ObjectId collectorId = new ObjectId();
+
+    @Before
+    public void init() {
+        template = new MongoTemplate(new Fongo("test").getMongo(), "dashboarddb");
+        repository = new GitRepoRepositoryImpl(template);
+    }
+
+    @Test
+    public void countGitRepoReferencesOnlyReturnsItemsOfCollector() {
+        CollectorItem shared = item(collectorId);
+        CollectorItem single = item(collectorId);
+        CollectorItem other = item(new ObjectId());
+        template.save(component(shared, other));
+        template.save(component(shared, single));
+        template.save(new Component("no scm"));
+
+        Map<ObjectId, Integer> references = repository.countGitRepoReferences(collectorId);
+
+        assertEquals(2, references.size());
+        assertEquals(Integer.valueOf(2), references.get(shared.getId()));
+        assertEquals(Integer.valueOf(1), references.get(single.getId()));
+    }
+
+    @Test
+    public void updateEnabledGitRepos() {
+        GitRepo referenced = gitRepo(false);
+        GitRepo unreferenced = gitRepo(true);
+
+        repository.updateEnabledGitRepos(collectorId, Arrays.asList(referenced.getId()));
+
+        assertTrue(template.findById(referenced.getId(), GitRepo.class).isEnabled());
+        assertFalse(template.findById(unreferenced.getId(), GitRepo.class).isEnabled());
+    }
+
+    @Test
+    public void streamEnabledGitReposProjectsCollectionFields() {
+        GitRepo enabled = gitRepo(true);
+        gitRepo(false);
+        template.updateFirst(Query.query(where("_id").is(enabled.getId())),
+                Update.update("description", "not needed for collection"), GitRepo.class);
+
+        List<GitRepo> repos = new ArrayList<>();
+        try (CloseableIterator<GitRepo> iterator = repository.streamEnabledGitRepos(collectorId)) {
+            while (iterator.hasNext()) {
+                repos.add(iterator.next());
+            }
+        }
+
+        assertEquals(1, repos.size());
+        assertEquals(enabled.getId(), repos.get(0).getId());
+        assertEquals("https://company.com/scm/project/repo.git", repos.get(0).getRepoUrl());
+        assertNull(repos.get(0).getDescription());
+    }
+
+    @Test
+    public void streamEnabledGitReposDoesNotRetainIteratedRepos() {
+        int repoCount = 5000;
+        for (int i = 0; i < repoCount; i++) {
+            gitRepo(true);
+        }
+
+        List<WeakReference<GitRepo>> iterated = new ArrayList<>();
+        int retained;
+        try (CloseableIterator<GitRepo> iterator = repository.streamEnabledGitRepos(collectorId)) {
+            while (iterator.hasNext()) {
+                iterated.add(new WeakReference<>(iterator.next()));
+            }
+            // sample the heap while the cursor is still open
+            System.gc();
+            retained = 0;
+            for (WeakReference<GitRepo> reference : iterated) {
+                if (reference.get() != null) {
+                    retained++;
+                }
+            }
+        }
+
+        assertEquals(repoCount, iterated.size());
+        assertTrue("retained " + retained + " of " + repoCount, retained < repoCount / 10);
+    }
+
+    @Test
+    public void findEnabledGitReposByIdKeepsOrderOfIds() {
+        GitRepo first = gitRepo(true);
+        GitRepo disabled = gitRepo(false);
+        GitRepo second = gitRepo(true);
+        template.updateFirst(Query.query(where("_id").is(second.getId())),
+                Update.update("description", "not needed for collection"), GitRepo.class);
+
+        List<GitRepo> repos = repository.findEnabledGitReposById(
+                Arrays.asList(second.getId(), disabled.getId(), new ObjectId(), first.getId()));
+
+        assertEquals(2, repos.size());
+        assertEquals(second.getId(), repos.get(0).getId());
+        assertEquals(first.getId(), repos.get(1).getId());
+        assertEquals("https://company.com/scm/project/repo.git", repos.get(0).getRepoUrl());
+        assertNull(repos.get(0).getDescription());
+    }
+
+    @Test
+    public void saveLastUpdateOnlyWritesProgressFields() {
+        GitRepo repo = gitRepo(true);
+        template.updateFirst(Query.query(where("_id").is(repo.getId())),
+                Update.update("description", "kept"), GitRepo.class);
+
+        GitRepo projected = new GitRepo();
+        projected.setId(repo.getId());
+        projected.setLastUpdateTime(1234L);
+        projected.setLastUpdateCommit("abc");
+        projected.setPollInterval(600000L);
+        repository.saveLastUpdate(projected);
+
+        GitRepo saved = template.findById(repo.getId(), GitRepo.class);
+        assertEquals("kept", saved.getDescription());
+        assertEquals("https://company.com/scm/project/repo.git", saved.getRepoUrl());
+        assertEquals(Long.valueOf(1234L), saved.getLastUpdateTime());
+        assertEquals("abc", saved.getLastUpdateCommit());
+        assertEquals(Long.valueOf(600000L), saved.getPollInterval());
+    }
+
+    private CollectorItem item(ObjectId itemCollectorId) {
+        CollectorItem item = new CollectorItem();
+        item.setId(new ObjectId());
+        item.setCollectorId(itemCollectorId);
+        return item;
+    }
+
+    private Component component(CollectorItem... items) {
+        Component component = new Component("component");
+        for (CollectorItem item : items) {
+            component.addCollectorItem(CollectorType.SCM, item);
+        }
+        return component;
+    }
+
+    private GitRepo gitRepo(boolean enabled) {
+        GitRepo repo = new GitRepo();
+        repo.setCollectorId(collectorId);
+        repo.setEnabled(enabled);
+        repo.setRepoUrl("https://company.com/scm/project/repo.git");
+        repo.setBranch("master");
+        template.save(repo);
+        return repo;
+    }
+}
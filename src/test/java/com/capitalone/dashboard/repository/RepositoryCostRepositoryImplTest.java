@@ -0,0 +1,53 @@
+package com.capitalone.dashboard.repository;
+
+import com.capitalone.dashboard.model.RepositoryCost;
+import com.github.fakemongo.Fongo;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+public class RepositoryCostRepositoryImplTest {
+
+    private MongoTemplate template;
+    private RepositoryCostRepositoryImpl repository;
+
+    @Before
+    public void init() {
+        template = new MongoTemplate(new Fongo("test").getMongo(), "dashboarddb");
+        repository = new RepositoryCostRepositoryImpl(template);
+    }
+
+    @Test
+    public void findMostExpensiveSumsCyclesSinceTime() {
+        long now = System.currentTimeMillis();
+        template.save(cost("company.com/proj/monorepo", now - TimeUnit.HOURS.toMillis(2), 4000, 40));
+        template.save(cost("company.com/proj/monorepo", now - TimeUnit.HOURS.toMillis(1), 5000, 50));
+        template.save(cost("company.com/proj/small", now - TimeUnit.HOURS.toMillis(1), 100, 2));
+        template.save(cost("company.com/proj/busy", now - TimeUnit.HOURS.toMillis(1), 3000, 30));
+        template.save(cost("company.com/proj/busy", now - TimeUnit.DAYS.toMillis(2), 90000, 900));
+
+        List<RepositoryCost> costs = repository.findMostExpensive(now - TimeUnit.DAYS.toMillis(1), 2);
+
+        assertEquals(2, costs.size());
+        assertEquals("company.com/proj/monorepo", costs.get(0).getRepositoryKey());
+        assertEquals(9000, costs.get(0).getWallMillis());
+        assertEquals(90, costs.get(0).getHttpCalls());
+        assertEquals("company.com/proj/busy", costs.get(1).getRepositoryKey());
+        assertEquals(3000, costs.get(1).getWallMillis());
+    }
+
+    private static RepositoryCost cost(String key, long timestamp, long wallMillis, long httpCalls) {
+        RepositoryCost cost = new RepositoryCost();
+        cost.setRepositoryKey(key);
+        cost.setTimestamp(new Date(timestamp));
+        cost.setWallMillis(wallMillis);
+        cost.setHttpCalls(httpCalls);
+        return cost;
+    }
+}
@@ -0,0 +1,71 @@
+package com.capitalone.dashboard.repository;
+
+import com.capitalone.dashboard.model.RepositoryLease;
+import com.github.fakemongo.Fongo;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RepositoryLeaseRepositoryImplTest {
+    private static final String KEY = "company.com/proj/repo";
+
+    private MongoTemplate template;
+    private RepositoryLeaseRepositoryImpl repository;
+
+    @Before
+    public void init() {
+        template = new MongoTemplate(new Fongo("test").getMongo(), "dashboarddb");
+        repository = new RepositoryLeaseRepositoryImpl(template);
+    }
+
+    @Test
+    public void claimIsExclusiveUntilLeaseExpires() {
+        long now = System.currentTimeMillis();
+        assertTrue(repository.claim(KEY, "a", now + 60000, now));
+        assertTrue(repository.claim(KEY, "a", now + 60000, now));
+        assertFalse(repository.claim(KEY, "b", now + 60000, now));
+
+        template.save(lease("a", now - 1, null));
+
+        assertTrue(repository.claim(KEY, "b", now + 60000, now));
+        assertFalse(repository.renew(KEY, "a", now + 60000));
+        assertTrue(repository.renew(KEY, "b", now + 60000));
+        assertEquals("b", template.findById(KEY, RepositoryLease.class).getOwner());
+    }
+
+    @Test
+    public void collectedRepositoryIsNotClaimedAgainInSameCycle() {
+        long cycleStart = System.currentTimeMillis() - 1000;
+        assertTrue(repository.claim(KEY, "a", cycleStart + 60000, cycleStart));
+
+        repository.release(KEY, "a", System.currentTimeMillis());
+
+        assertFalse(repository.claim(KEY, "b", System.currentTimeMillis() + 60000, cycleStart));
+        assertTrue(repository.claim(KEY, "b", System.currentTimeMillis() + 60000, System.currentTimeMillis() + 1));
+    }
+
+    @Test
+    public void releaseWithoutCollectionKeepsRepositoryClaimable() {
+        long cycleStart = System.currentTimeMillis();
+        assertTrue(repository.claim(KEY, "a", cycleStart + 60000, cycleStart));
+
+        repository.release(KEY, "b", null);
+        assertFalse(repository.claim(KEY, "b", cycleStart + 60000, cycleStart));
+
+        repository.release(KEY, "a", null);
+        assertTrue(repository.claim(KEY, "b", cycleStart + 60000, cycleStart));
+    }
+
+    private static RepositoryLease lease(String owner, long expiresAt, Long collectedAt) {
+        RepositoryLease lease = new RepositoryLease();
+        lease.setRepositoryKey(KEY);
+        lease.setOwner(owner);
+        lease.setExpiresAt(expiresAt);
+        lease.setCollectedAt(collectedAt);
+        return lease;
+    }
+}
@@ -0,0 +1,603 @@
+package com.capitalone.dashboard.simulator;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-process stand-in for Bitbucket Server or Bitbucket Cloud, serving the endpoints the collector
+ * pages through for synthetic repositories: commits, pull requests and, per pull request, commits,
+ * activities and comments. Repository urls point at {@link #PUBLIC_HOST}; the clients reach the
+ * server through a rest template that rewrites the host, see {@link ThroughputSimulator}.
+ * <p>
+ * Each response is delayed by the profile latency, and the profile error and 429 rates decide
+ * whether a request is answered at all.
+ */
+public class FakeBitbucket {
+    public static final String PUBLIC_HOST = "bitbucket.example.com";
+    private static final String PUBLIC_BASE = "https://" + PUBLIC_HOST;
+    private static final long EPOCH = 1538000000000L;
+    private static final String SERVER_API = "/rest/api/1.0/projects/";
+    private static final String CLOUD_API = "/2.0/repositories/";
+
+    private final SimulationProfile profile;
+    private final Map<String, Repository> repositories = new HashMap<>();
+    private final Random random;
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong throttled = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private HttpServer server;
+    private ExecutorService executor;
+
+    public FakeBitbucket(SimulationProfile profile) {
+        this.profile = profile;
+        this.random = new Random(profile.seed);
+        for (int i = 0; i < profile.repos; i++) {
+            Repository repository = new Repository("proj", "repo" + i);
+            repository.push(profile.commitDepth);
+            repositories.put(repository.key(), repository);
+        }
+    }
+
+    public void start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        executor = Executors.newCachedThreadPool();
+        server.setExecutor(executor);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                serve(exchange);
+            }
+        });
+        server.start();
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * @return url of the repository as registered in a collector item
+     */
+    public String repoUrl(int i) {
+        return profile.isCloud()
+                ? PUBLIC_BASE + "/proj/repo" + i + ".git"
+                : PUBLIC_BASE + "/scm/proj/repo" + i + ".git";
+    }
+
+    /**
+     * Pushes the profile number of new commits to every repository.
+     */
+    public synchronized void advance() {
+        for (Repository repository : repositories.values()) {
+            repository.push(profile.newCommitsPerCycle);
+        }
+    }
+
+    public long getRequests() {
+        return requests.get();
+    }
+
+    public long getThrottled() {
+        return throttled.get();
+    }
+
+    public long getErrors() {
+        return errors.get();
+    }
+
+    public void resetCounts() {
+        requests.set(0);
+        throttled.set(0);
+        errors.set(0);
+    }
+
+    private void serve(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        double draw;
+        long latency;
+        synchronized (random) {
+            draw = random.nextDouble();
+            latency = profile.latencyMinMillis
+                    + (long) (-Math.log(1 - random.nextDouble()) * profile.latencyJitterMillis);
+        }
+        try {
+            TimeUnit.MILLISECONDS.sleep(latency);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            if (draw < profile.throttleRate) {
+                throttled.incrementAndGet();
+                exchange.getResponseHeaders().set("Retry-After", "1");
+                respond(exchange, 429, "{\"errors\":[{\"message\":\"Rate limit exceeded\"}]}");
+                return;
+            }
+            if (draw < profile.throttleRate + profile.errorRate) {
+                errors.incrementAndGet();
+                respond(exchange, 500, "{\"errors\":[{\"message\":\"Internal server error\"}]}");
+                return;
+            }
+            JSONObject page = route(exchange.getRequestURI());
+            if (page == null) {
+                respond(exchange, 404, "{\"errors\":[{\"message\":\"Not found\"}]}");
+            } else {
+                respond(exchange, 200, page.toJSONString());
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json;charset=UTF-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * @return page answering the request, null if nothing is served at its path
+     */
+    private synchronized JSONObject route(URI uri) {
+        String path = uri.getPath();
+        Map<String, List<String>> query = query(uri);
+        List<String> parts;
+        if (!profile.isCloud() && path.startsWith(SERVER_API)) {
+            // {project}/repos/{repo}/...
+            parts = new ArrayList<>(Arrays.asList(path.substring(SERVER_API.length()).split("/")));
+            if (parts.size() < 4) {
+                return null;
+            }
+            parts.remove(1);
+        } else if (profile.isCloud() && path.startsWith(CLOUD_API)) {
+            parts = Arrays.asList(path.substring(CLOUD_API.length()).split("/"));
+        } else {
+            return null;
+        }
+        if (parts.size() < 3) {
+            return null;
+        }
+        Repository repository = repositories.get(parts.get(0) + "/" + parts.get(1));
+        if (repository == null) {
+            return null;
+        }
+        String resource = parts.get(2);
+        if ("commits".equals(resource) && parts.size() == 3) {
+            return page(uri, query, repository.commits(first(query, "since")));
+        }
+        if (("pull-requests".equals(resource) || "pullrequests".equals(resource)) && parts.size() == 3) {
+            return page(uri, query, repository.pullRequests(query.get("state")));
+        }
+        if (parts.size() != 5) {
+            return null;
+        }
+        int number = Integer.parseInt(parts.get(3));
+        if (number < 0 || number >= profile.pullRequests) {
+            return null;
+        }
+        switch (parts.get(4)) {
+            case "commits":
+                return page(uri, query, repository.pullRequestCommits(number));
+            case "activities":
+                return page(uri, query, repository.serverActivities(number));
+            case "comments":
+                return page(uri, query, repository.cloudComments(number));
+            case "activity":
+                return page(uri, query, repository.cloudActivity(number));
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Pages the values the way the product does: Server by start and limit, Cloud by page number
+     * with a link to the next page.
+     */
+    @SuppressWarnings("unchecked")
+    private JSONObject page(URI uri, Map<String, List<String>> query, List<JSONObject> values) {
+        JSONObject page = new JSONObject();
+        JSONArray pageValues = new JSONArray();
+        if (profile.isCloud()) {
+            String pageParam = first(query, "page");
+            int number = pageParam == null ? 1 : Integer.parseInt(pageParam);
+            int from = Math.min(values.size(), (number - 1) * profile.pageSize);
+            int to = Math.min(values.size(), from + profile.pageSize);
+            pageValues.addAll(values.subList(from, to));
+            page.put("pagelen", profile.pageSize);
+            page.put("page", number);
+            page.put("size", values.size());
+            if (to < values.size()) {
+                page.put("next", PUBLIC_BASE + uri.getPath() + "?" + replacePage(uri.getRawQuery(), number + 1));
+            }
+        } else {
+            String startParam = first(query, "start");
+            String limitParam = first(query, "limit");
+            int start = startParam == null ? 0 : Integer.parseInt(startParam);
+            int limit = limitParam == null ? profile.pageSize : Integer.parseInt(limitParam);
+            int from = Math.min(values.size(), start);
+            int to = Math.min(values.size(), from + limit);
+            pageValues.addAll(values.subList(from, to));
+            page.put("size", pageValues.size());
+            page.put("limit", limit);
+            page.put("start", start);
+            page.put("isLastPage", to >= values.size());
+            if (to < values.size()) {
+                page.put("nextPageStart", to);
+            }
+        }
+        page.put("values", pageValues);
+        return page;
+    }
+
+    private static String replacePage(String rawQuery, int page) {
+        StringBuilder result = new StringBuilder();
+        if (rawQuery != null) {
+            for (String parameter : rawQuery.split("&")) {
+                if (!parameter.startsWith("page=") && !parameter.isEmpty()) {
+                    result.append(parameter).append('&');
+                }
+            }
+        }
+        return result.append("page=").append(page).toString();
+    }
+
+    private static Map<String, List<String>> query(URI uri) {
+        Map<String, List<String>> result = new HashMap<>();
+        if (uri.getRawQuery() == null) {
+            return result;
+        }
+        for (String parameter : uri.getRawQuery().split("&")) {
+            int equals = parameter.indexOf('=');
+            if (equals < 0) {
+                continue;
+            }
+            String name = decode(parameter.substring(0, equals));
+            if (!result.containsKey(name)) {
+                result.put(name, new ArrayList<String>());
+            }
+            result.get(name).add(decode(parameter.substring(equals + 1)));
+        }
+        return result;
+    }
+
+    private static String first(Map<String, List<String>> query, String name) {
+        List<String> values = query.get(name);
+        return values == null || values.isEmpty() ? null : values.get(0);
+    }
+
+    private static String decode(String value) {
+        try {
+            return URLDecoder.decode(value, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String cloudDate(long millis) {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'.000000+00:00'");
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return format.format(new Date(millis));
+    }
+
+    /**
+     * One synthetic repository; commits are only ever added, pull requests never change.
+     */
+    private final class Repository {
+        private final String project;
+        private final String slug;
+        private final List<String> shas = new ArrayList<>();
+        private final Map<String, Integer> indexes = new HashMap<>();
+
+        private Repository(String project, String slug) {
+            this.project = project;
+            this.slug = slug;
+        }
+
+        private String key() {
+            return project + "/" + slug;
+        }
+
+        private void push(int count) {
+            for (int i = 0; i < count; i++) {
+                String sha = DigestUtils.sha1Hex(key() + ":" + shas.size());
+                indexes.put(sha, shas.size());
+                shas.add(sha);
+            }
+        }
+
+        /**
+         * @return commits newest first, down to the commit after since
+         */
+        private List<JSONObject> commits(String since) {
+            Integer sinceIndex = since == null ? null : indexes.get(since);
+            int oldest = sinceIndex == null ? 0 : sinceIndex + 1;
+            List<JSONObject> commits = new ArrayList<>();
+            for (int i = shas.size() - 1; i >= oldest; i--) {
+                commits.add(commit(i));
+            }
+            return commits;
+        }
+
+        @SuppressWarnings("unchecked")
+        private JSONObject commit(int i) {
+            String sha = shas.get(i);
+            long time = EPOCH + i * TimeUnit.MINUTES.toMillis(7);
+            String message = "PROJ-" + (i % 500) + " Synthetic change " + i + " of " + key();
+            JSONArray parents = new JSONArray();
+            JSONObject commit = new JSONObject();
+            JSONObject author = new JSONObject();
+            String user = "user" + (i % 17);
+            if (profile.isCloud()) {
+                if (i > 0) {
+                    JSONObject parent = new JSONObject();
+                    parent.put("hash", shas.get(i - 1));
+                    parents.add(parent);
+                }
+                author.put("raw", user + " <" + user + "@company.com>");
+                commit.put("hash", sha);
+                commit.put("date", cloudDate(time));
+            } else {
+                if (i > 0) {
+                    JSONObject parent = new JSONObject();
+                    parent.put("id", shas.get(i - 1));
+                    parent.put("displayId", shas.get(i - 1).substring(0, 11));
+                    parents.add(parent);
+                }
+                author.put("name", user);
+                author.put("emailAddress", user + "@company.com");
+                author.put("displayName", "User " + (i % 17));
+                commit.put("id", sha);
+                commit.put("displayId", sha.substring(0, 11));
+                commit.put("authorTimestamp", time);
+            }
+            commit.put("author", author);
+            commit.put("message", message);
+            commit.put("parents", parents);
+            return commit;
+        }
+
+        private String state(int number) {
+            switch (number % 3) {
+                case 0:
+                    return "OPEN";
+                case 1:
+                    return "MERGED";
+                default:
+                    return "DECLINED";
+            }
+        }
+
+        /**
+         * @return pull requests in the given states, most recently updated first
+         */
+        private List<JSONObject> pullRequests(List<String> states) {
+            boolean all = states == null || states.contains("ALL");
+            List<JSONObject> pulls = new ArrayList<>();
+            for (int number = profile.pullRequests - 1; number >= 0; number--) {
+                if (all || states.contains(state(number))) {
+                    pulls.add(profile.isCloud() ? cloudPullRequest(number) : serverPullRequest(number));
+                }
+            }
+            return pulls;
+        }
+
+        private long updatedAt(int number) {
+            return EPOCH + number * TimeUnit.HOURS.toMillis(1);
+        }
+
+        private String headSha(int number) {
+            return DigestUtils.sha1Hex(key() + ":pull:" + number + ":" + (profile.commitsPerPullRequest - 1));
+        }
+
+        private String mergeSha(int number) {
+            return DigestUtils.sha1Hex(key() + ":merge:" + number);
+        }
+
+        @SuppressWarnings("unchecked")
+        private JSONObject serverPullRequest(int number) {
+            JSONObject user = new JSONObject();
+            user.put("name", "user" + (number % 17));
+            user.put("displayName", "User " + (number % 17));
+            JSONObject author = new JSONObject();
+            author.put("user", user);
+            author.put("role", "AUTHOR");
+            JSONObject fromRef = new JSONObject();
+            fromRef.put("id", "refs/heads/feature/change-" + number);
+            fromRef.put("displayId", "feature/change-" + number);
+            fromRef.put("latestCommit", headSha(number));
+            JSONObject toRef = new JSONObject();
+            toRef.put("id", "refs/heads/master");
+            toRef.put("displayId", "master");
+            JSONObject properties = new JSONObject();
+            if (profile.commentsPerPullRequest > 0) {
+                properties.put("commentCount", (long) profile.commentsPerPullRequest);
+            }
+            if ("MERGED".equals(state(number))) {
+                JSONObject mergeCommit = new JSONObject();
+                mergeCommit.put("id", mergeSha(number));
+                properties.put("mergeCommit", mergeCommit);
+            }
+            JSONObject pull = new JSONObject();
+            pull.put("id", (long) number);
+            pull.put("version", 1L);
+            pull.put("title", "Synthetic pull request " + number + " of " + key());
+            pull.put("description", "Changes " + number);
+            pull.put("state", state(number));
+            pull.put("createdDate", updatedAt(number) - TimeUnit.DAYS.toMillis(1));
+            pull.put("updatedDate", updatedAt(number));
+            pull.put("fromRef", fromRef);
+            pull.put("toRef", toRef);
+            pull.put("author", author);
+            pull.put("properties", properties);
+            return pull;
+        }
+
+        @SuppressWarnings("unchecked")
+        private JSONObject cloudPullRequest(int number) {
+            JSONObject pull = new JSONObject();
+            pull.put("id", (long) number);
+            pull.put("title", "Synthetic pull request " + number + " of " + key());
+            pull.put("state", state(number));
+            pull.put("created_on", cloudDate(updatedAt(number) - TimeUnit.DAYS.toMillis(1)));
+            pull.put("updated_on", cloudDate(updatedAt(number)));
+            pull.put("comment_count", (long) profile.commentsPerPullRequest);
+            pull.put("source", cloudRef("feature/change-" + number, headSha(number)));
+            pull.put("destination", cloudRef("master", shas.isEmpty() ? null : shas.get(0)));
+            JSONObject author = new JSONObject();
+            author.put("display_name", "User " + (number % 17));
+            pull.put("author", author);
+            if ("MERGED".equals(state(number))) {
+                JSONObject mergeCommit = new JSONObject();
+                mergeCommit.put("hash", mergeSha(number));
+                pull.put("merge_commit", mergeCommit);
+            }
+            return pull;
+        }
+
+        @SuppressWarnings("unchecked")
+        private JSONObject cloudRef(String branchName, String hash) {
+            JSONObject branch = new JSONObject();
+            branch.put("name", branchName);
+            JSONObject commit = new JSONObject();
+            commit.put("hash", hash);
+            JSONObject ref = new JSONObject();
+            ref.put("branch", branch);
+            ref.put("commit", commit);
+            return ref;
+        }
+
+        @SuppressWarnings("unchecked")
+        private List<JSONObject> pullRequestCommits(int number) {
+            List<JSONObject> commits = new ArrayList<>();
+            for (int i = profile.commitsPerPullRequest - 1; i >= 0; i--) {
+                String sha = DigestUtils.sha1Hex(key() + ":pull:" + number + ":" + i);
+                long time = updatedAt(number) - TimeUnit.MINUTES.toMillis(profile.commitsPerPullRequest - i);
+                JSONObject commit = new JSONObject();
+                if (profile.isCloud()) {
+                    commit.put("hash", sha);
+                    commit.put("date", cloudDate(time));
+                } else {
+                    JSONObject author = new JSONObject();
+                    author.put("name", "user" + (number % 17));
+                    commit.put("id", sha);
+                    commit.put("author", author);
+                    commit.put("message", "Pull request " + number + " change " + i);
+                    commit.put("authorTimestamp", time);
+                    commit.put("parents", new JSONArray());
+                }
+                commits.add(commit);
+            }
+            return commits;
+        }
+
+        /**
+         * @return activities newest first: merge, comments, opening
+         */
+        @SuppressWarnings("unchecked")
+        private List<JSONObject> serverActivities(int number) {
+            List<JSONObject> activities = new ArrayList<>();
+            long id = number * 1000L;
+            JSONObject opened = new JSONObject();
+            opened.put("id", id++);
+            opened.put("action", "OPENED");
+            opened.put("createdDate", updatedAt(number) - TimeUnit.DAYS.toMillis(1));
+            activities.add(opened);
+            for (int i = 0; i < profile.commentsPerPullRequest; i++) {
+                JSONObject author = new JSONObject();
+                author.put("name", "reviewer" + (i % 5));
+                author.put("displayName", "Reviewer " + (i % 5));
+                JSONObject comment = new JSONObject();
+                comment.put("id", id);
+                comment.put("text", "Comment " + i + " on pull request " + number);
+                comment.put("author", author);
+                comment.put("createdDate", updatedAt(number) - TimeUnit.MINUTES.toMillis(60 - i));
+                comment.put("updatedDate", updatedAt(number) - TimeUnit.MINUTES.toMillis(60 - i));
+                comment.put("comments", new JSONArray());
+                JSONObject activity = new JSONObject();
+                activity.put("id", id++);
+                activity.put("action", "COMMENTED");
+                activity.put("commentAction", "ADDED");
+                activity.put("comment", comment);
+                activities.add(activity);
+            }
+            if ("MERGED".equals(state(number))) {
+                JSONObject commit = new JSONObject();
+                commit.put("id", mergeSha(number));
+                JSONObject merged = new JSONObject();
+                merged.put("id", id);
+                merged.put("action", "MERGED");
+                merged.put("commit", commit);
+                activities.add(merged);
+            }
+            Collections.reverse(activities);
+            return activities;
+        }
+
+        @SuppressWarnings("unchecked")
+        private List<JSONObject> cloudComments(int number) {
+            List<JSONObject> comments = new ArrayList<>();
+            for (int i = 0; i < profile.commentsPerPullRequest; i++) {
+                JSONObject content = new JSONObject();
+                content.put("raw", "Comment " + i + " on pull request " + number);
+                JSONObject user = new JSONObject();
+                user.put("display_name", "Reviewer " + (i % 5));
+                user.put("uuid", "{reviewer-" + (i % 5) + "}");
+                JSONObject comment = new JSONObject();
+                comment.put("id", (long) i);
+                comment.put("content", content);
+                comment.put("user", user);
+                comment.put("created_on", cloudDate(updatedAt(number) - TimeUnit.MINUTES.toMillis(60 - i)));
+                comment.put("updated_on", cloudDate(updatedAt(number) - TimeUnit.MINUTES.toMillis(60 - i)));
+                comments.add(comment);
+            }
+            return comments;
+        }
+
+        @SuppressWarnings("unchecked")
+        private List<JSONObject> cloudActivity(int number) {
+            if (!"MERGED".equals(state(number))) {
+                return Collections.emptyList();
+            }
+            JSONObject update = new JSONObject();
+            update.put("state", "MERGED");
+            update.put("destination", cloudRef("master", mergeSha(number)));
+            JSONObject activity = new JSONObject();
+            activity.put("update", update);
+            return Collections.singletonList(activity);
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package com.capitalone.dashboard.simulator;
+
+/**
+ * Shape of the synthetic Bitbucket served by {@link FakeBitbucket} and of the simulation run
+ * against it. Every setting can be given on the command line of {@link ThroughputSimulator} as
+ * {@code --name=value}.
+ */
+public class SimulationProfile {
+    /** server or cloud */
+    String product = "server";
+    int repos = 50;
+    /** commits of each repository before the first cycle */
+    int commitDepth = 200;
+    /** commits pushed to each repository between two cycles */
+    int newCommitsPerCycle = 5;
+    int pullRequests = 20;
+    int commitsPerPullRequest = 3;
+    int commentsPerPullRequest = 2;
+    int pageSize = 25;
+    /** every response takes at least this long */
+    long latencyMinMillis = 5;
+    /** mean of the exponentially distributed latency added on top of the minimum */
+    long latencyJitterMillis = 20;
+    /** share of requests answered with 500 */
+    double errorRate;
+    /** share of requests answered with 429 */
+    double throttleRate;
+    int cycles = 2;
+    long seed = 42;
+
+    public static SimulationProfile parse(String[] args) {
+        SimulationProfile profile = new SimulationProfile();
+        for (String arg : args) {
+            if (!arg.startsWith("--") || !arg.contains("=")) {
+                throw new IllegalArgumentException("Expected --name=value but got " + arg);
+            }
+            String name = arg.substring(2, arg.indexOf('='));
+            String value = arg.substring(arg.indexOf('=') + 1);
+            profile.set(name, value);
+        }
+        return profile;
+    }
+
+    private void set(String name, String value) {
+        switch (name) {
+            case "product":
+                product = value;
+                break;
+            case "repos":
+                repos = Integer.parseInt(value);
+                break;
+            case "commitDepth":
+                commitDepth = Integer.parseInt(value);
+                break;
+            case "newCommitsPerCycle":
+                newCommitsPerCycle = Integer.parseInt(value);
+                break;
+            case "pullRequests":
+                pullRequests = Integer.parseInt(value);
+                break;
+            case "commitsPerPullRequest":
+                commitsPerPullRequest = Integer.parseInt(value);
+                break;
+            case "commentsPerPullRequest":
+                commentsPerPullRequest = Integer.parseInt(value);
+                break;
+            case "pageSize":
+                pageSize = Integer.parseInt(value);
+                break;
+            case "latencyMinMillis":
+                latencyMinMillis = Long.parseLong(value);
+                break;
+            case "latencyJitterMillis":
+                latencyJitterMillis = Long.parseLong(value);
+                break;
+            case "errorRate":
+                errorRate = Double.parseDouble(value);
+                break;
+            case "throttleRate":
+                throttleRate = Double.parseDouble(value);
+                break;
+            case "cycles":
+                cycles = Integer.parseInt(value);
+                break;
+            case "seed":
+                seed = Long.parseLong(value);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown setting " + name);
+        }
+    }
+
+    boolean isCloud() {
+        return "cloud".equalsIgnoreCase(product);
+    }
+
+    @Override
+    public String toString() {
+        return product + ": " + repos + " repos, " + commitDepth + " commits deep, " + newCommitsPerCycle
+                + " new commits per cycle, " + pullRequests + " pull requests, page size " + pageSize
+                + ", latency " + latencyMinMillis + "+exp(" + latencyJitterMillis + ") ms, error rate "
+                + errorRate + ", 429 rate " + throttleRate;
+    }
+}
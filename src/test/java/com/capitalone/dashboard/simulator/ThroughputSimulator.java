@@ -0,0 +1,334 @@
+package com.capitalone.dashboard.simulator;
+
+import com.capitalone.dashboard.bitbucketapi.BitbucketApiUrlBuilder;
+import com.capitalone.dashboard.collector.ClosedPullRequestCache;
+import com.capitalone.dashboard.collector.DefaultBitbucketCloudClient;
+import com.capitalone.dashboard.collector.DefaultBitbucketServerClient;
+import com.capitalone.dashboard.collector.GitClient;
+import com.capitalone.dashboard.collector.GitCollectorTask;
+import com.capitalone.dashboard.collector.GitSettings;
+import com.capitalone.dashboard.collector.PullRequestCollector;
+import com.capitalone.dashboard.collector.SCMHttpRestClient;
+import com.capitalone.dashboard.model.Collector;
+import com.capitalone.dashboard.model.CollectorItem;
+import com.capitalone.dashboard.model.CollectorType;
+import com.capitalone.dashboard.model.Commit;
+import com.capitalone.dashboard.model.Component;
+import com.capitalone.dashboard.model.GitRepo;
+import com.capitalone.dashboard.model.GitRequest;
+import com.capitalone.dashboard.repository.ClosedPullRequestsRepository;
+import com.capitalone.dashboard.repository.CollectorRepository;
+import com.capitalone.dashboard.repository.CommitRepository;
+import com.capitalone.dashboard.repository.GitRepoRepository;
+import com.capitalone.dashboard.repository.GitRepoRepositoryImpl;
+import com.capitalone.dashboard.repository.GitRequestRepository;
+import com.capitalone.dashboard.util.Supplier;
+import com.github.fakemongo.Fongo;
+import org.apache.commons.codec.binary.Base64;
+import org.bson.types.ObjectId;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.repository.support.MongoRepositoryFactory;
+import org.springframework.http.HttpRequest;
+import org.springframework.http.client.ClientHttpRequestExecution;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.client.ClientHttpRequestInterceptor;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
+import org.springframework.http.client.support.HttpRequestWrapper;
+import org.springframework.scheduling.concurrent.ConcurrentTaskScheduler;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.ClassUtils;
+import org.springframework.web.client.RestOperations;
+import org.springframework.web.client.RestTemplate;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs the real {@link GitCollectorTask#collect} against a {@link FakeBitbucket} and an embedded
+ * Mongo, and reports per cycle how fast and how expensive collection was: repositories per
+ * second, HTTP calls and Mongo operations per repository, peak heap and cycle time. Cycles run in
+ * cron mode, one after the other; between two cycles every repository gets new commits.
+ * <p>
+ * Usage:
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=com.capitalone.dashboard.simulator.ThroughputSimulator \
+ *     -Dexec.args="--product=server --repos=200 --latencyMinMillis=20 --throttleRate=0.01"
+ * </pre>
+ * See {@link SimulationProfile} for all settings.
+ */
+public class ThroughputSimulator {
+    private static final long HEAP_SAMPLE_MILLIS = 5;
+
+    private final SimulationProfile profile;
+    private final AtomicLong mongoOperations = new AtomicLong();
+
+    public ThroughputSimulator(SimulationProfile profile) {
+        this.profile = profile;
+    }
+
+    public static void main(String[] args) throws IOException {
+        SimulationProfile profile = SimulationProfile.parse(args);
+        System.out.println(profile);
+        for (CycleReport report : new ThroughputSimulator(profile).run()) {
+            System.out.println(report);
+        }
+    }
+
+    /**
+     * @return one report per cycle
+     */
+    public List<CycleReport> run() throws IOException {
+        FakeBitbucket bitbucket = new FakeBitbucket(profile);
+        bitbucket.start();
+        try {
+            return run(bitbucket);
+        } finally {
+            bitbucket.stop();
+        }
+    }
+
+    private List<CycleReport> run(FakeBitbucket bitbucket) {
+        MongoTemplate template = new MongoTemplate(new Fongo("simulator").getMongo(), "dashboarddb");
+        MongoRepositoryFactory factory = new MongoRepositoryFactory(template);
+        GitRepoRepository gitRepoRepository = counted(
+                factory.getRepository(GitRepoRepository.class, new GitRepoRepositoryImpl(template)));
+        CommitRepository commitRepository = counted(factory.getRepository(CommitRepository.class));
+        GitRequestRepository gitRequestRepository = counted(factory.getRepository(GitRequestRepository.class));
+        ClosedPullRequestsRepository closedPullRequestsRepository =
+                counted(factory.getRepository(ClosedPullRequestsRepository.class));
+
+        Collector collector = new Collector();
+        collector.setId(new ObjectId());
+        for (int i = 0; i < profile.repos; i++) {
+            GitRepo repo = new GitRepo();
+            repo.setCollectorId(collector.getId());
+            repo.setEnabled(true);
+            repo.setRepoUrl(bitbucket.repoUrl(i));
+            repo.setBranch("master");
+            template.save(repo);
+            // referenced by a dashboard, or cleaning would disable it
+            CollectorItem item = new CollectorItem();
+            item.setId(repo.getId());
+            item.setCollectorId(collector.getId());
+            Component component = new Component("component" + i);
+            component.addCollectorItem(CollectorType.SCM, item);
+            template.save(component);
+        }
+
+        GitSettings settings = settings();
+        RestTemplate restTemplate = redirecting(new SimpleClientHttpRequestFactory(), bitbucket.getPort());
+        SCMHttpRestClient scmHttpRestClient = new SCMHttpRestClient();
+        ReflectionTestUtils.setField(scmHttpRestClient, "restTemplate", restTemplate);
+        BitbucketApiUrlBuilder urlBuilder = new BitbucketApiUrlBuilder(settings);
+        GitClient gitClient;
+        if (profile.isCloud()) {
+            final RestOperations restOperations =
+                    redirecting(new HttpComponentsClientHttpRequestFactory(), bitbucket.getPort());
+            gitClient = new DefaultBitbucketCloudClient(settings, new Supplier<RestOperations>() {
+                @Override
+                public RestOperations get() {
+                    return restOperations;
+                }
+            });
+        } else {
+            gitClient = new DefaultBitbucketServerClient(settings, urlBuilder, scmHttpRestClient);
+        }
+        PullRequestCollector pullRequestCollector = new PullRequestCollector();
+        ReflectionTestUtils.setField(pullRequestCollector, "settings", settings);
+        ReflectionTestUtils.setField(pullRequestCollector, "bitbucketApiUrlBuilder", urlBuilder);
+        ReflectionTestUtils.setField(pullRequestCollector, "scmHttpRestClient", scmHttpRestClient);
+        ReflectionTestUtils.setField(pullRequestCollector, "gitRequestRepository", gitRequestRepository);
+        ReflectionTestUtils.setField(pullRequestCollector, "commitRepository", commitRepository);
+        ReflectionTestUtils.setField(pullRequestCollector, "closedPullRequestCache",
+                new ClosedPullRequestCache(closedPullRequestsRepository));
+
+        GitCollectorTask task = new GitCollectorTask(new ConcurrentTaskScheduler(),
+                counted(factory.getRepository(CollectorRepository.class)), gitRepoRepository, commitRepository,
+                gitClient, settings);
+        ReflectionTestUtils.setField(task, "pullRequestCollector", pullRequestCollector);
+
+        List<CycleReport> reports = new ArrayList<>();
+        for (int cycle = 1; cycle <= profile.cycles; cycle++) {
+            if (cycle > 1) {
+                bitbucket.advance();
+            }
+            bitbucket.resetCounts();
+            mongoOperations.set(0);
+            HeapSampler heap = new HeapSampler();
+            heap.start();
+            long start = System.nanoTime();
+            task.collect(collector);
+            long cycleNanos = System.nanoTime() - start;
+            heap.stop();
+
+            CycleReport report = new CycleReport();
+            report.cycle = cycle;
+            report.repos = profile.repos;
+            report.cycleMillis = TimeUnit.NANOSECONDS.toMillis(cycleNanos);
+            report.httpCalls = bitbucket.getRequests();
+            report.throttled = bitbucket.getThrottled();
+            report.errors = bitbucket.getErrors();
+            report.mongoOperations = mongoOperations.get();
+            report.peakHeapBytes = heap.peak;
+            report.commits = template.count(new Query(), Commit.class);
+            report.pullRequests = template.count(new Query(), GitRequest.class);
+            for (GitRepo repo : template.findAll(GitRepo.class)) {
+                if (repo.getLastFailure() != null) {
+                    report.failedRepos++;
+                }
+            }
+            reports.add(report);
+        }
+        return reports;
+    }
+
+    private GitSettings settings() {
+        GitSettings settings = new GitSettings();
+        settings.setProduct(profile.product);
+        if (profile.isCloud()) {
+            // differs from the repository host, so the Cloud client puts the api path in front of the repository
+            settings.setHost(Collections.singletonList("api." + FakeBitbucket.PUBLIC_HOST));
+            settings.setApi("/2.0/repositories/");
+        } else {
+            settings.setHost(Collections.singletonList(FakeBitbucket.PUBLIC_HOST));
+            settings.setApi("/rest/api/1.0/");
+        }
+        settings.setUsername(Collections.singletonList("simulator"));
+        settings.setPassword(Collections.singletonList(
+                Base64.encodeBase64String("secret".getBytes(StandardCharsets.UTF_8))));
+        settings.setCron("0 */5 * * * *");
+        settings.setPageSize(profile.pageSize);
+        return settings;
+    }
+
+    /**
+     * @return rest template sending every request to the fake Bitbucket, whatever host it names
+     */
+    private static RestTemplate redirecting(ClientHttpRequestFactory requestFactory, final int port) {
+        RestTemplate restTemplate = new RestTemplate(requestFactory);
+        restTemplate.setInterceptors(Collections.<ClientHttpRequestInterceptor>singletonList(
+                new ClientHttpRequestInterceptor() {
+                    @Override
+                    public ClientHttpResponse intercept(HttpRequest request, byte[] body,
+                                                        ClientHttpRequestExecution execution) throws IOException {
+                        URI original = request.getURI();
+                        final URI local = URI.create("http://127.0.0.1:" + port + original.getRawPath()
+                                + (original.getRawQuery() == null ? "" : "?" + original.getRawQuery()));
+                        return execution.execute(new HttpRequestWrapper(request) {
+                            @Override
+                            public URI getURI() {
+                                return local;
+                            }
+                        }, body);
+                    }
+                }));
+        return restTemplate;
+    }
+
+    /**
+     * @return the repository, counting every call made through it as one Mongo operation
+     */
+    @SuppressWarnings("unchecked")
+    private <T> T counted(final T repository) {
+        return (T) Proxy.newProxyInstance(repository.getClass().getClassLoader(),
+                ClassUtils.getAllInterfaces(repository), new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        if (method.getDeclaringClass() != Object.class) {
+                            mongoOperations.incrementAndGet();
+                        }
+                        try {
+                            return method.invoke(repository, args);
+                        } catch (InvocationTargetException e) {
+                            throw e.getCause();
+                        }
+                    }
+                });
+    }
+
+    /**
+     * Samples the used heap while a cycle runs, since the heap pools only keep the peak of each pool.
+     */
+    private static final class HeapSampler implements Runnable {
+        private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        private final Thread thread = new Thread(this, "heap-sampler");
+        private volatile boolean running = true;
+        private volatile long peak;
+
+        private void start() {
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        private void stop() {
+            running = false;
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        public void run() {
+            do {
+                peak = Math.max(peak, memory.getHeapMemoryUsage().getUsed());
+                try {
+                    TimeUnit.MILLISECONDS.sleep(HEAP_SAMPLE_MILLIS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            } while (running);
+        }
+    }
+
+    public static class CycleReport {
+        int cycle;
+        int repos;
+        long cycleMillis;
+        long httpCalls;
+        long throttled;
+        long errors;
+        long mongoOperations;
+        long peakHeapBytes;
+        long commits;
+        long pullRequests;
+        int failedRepos;
+
+        public double getReposPerSecond() {
+            return cycleMillis == 0 ? repos : repos * 1000.0 / cycleMillis;
+        }
+
+        public double getHttpCallsPerRepo() {
+            return httpCalls / (double) repos;
+        }
+
+        public double getMongoOperationsPerRepo() {
+            return mongoOperations / (double) repos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("cycle %d: %d ms, %.1f repos/s, %.1f HTTP calls/repo (%d 429, %d 5xx), "
+                            + "%.1f Mongo ops/repo, peak heap %d MB, %d failed repos, %d commits and %d pull requests stored",
+                    cycle, cycleMillis, getReposPerSecond(), getHttpCallsPerRepo(), throttled, errors,
+                    getMongoOperationsPerRepo(), peakHeapBytes / (1024 * 1024), failedRepos, commits, pullRequests);
+        }
+    }
+}
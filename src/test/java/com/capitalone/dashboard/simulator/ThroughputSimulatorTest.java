@@ -0,0 +1,66 @@
+package com.capitalone.dashboard.simulator;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ThroughputSimulatorTest {
+
+    @Test
+    public void serverCyclesCollectEveryCommitAndPullRequest() throws IOException {
+        SimulationProfile profile = profile("server");
+
+        List<ThroughputSimulator.CycleReport> reports = new ThroughputSimulator(profile).run();
+
+        assertEquals(2, reports.size());
+        ThroughputSimulator.CycleReport first = reports.get(0);
+        assertEquals(0, first.failedRepos);
+        assertEquals(profile.repos * profile.commitDepth, first.commits);
+        assertEquals(profile.repos * profile.pullRequests, first.pullRequests);
+        // 3 commit pages, 1 pull request page, commits and activities of each pull request
+        assertEquals(3 + 1 + 2 * profile.pullRequests, first.getHttpCallsPerRepo(), 0.001);
+        assertTrue(first.getMongoOperationsPerRepo() > 0);
+        assertTrue(first.peakHeapBytes > 0);
+        assertTrue(first.getReposPerSecond() > 0);
+
+        ThroughputSimulator.CycleReport second = reports.get(1);
+        assertEquals(profile.repos * (profile.commitDepth + profile.newCommitsPerCycle), second.commits);
+        assertTrue(second.getHttpCallsPerRepo() < first.getHttpCallsPerRepo());
+    }
+
+    @Test
+    public void cloudCyclesCollectEveryCommitAndPullRequest() throws IOException {
+        SimulationProfile profile = profile("cloud");
+
+        List<ThroughputSimulator.CycleReport> reports = new ThroughputSimulator(profile).run();
+
+        assertEquals(0, reports.get(0).failedRepos);
+        assertEquals(profile.repos * profile.commitDepth, reports.get(0).commits);
+        assertEquals(profile.repos * profile.pullRequests, reports.get(0).pullRequests);
+        assertEquals(profile.repos * (profile.commitDepth + profile.newCommitsPerCycle), reports.get(1).commits);
+    }
+
+    @Test
+    public void throttledRequestsFailRepositories() throws IOException {
+        SimulationProfile profile = profile("server");
+        profile.throttleRate = 1;
+        profile.cycles = 1;
+
+        ThroughputSimulator.CycleReport report = new ThroughputSimulator(profile).run().get(0);
+
+        assertEquals(profile.repos, report.failedRepos);
+        assertEquals(report.httpCalls, report.throttled);
+        assertEquals(0, report.commits);
+    }
+
+    private static SimulationProfile profile(String product) {
+        SimulationProfile profile = SimulationProfile.parse(new String[] {
+                "--product=" + product, "--repos=4", "--commitDepth=60", "--newCommitsPerCycle=3",
+                "--pullRequests=4", "--pageSize=25", "--latencyMinMillis=0", "--latencyJitterMillis=1"});
+        return profile;
+    }
+}